@@ -0,0 +1,513 @@
+package com.softmotions.commons.db;
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Datasource wrapper tracing connections held too long.
+ * <p/>
+ * Hold durations are recorded per call site. Call site is the context set by
+ * {@link #setContext(String)} (e.g. mapped statement id)
+ * or the first application frame of the borrowing thread stack
+ * resolved for every borrowed connection by a short stack walk.
+ * Full stack is captured for every {@code sampleRate}-th borrowed connection only.
+ * <p/>
+ * Connections held longer than threshold are logged when closed
+ * and while still open by the background checker.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class LeakDetectingDataSource implements DataSource, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LeakDetectingDataSource.class);
+
+    public static final long DEFAULT_THRESHOLD_MS = 30000L;
+
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    private static final String UNKNOWN_SITE = "(unknown)";
+
+    private static final int MAX_STACK_DEPTH = 64;
+
+    /**
+     * Frames of classes with these name prefixes are not considered as call sites.
+     */
+    private static final String[] FRAMEWORK_PREFIXES = {
+            "java.", "javax.", "jdk.", "sun.", "com.sun.", "kotlin.",
+            "com.zaxxer.hikari.", "org.apache.ibatis.", "org.mybatis.",
+            "org.apache.cayenne.", "com.google.inject.", "org.aopalliance.",
+            "com.softmotions.commons.db.JdbcConnectionPool", "com.softmotions.commons.db.LeakDetectingDataSource",
+            "com.softmotions.weboot.mb."
+    };
+
+    private static final ThreadLocal<String> CONTEXT = new ThreadLocal<>();
+
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final DataSource delegate;
+
+    private final long thresholdNanos;
+
+    private final int sampleRate;
+
+    private final AtomicLong borrows = new AtomicLong();
+
+    private final Map<Hold, Boolean> active = new ConcurrentHashMap<>();
+
+    private final Map<String, SiteStats> sites = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService checker;
+
+    /**
+     * @param thresholdMs Hold duration in milliseconds considered too long
+     * @param sampleRate  Capture stack of every N-th borrowed connection,
+     *                    {@code 1} to capture all, {@code 0} to never capture stacks
+     */
+    public LeakDetectingDataSource(DataSource delegate, long thresholdMs, int sampleRate) {
+        this.delegate = delegate;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, thresholdMs));
+        this.sampleRate = Math.max(0, sampleRate);
+        ScheduledThreadPoolExecutor stp = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "connection-leak-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        stp.setRemoveOnCancelPolicy(true);
+        long period = Math.max(1000L, thresholdMs / 2);
+        stp.scheduleWithFixedDelay(this::checkActive, period, period, TimeUnit.MILLISECONDS);
+        this.checker = stp;
+    }
+
+    public DataSource getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Set context of connections borrowed by the current thread.
+     *
+     * @return Previous context to be restored by {@link #restoreContext(String)}
+     */
+    public static String setContext(String context) {
+        String prev = CONTEXT.get();
+        CONTEXT.set(context);
+        return prev;
+    }
+
+    public static void restoreContext(String prev) {
+        if (prev != null) {
+            CONTEXT.set(prev);
+        } else {
+            CONTEXT.remove();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return track(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return track(delegate.getConnection(username, password));
+    }
+
+    private Connection track(Connection conn) {
+        StackTraceElement[] stack = null;
+        String site = CONTEXT.get();
+        if (sampleRate > 0 && borrows.getAndIncrement() % sampleRate == 0) {
+            stack = captureStack();
+            if (site == null) {
+                site = callSite(stack);
+            }
+        }
+        if (site == null) {
+            site = callSite();
+        }
+        Hold hold = new Hold(site, Thread.currentThread().getName(), stack, System.nanoTime());
+        active.put(hold, Boolean.TRUE);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                   new Class[]{Connection.class},
+                                                   new ConnectionHandler(conn, hold));
+    }
+
+    private static StackTraceElement[] captureStack() {
+        List<StackTraceElement> frames =
+                STACK_WALKER.walk(s -> s.skip(2)
+                                        .limit(MAX_STACK_DEPTH)
+                                        .map(StackWalker.StackFrame::toStackTraceElement)
+                                        .collect(Collectors.toList()));
+        return frames.toArray(new StackTraceElement[frames.size()]);
+    }
+
+    static String callSite(StackTraceElement[] stack) {
+        for (StackTraceElement e : stack) {
+            if (!isFramework(e.getClassName())) {
+                return e.getClassName() + '.' + e.getMethodName() +
+                       '(' + e.getFileName() + ':' + e.getLineNumber() + ')';
+            }
+        }
+        return UNKNOWN_SITE;
+    }
+
+    /**
+     * First application frame of the current thread stack.
+     * Stack walk stops at this frame, stack trace elements are not created.
+     */
+    private static String callSite() {
+        return STACK_WALKER.walk(s -> s.filter(f -> !isFramework(f.getClassName()))
+                                       .findFirst()
+                                       .map(f -> f.getClassName() + '.' + f.getMethodName() +
+                                                 '(' + f.getFileName() + ':' + f.getLineNumber() + ')')
+                                       .orElse(UNKNOWN_SITE));
+    }
+
+    private static boolean isFramework(String className) {
+        for (String p : FRAMEWORK_PREFIXES) {
+            if (className.startsWith(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void release(Hold hold) {
+        if (active.remove(hold) == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - hold.start;
+        boolean longHeld = nanos > thresholdNanos;
+        sites.computeIfAbsent(hold.site, SiteStats::new).record(nanos, longHeld);
+        if (longHeld && !hold.reported) {
+            log.warn("Connection held for {}ms by: {} thread: {}",
+                     TimeUnit.NANOSECONDS.toMillis(nanos), hold.site, hold.thread, hold.trace());
+        }
+    }
+
+    /**
+     * Log connections still open longer than threshold.
+     */
+    void checkActive() {
+        long now = System.nanoTime();
+        for (Hold hold : active.keySet()) {
+            if (!hold.reported && now - hold.start > thresholdNanos) {
+                hold.reported = true;
+                log.warn("Connection is open for {}ms, possible leak by: {} thread: {}",
+                         TimeUnit.NANOSECONDS.toMillis(now - hold.start), hold.site, hold.thread, hold.trace());
+            }
+        }
+    }
+
+    /**
+     * Number of currently borrowed connections.
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * Currently borrowed connections held longer than threshold,
+     * the longest held first.
+     */
+    public List<HeldConnection> getLongHeld() {
+        long now = System.nanoTime();
+        List<HeldConnection> res = new ArrayList<>();
+        for (Hold hold : active.keySet()) {
+            long nanos = now - hold.start;
+            if (nanos > thresholdNanos) {
+                res.add(new HeldConnection(hold.site, hold.thread,
+                                           TimeUnit.NANOSECONDS.toMillis(nanos), hold.stack));
+            }
+        }
+        res.sort(Comparator.comparingLong(HeldConnection::getHeldMillis).reversed());
+        return res;
+    }
+
+    /**
+     * Call sites with most connections held longer than threshold,
+     * sites with equal number of long holds are ordered by the maximum hold duration.
+     *
+     * @param limit Maximum number of returned sites, negative value is treated as zero
+     */
+    public List<CallSiteStats> getTopOffenders(int limit) {
+        limit = Math.max(0, limit);
+        List<CallSiteStats> res = new ArrayList<>(sites.size());
+        for (SiteStats s : sites.values()) {
+            res.add(s.snapshot());
+        }
+        res.sort(Comparator.comparingLong(CallSiteStats::getLongHeld)
+                           .thenComparingLong(CallSiteStats::getMaxMillis)
+                           .reversed());
+        return (res.size() > limit) ? new ArrayList<>(res.subList(0, limit)) : res;
+    }
+
+    public void reset() {
+        sites.clear();
+    }
+
+    /**
+     * Stop the background checker. Delegate datasource is not closed.
+     */
+    @Override
+    public void close() {
+        checker.shutdownNow();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection conn;
+
+        private final Hold hold;
+
+        private ConnectionHandler(Connection conn, Hold hold) {
+            this.conn = conn;
+            this.hold = hold;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Tracked[" + conn + ']';
+                case "close":
+                    release(hold);
+                    break;
+            }
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    private static final class Hold {
+
+        private final String site;
+
+        private final String thread;
+
+        private final StackTraceElement[] stack;
+
+        private final long start;
+
+        private volatile boolean reported;
+
+        private Hold(String site, String thread, StackTraceElement[] stack, long start) {
+            this.site = site;
+            this.thread = thread;
+            this.stack = stack;
+            this.start = start;
+        }
+
+        private Throwable trace() {
+            if (stack == null) {
+                return null;
+            }
+            Throwable t = new Throwable("Connection borrowed here");
+            t.setStackTrace(stack);
+            return t;
+        }
+    }
+
+    private static final class SiteStats {
+
+        private final String site;
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAdder longHeld = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private SiteStats(String site) {
+            this.site = site;
+        }
+
+        private void record(long nanos, boolean isLongHeld) {
+            count.increment();
+            totalNanos.add(nanos);
+            if (isLongHeld) {
+                longHeld.increment();
+            }
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private CallSiteStats snapshot() {
+            return new CallSiteStats(site, count.sum(),
+                                     TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()),
+                                     TimeUnit.NANOSECONDS.toMillis(maxNanos.get()),
+                                     longHeld.sum());
+        }
+    }
+
+    /**
+     * Hold statistics of call site.
+     */
+    public static final class CallSiteStats {
+
+        private final String site;
+
+        private final long count;
+
+        private final long totalMillis;
+
+        private final long maxMillis;
+
+        private final long longHeld;
+
+        CallSiteStats(String site, long count, long totalMillis, long maxMillis, long longHeld) {
+            this.site = site;
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+            this.longHeld = longHeld;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        /**
+         * Number of closed connections.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getMeanMillis() {
+            return (count > 0) ? totalMillis / count : 0;
+        }
+
+        /**
+         * Number of connections held longer than threshold.
+         */
+        public long getLongHeld() {
+            return longHeld;
+        }
+
+        @Override
+        public String toString() {
+            return site + " count=" + count + " total=" + totalMillis + "ms max=" + maxMillis +
+                   "ms longHeld=" + longHeld;
+        }
+    }
+
+    /**
+     * Currently borrowed connection.
+     */
+    public static final class HeldConnection {
+
+        private final String site;
+
+        private final String thread;
+
+        private final long heldMillis;
+
+        private final StackTraceElement[] stack;
+
+        HeldConnection(String site, String thread, long heldMillis, StackTraceElement[] stack) {
+            this.site = site;
+            this.thread = thread;
+            this.heldMillis = heldMillis;
+            this.stack = stack;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public long getHeldMillis() {
+            return heldMillis;
+        }
+
+        /**
+         * Stack of the borrowing thread or {@code null} if stack was not sampled.
+         */
+        public StackTraceElement[] getStack() {
+            return (stack != null) ? stack.clone() : null;
+        }
+
+        @Override
+        public String toString() {
+            return site + " thread=" + thread + " held=" + heldMillis + "ms";
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.softmotions.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Output stream collecting data into a rope of fixed size byte chunks
+ * borrowed from a shared {@link ChunkPool}.
+ * <p/>
+ * Unlike {@link java.io.ByteArrayOutputStream} it never copies
+ * already written data while growing and its content can be transferred
+ * with {@link #writeTo(OutputStream)} without intermediate arrays.
+ * Chunks are returned to the pool by {@link #release()},
+ * the stream must not be used after that.
+ * <p/>
+ * Instances are not thread safe.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private static final ChunkPool DEFAULT_POOL = new ChunkPool(DEFAULT_CHUNK_SIZE, 512);
+
+    private static final byte[][] EMPTY_CHUNKS = new byte[0][];
+
+    private final ChunkPool pool;
+
+    private byte[][] chunks = EMPTY_CHUNKS;
+
+    /**
+     * Number of chunks in use.
+     */
+    private int nchunks;
+
+    /**
+     * Write position in the last chunk.
+     */
+    private int pos;
+
+    private long size;
+
+    private boolean released;
+
+    public ChunkedOutputStream() {
+        this(DEFAULT_POOL);
+    }
+
+    public ChunkedOutputStream(ChunkPool pool) {
+        this.pool = pool;
+    }
+
+    public static ChunkPool getDefaultPool() {
+        return DEFAULT_POOL;
+    }
+
+    /**
+     * Number of bytes written.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Number of chunks holding the data.
+     */
+    public int getChunkCount() {
+        return nchunks;
+    }
+
+    /**
+     * Direct access to the chunk at the specified index.
+     * Only the first {@link #getChunkLength(int)} bytes of the chunk are valid.
+     */
+    public byte[] getChunk(int idx) {
+        if (idx >= nchunks) {
+            throw new IndexOutOfBoundsException(String.valueOf(idx));
+        }
+        return chunks[idx];
+    }
+
+    /**
+     * Number of valid bytes in the chunk at the specified index.
+     */
+    public int getChunkLength(int idx) {
+        if (idx >= nchunks) {
+            throw new IndexOutOfBoundsException(String.valueOf(idx));
+        }
+        return (idx == nchunks - 1) ? pos : chunks[idx].length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (nchunks == 0 || pos == chunks[nchunks - 1].length) {
+            nextChunk();
+        }
+        chunks[nchunks - 1][pos++] = (byte) b;
+        ++size;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (nchunks == 0 || pos == chunks[nchunks - 1].length) {
+                nextChunk();
+            }
+            byte[] chunk = chunks[nchunks - 1];
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(b, off, chunk, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    /**
+     * Read all data from the given input stream directly into the chunks.
+     *
+     * @return Number of bytes read
+     */
+    public long readFrom(InputStream is) throws IOException {
+        long total = 0;
+        while (true) {
+            if (nchunks == 0 || pos == chunks[nchunks - 1].length) {
+                nextChunk();
+            }
+            byte[] chunk = chunks[nchunks - 1];
+            int n = is.read(chunk, pos, chunk.length - pos);
+            if (n == -1) {
+                break;
+            }
+            pos += n;
+            size += n;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Write the whole content into the specified output stream
+     * directly from the chunks.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < nchunks; ++i) {
+            out.write(chunks[i], 0, getChunkLength(i));
+        }
+    }
+
+    /**
+     * Copy the content into a new byte array.
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Buffer is too large: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        int off = 0;
+        for (int i = 0; i < nchunks; ++i) {
+            int len = getChunkLength(i);
+            System.arraycopy(chunks[i], 0, data, off, len);
+            off += len;
+        }
+        return data;
+    }
+
+    public String toString(Charset charset) {
+        return new String(toByteArray(), charset);
+    }
+
+    /**
+     * Discard the content keeping the first chunk for reuse.
+     * Other chunks are returned to the pool.
+     */
+    public void reset() {
+        for (int i = 1; i < nchunks; ++i) {
+            pool.release(chunks[i]);
+            chunks[i] = null;
+        }
+        nchunks = Math.min(nchunks, 1);
+        pos = 0;
+        size = 0;
+    }
+
+    /**
+     * Return all chunks to the pool.
+     * This stream is unusable after this call.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (int i = 0; i < nchunks; ++i) {
+            pool.release(chunks[i]);
+            chunks[i] = null;
+        }
+        chunks = EMPTY_CHUNKS;
+        nchunks = 0;
+        pos = 0;
+        size = 0;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void nextChunk() {
+        if (released) {
+            throw new IllegalStateException("Stream is released");
+        }
+        if (nchunks == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, nchunks << 1));
+        }
+        chunks[nchunks++] = pool.acquire();
+        pos = 0;
+    }
+
+
+    /**
+     * Bounded pool of equally sized byte chunks.
+     * If the pool is empty a new chunk is allocated,
+     * chunks released into the full pool are left to GC.
+     */
+    public static class ChunkPool {
+
+        private final int chunkSize;
+
+        private final ArrayBlockingQueue<byte[]> queue;
+
+        public ChunkPool(int chunkSize, int maxPooledChunks) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize");
+            }
+            this.chunkSize = chunkSize;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, maxPooledChunks));
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * Number of chunks available for reuse.
+         */
+        public int getPooledCount() {
+            return queue.size();
+        }
+
+        public byte[] acquire() {
+            byte[] chunk = queue.poll();
+            return (chunk != null) ? chunk : new byte[chunkSize];
+        }
+
+        public void release(byte[] chunk) {
+            if (chunk != null && chunk.length == chunkSize) {
+                queue.offer(chunk);
+            }
+        }
+    }
+}
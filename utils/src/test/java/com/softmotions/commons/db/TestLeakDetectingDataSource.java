@@ -0,0 +1,87 @@
+package com.softmotions.commons.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.List;
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class TestLeakDetectingDataSource {
+
+    private static DataSource newDataSource() {
+        Connection conn = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class[]{Connection.class},
+                (proxy, method, args) -> "isClosed".equals(method.getName()) ? Boolean.FALSE : null);
+        return (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(), new Class[]{DataSource.class},
+                (proxy, method, args) -> "getConnection".equals(method.getName()) ? conn : null);
+    }
+
+    @Test
+    public void testHolds() throws Exception {
+        try (LeakDetectingDataSource ds = new LeakDetectingDataSource(newDataSource(), 20, 1)) {
+            String prev = LeakDetectingDataSource.setContext("com.example.Mapper.select");
+            Connection c1;
+            try {
+                c1 = ds.getConnection();
+            } finally {
+                LeakDetectingDataSource.restoreContext(prev);
+            }
+            Connection c2 = ds.getConnection();
+            Assert.assertEquals(ds.getActiveCount(), 2);
+            c2.close();
+            c2.close();
+            Thread.sleep(50);
+
+            List<LeakDetectingDataSource.HeldConnection> held = ds.getLongHeld();
+            Assert.assertEquals(held.size(), 1);
+            Assert.assertEquals(held.get(0).getSite(), "com.example.Mapper.select");
+            Assert.assertNotNull(held.get(0).getStack());
+
+            c1.close();
+            Assert.assertEquals(ds.getActiveCount(), 0);
+            List<LeakDetectingDataSource.CallSiteStats> top = ds.getTopOffenders(10);
+            Assert.assertEquals(top.size(), 2);
+            Assert.assertEquals(top.get(0).getSite(), "com.example.Mapper.select");
+            Assert.assertEquals(top.get(0).getLongHeld(), 1);
+            Assert.assertEquals(top.get(1).getCount(), 1);
+            Assert.assertEquals(top.get(1).getLongHeld(), 0);
+            Assert.assertTrue(top.get(1).getSite().startsWith(getClass().getName() + ".testHolds("),
+                              top.get(1).getSite());
+            Assert.assertTrue(ds.getTopOffenders(-1).isEmpty());
+        }
+    }
+
+    @Test
+    public void testUnsampledCallSites() throws Exception {
+        try (LeakDetectingDataSource ds = new LeakDetectingDataSource(newDataSource(), 10000, 0)) {
+            for (int i = 0; i < 3; ++i) {
+                borrowA(ds).close();
+            }
+            borrowB(ds).close();
+            List<LeakDetectingDataSource.CallSiteStats> top = ds.getTopOffenders(10);
+            Assert.assertEquals(top.size(), 2);
+            for (LeakDetectingDataSource.CallSiteStats s : top) {
+                if (s.getSite().startsWith(getClass().getName() + ".borrowA(")) {
+                    Assert.assertEquals(s.getCount(), 3);
+                } else {
+                    Assert.assertTrue(s.getSite().startsWith(getClass().getName() + ".borrowB("), s.getSite());
+                    Assert.assertEquals(s.getCount(), 1);
+                }
+            }
+        }
+    }
+
+    private static Connection borrowA(DataSource ds) throws Exception {
+        return ds.getConnection();
+    }
+
+    private static Connection borrowB(DataSource ds) throws Exception {
+        return ds.getConnection();
+    }
+}
@@ -0,0 +1,51 @@
+package com.softmotions.commons.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class ChunkedOutputStreamTest {
+
+    @Test
+    public void testWriteAcrossChunks() throws Exception {
+        ChunkedOutputStream.ChunkPool pool = new ChunkedOutputStream.ChunkPool(16, 4);
+        ChunkedOutputStream cos = new ChunkedOutputStream(pool);
+        byte[] data = new byte[100];
+        new Random(1).nextBytes(data);
+
+        cos.write(data[0]);
+        cos.write(data, 1, 40);
+        cos.write(data, 41, 59);
+        Assert.assertEquals(cos.size(), 100);
+        Assert.assertEquals(cos.getChunkCount(), 7);
+        Assert.assertEquals(cos.getChunkLength(6), 4);
+        Assert.assertEquals(cos.toByteArray(), data);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        cos.writeTo(bos);
+        Assert.assertEquals(bos.toByteArray(), data);
+
+        cos.reset();
+        Assert.assertEquals(cos.size(), 0);
+        Assert.assertEquals(cos.getChunkCount(), 1);
+        Assert.assertEquals(pool.getPooledCount(), 4);
+
+        Assert.assertEquals(cos.readFrom(new ByteArrayInputStream(data)), 100);
+        Assert.assertEquals(cos.toByteArray(), data);
+
+        cos.release();
+        Assert.assertEquals(cos.size(), 0);
+        Assert.assertEquals(pool.getPooledCount(), 4);
+        try {
+            cos.write(1);
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+}
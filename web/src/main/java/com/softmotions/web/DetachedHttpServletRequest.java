@@ -9,11 +9,15 @@ import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import javax.annotation.Nullable;
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
@@ -34,10 +38,40 @@ import org.apache.commons.collections4.EnumerationUtils;
 import org.apache.commons.collections4.iterators.IteratorEnumeration;
 
 /**
+ * Snapshot of {@link HttpServletRequest} state which
+ * can be used after the original request is completed.
+ * <p/>
+ * Request line, connection and session id data is always copied.
+ * Headers, parameters, attributes and multipart parts are copied
+ * only for the {@link Facet}s requested on construction.
+ *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
 public class DetachedHttpServletRequest implements HttpServletRequest {
 
+    /**
+     * Parts of the request state which may be copied into the detached request.
+     */
+    public enum Facet {
+        /**
+         * All request headers.
+         */
+        HEADERS,
+        /**
+         * Request parameters.
+         */
+        PARAMETERS,
+        /**
+         * Request attributes.
+         */
+        ATTRIBUTES,
+        /**
+         * Multipart request parts.
+         * Note: it forces parsing of the multipart request body.
+         */
+        PARTS
+    }
+
     private static final SimpleDateFormat[] formatsTemplate = {
             new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US),
             new SimpleDateFormat("EEEEEE, dd-MMM-yy HH:mm:ss zzz", Locale.US),
@@ -115,16 +149,33 @@ public class DetachedHttpServletRequest implements HttpServletRequest {
 
     private final Cookie[] cookies;
 
-    private final Map<String, List<String>> headers = new HashMap<>();
-
-    private final Map<String, Object> attributes = new HashMap<>();
+    private final Map<String, List<String>> headers;
 
     private final Map<String, String[]> parameters;
 
+    private Map<String, Object> attributes;
+
     private String characterEncoding;
 
 
+    /**
+     * Creates a full snapshot of the request including
+     * all headers, parameters, attributes and parts.
+     */
     public DetachedHttpServletRequest(HttpServletRequest req, boolean allowDelegate) {
+        this(req, allowDelegate, EnumSet.allOf(Facet.class));
+    }
+
+    /**
+     * Creates a snapshot of the request copying only the specified facets.
+     *
+     * @param facets      Request facets to copy
+     * @param headerNames Names of headers to copy if {@link Facet#HEADERS} is not specified
+     */
+    public DetachedHttpServletRequest(HttpServletRequest req,
+                                      boolean allowDelegate,
+                                      Set<Facet> facets,
+                                      String... headerNames) {
 
         this.req = req;
         this.allowDelegate = allowDelegate;
@@ -161,26 +212,75 @@ public class DetachedHttpServletRequest implements HttpServletRequest {
         contentLengthLong = req.getContentLengthLong();
         servletContext = req.getServletContext();
         dispatcherType = req.getDispatcherType();
-        parameters = req.getParameterMap();
+        parameters = facets.contains(Facet.PARAMETERS)
+                     ? copyParameters(req)
+                     : Collections.emptyMap();
+        parts = facets.contains(Facet.PARTS)
+                ? copyParts(req)
+                : Collections.emptyList();
+        headers = facets.contains(Facet.HEADERS)
+                  ? copyHeaders(req, null)
+                  : copyHeaders(req, headerNames);
+        if (facets.contains(Facet.ATTRIBUTES)) {
+            attributes = new HashMap<>();
+            Enumeration<String> attributeNames = req.getAttributeNames();
+            while (attributeNames.hasMoreElements()) {
+                String an = attributeNames.nextElement();
+                attributes.put(an, req.getAttribute(an));
+            }
+        }
+    }
 
+    private static Map<String, String[]> copyParameters(HttpServletRequest req) {
+        Map<String, String[]> pmap = req.getParameterMap();
+        if (pmap.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new LinkedHashMap<>(pmap));
+    }
+
+    private static Collection<Part> copyParts(HttpServletRequest req) {
         Collection<Part> p = null;
         try {
             p = req.getParts();
         } catch (Throwable ignored) {
         }
-        parts = (p != null) ? p : Collections.emptyList();
+        return (p != null) ? Collections.unmodifiableCollection(p) : Collections.emptyList();
+    }
 
-        Enumeration<String> headerNames = req.getHeaderNames();
-        while (headerNames.hasMoreElements()) {
-            String hn = headerNames.nextElement();
-            headers.put(hn, EnumerationUtils.toList(req.getHeaders(hn)));
+    private static Map<String, List<String>> copyHeaders(HttpServletRequest req, @Nullable String[] names) {
+        if (names != null && names.length == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> hmap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (names == null) {
+            Enumeration<String> headerNames = req.getHeaderNames();
+            while (headerNames.hasMoreElements()) {
+                String hn = headerNames.nextElement();
+                hmap.put(hn, toCompactList(req.getHeaders(hn)));
+            }
+        } else {
+            for (String hn : names) {
+                Enumeration<String> hvals = req.getHeaders(hn);
+                if (hvals != null && hvals.hasMoreElements()) {
+                    hmap.put(hn, toCompactList(hvals));
+                }
+            }
         }
+        return Collections.unmodifiableMap(hmap);
+    }
 
-        Enumeration<String> attributeNames = req.getAttributeNames();
-        while (attributeNames.hasMoreElements()) {
-            String an = attributeNames.nextElement();
-            attributes.put(an, req.getAttribute(an));
+    private static List<String> toCompactList(Enumeration<String> values) {
+        if (!values.hasMoreElements()) {
+            return Collections.emptyList();
+        }
+        String first = values.nextElement();
+        if (!values.hasMoreElements()) {
+            return Collections.singletonList(first);
         }
+        List<String> list = EnumerationUtils.toList(values);
+        list.add(0, first);
+        return Collections.unmodifiableList(list);
     }
 
     public HttpServletRequest getWrappedRequest() {
@@ -260,7 +360,7 @@ public class DetachedHttpServletRequest implements HttpServletRequest {
     @Override
     public String getHeader(String name) {
         List<String> h = headers.get(name);
-        return h.isEmpty() ? null : h.get(0);
+        return (h == null || h.isEmpty()) ? null : h.get(0);
     }
 
     @Override
@@ -312,22 +412,33 @@ public class DetachedHttpServletRequest implements HttpServletRequest {
 
     @Override
     public Object getAttribute(String name) {
-        return attributes.get(name);
+        return attributes != null ? attributes.get(name) : null;
     }
 
     @Override
     public Enumeration<String> getAttributeNames() {
-        return new IteratorEnumeration<>(attributes.keySet().iterator());
+        return attributes != null
+               ? new IteratorEnumeration<>(attributes.keySet().iterator())
+               : Collections.emptyEnumeration();
     }
 
     @Override
     public void setAttribute(String name, Object o) {
+        if (o == null) {
+            removeAttribute(name);
+            return;
+        }
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
         attributes.put(name, o);
     }
 
     @Override
     public void removeAttribute(String name) {
-        attributes.remove(name);
+        if (attributes != null) {
+            attributes.remove(name);
+        }
     }
 
     @Override
@@ -6,12 +6,17 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import javax.servlet.http.Cookie;
@@ -22,6 +27,8 @@ import org.apache.commons.io.output.WriterOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.softmotions.commons.io.ChunkedOutputStream;
+
 
 /**
  * Provides a wrapper for {@link javax.servlet.http.HttpServletResponseWrapper}.
@@ -30,6 +37,13 @@ import org.slf4j.LoggerFactory;
  * that the target of the request has delivered its response.
  * <p/>
  * It uses the Wrapper pattern.
+ * <p/>
+ * If created without a target stream or writer the response body
+ * is captured into pooled byte chunks, see {@link ChunkedOutputStream}.
+ * In this mode the writer encodes characters directly into the chunks,
+ * the captured body is available by {@link #getBuffer()} and
+ * can be transferred by {@link #writeTo(OutputStream)}.
+ * Call {@link #release()} once the captured body is no longer needed.
  *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
@@ -50,7 +64,22 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
     private ServletOutputStream outstr;
     private PrintWriter outwr;
     private boolean delegate;
+    private transient ChunkedOutputStream buffer;
 
+    /**
+     * Creates a GenericResponseWrapper capturing
+     * the response body into the pooled chunked buffer.
+     */
+    public GenericResponseWrapper(HttpServletResponse response, boolean delegate) {
+        this(response, new ChunkedOutputStream(), delegate);
+    }
+
+    public GenericResponseWrapper(HttpServletResponse response, ChunkedOutputStream buffer, boolean delegate) {
+        super(response);
+        this.buffer = buffer;
+        this.outstr = new FilterServletOutputStream(buffer);
+        this.delegate = delegate;
+    }
 
     public GenericResponseWrapper(HttpServletResponse response, Writer outwr, boolean delegate) {
         super(response);
@@ -72,6 +101,38 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
         return delegate;
     }
 
+    /**
+     * Returns the buffer holding captured body
+     * or {@code null} if this wrapper is not in the buffered mode.
+     */
+    public ChunkedOutputStream getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Writes the captured body into the specified stream
+     * directly from the buffer chunks.
+     *
+     * @throws IllegalStateException If this wrapper is not in the buffered mode.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (buffer == null) {
+            throw new IllegalStateException("Response wrapper is not in the buffered mode");
+        }
+        flush();
+        buffer.writeTo(out);
+    }
+
+    /**
+     * Returns buffer chunks to the pool.
+     * Captured body is not accessible after this call.
+     */
+    public void release() {
+        if (buffer != null) {
+            buffer.release();
+        }
+    }
+
     /**
      * Gets the outputstream.
      */
@@ -248,7 +309,8 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
         if (headers == null) {
             headers = new ArrayList();
         }
-        Integer count = (Integer) headerTracker.get(name);
+        String lname = name.toLowerCase();
+        Integer count = (Integer) headerTracker.get(lname);
         if (count != null && count > 0) {
             for (int i = headers.size() - 1; i >= 0; i--) {
                 String[] header = (String[]) headers.get(i);
@@ -257,16 +319,83 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
                     if (count > 1) {
                         headers.remove(i);
                         count -= 1;
-                        headerTracker.put(name.toLowerCase(), count);
                     } else {
-                        ((String[]) headers.get(i))[1] = value;
+                        header[1] = value;
                     }
-
                 }
             }
         } else {
-            headerTracker.put(name.toLowerCase(), value);
+            headers.add(new String[]{name, value});
+        }
+        headerTracker.put(lname, 1);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        if (delegate) {
+            super.setDateHeader(name, date);
         }
+        setTrackedHeader(name, formatDateHeader(date), false);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        if (delegate) {
+            super.addDateHeader(name, date);
+        }
+        setTrackedHeader(name, formatDateHeader(date), true);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (delegate) {
+            super.setIntHeader(name, value);
+        }
+        setTrackedHeader(name, String.valueOf(value), false);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (delegate) {
+            super.addIntHeader(name, value);
+        }
+        setTrackedHeader(name, String.valueOf(value), true);
+    }
+
+    private void setTrackedHeader(String name, String value, boolean add) {
+        boolean d = delegate;
+        delegate = false;
+        try {
+            if (add) {
+                addHeader(name, value);
+            } else {
+                setHeader(name, value);
+            }
+        } finally {
+            delegate = d;
+        }
+    }
+
+    private static String formatDateHeader(long date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(date), ZoneOffset.UTC));
+    }
+
+    /**
+     * Returns the last value of the header tracked by this wrapper.
+     */
+    @Nullable
+    public String getTrackedHeader(String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            String[] header = (String[]) headers.get(i);
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
     }
 
     /**
@@ -322,9 +451,18 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
         if (headers != null) {
             headers.clear();
         }
+        if (headerTracker != null) {
+            headerTracker.clear();
+        }
         statusCode = SC_OK;
         contentType = null;
         contentLength = 0;
+        if (buffer != null) {
+            if (outwr != null) {
+                outwr.flush();
+            }
+            buffer.reset();
+        }
     }
 
     /**
@@ -335,6 +473,12 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
         if (delegate) {
             super.resetBuffer();
         }
+        if (buffer != null) {
+            if (outwr != null) {
+                outwr.flush();
+            }
+            buffer.reset();
+        }
     }
 
     /**
@@ -34,135 +34,133 @@ public class HttpUtils {
     }
 
     /**
-     * @param ua User-agent in lower case
+     * Returns parsed user agent of the request.
+     *
+     * @see UserAgentInfo#of(HttpServletRequest)
+     */
+    public static UserAgentInfo getUserAgentInfo(HttpServletRequest req) {
+        return UserAgentInfo.of(req);
+    }
+
+    /**
+     * @param ua User-agent
      */
     public static boolean isMobile(String ua) {
-        return ua != null && (isAndroidMobile(ua) || isIphone(ua) || isIeMobile(ua));
+        return ua != null && UserAgentInfo.parse(ua).isMobile();
     }
 
     public static boolean isMobile(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isMobile(ua.toLowerCase());
+        return UserAgentInfo.of(req).isMobile();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isTablet(String ua) {
-        return ua != null && (isAndroidTablet(ua) || isIpad(ua) || (ua.contains("touch") && ua.contains("win")));
+        return ua != null && UserAgentInfo.parse(ua).isTablet();
     }
 
     public static boolean isTablet(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isTablet(ua.toLowerCase());
+        return UserAgentInfo.of(req).isTablet();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isAndroidMobile(String ua) {
-        return ua != null && ua.contains("android") && ua.contains("mobile");
+        return ua != null && UserAgentInfo.parse(ua).isAndroidMobile();
     }
 
     public static boolean isAndroidMobile(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isAndroidMobile(ua.toLowerCase());
+        return UserAgentInfo.of(req).isAndroidMobile();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isAndroidTablet(String ua) {
-        return ua != null && ua.contains("android") && !ua.contains("mobile");
+        return ua != null && UserAgentInfo.parse(ua).isAndroidTablet();
     }
 
     public static boolean isAndroidTablet(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isAndroidMobile(ua.toLowerCase());
+        return UserAgentInfo.of(req).isAndroidTablet();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isIpad(String ua) {
-        return ua != null && ua.contains("ipad");
+        return ua != null && UserAgentInfo.parse(ua).isIpad();
     }
 
     public static boolean isIpad(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isIpad(ua.toLowerCase());
+        return UserAgentInfo.of(req).isIpad();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isIphone(String ua) {
-        return ua != null && ua.contains("iphone");
+        return ua != null && UserAgentInfo.parse(ua).isIphone();
     }
 
     public static boolean isIphone(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isIpad(ua.toLowerCase());
+        return UserAgentInfo.of(req).isIphone();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isIeMobile(String ua) {
-        return ua != null && ua.contains("iemobile");
+        return ua != null && UserAgentInfo.parse(ua).isIeMobile();
     }
 
     public static boolean isIeMobile(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isIpad(ua.toLowerCase());
+        return UserAgentInfo.of(req).isIeMobile();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isWebkit(String ua) {
-        return ua != null && ua.contains("applewebkit/");
+        return ua != null && UserAgentInfo.parse(ua).isWebkit();
     }
 
     public static boolean isWebkit(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isWebkit(ua.toLowerCase());
+        return UserAgentInfo.of(req).isWebkit();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isGecko(String ua) {
-        return ua != null && ua.contains("gecko/");
+        return ua != null && UserAgentInfo.parse(ua).isGecko();
     }
 
     public static boolean isGecko(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isWebkit(ua.toLowerCase());
+        return UserAgentInfo.of(req).isGecko();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isTrident(String ua) {
-        return ua != null && ua.contains("trident/");
+        return ua != null && UserAgentInfo.parse(ua).isTrident();
     }
 
     public static boolean isTrident(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isWebkit(ua.toLowerCase());
+        return UserAgentInfo.of(req).isTrident();
     }
 
     /**
-     * @param ua User-agent in lower case
+     * @param ua User-agent
      */
     public static boolean isEdge(String ua) {
-        return ua != null && ua.contains("edge/");
+        return ua != null && UserAgentInfo.parse(ua).isEdge();
     }
 
     public static boolean isEdge(HttpServletRequest req) {
-        String ua = req.getHeader("user-agent");
-        return ua != null && isWebkit(ua.toLowerCase());
+        return UserAgentInfo.of(req).isEdge();
     }
 
     @Nullable
@@ -66,8 +66,16 @@ public class JarResourcesFilter implements Filter {
 
     private static final Logger log = LoggerFactory.getLogger(JarResourcesFilter.class);
 
+    /**
+     * Slot prefix may end with {@code /}, so path must start with the whole prefix.
+     */
+    private static final PathPrefixTrie.Filter<MappingSlot> PREFIX_FILTER =
+            (ms, path, offset) -> path.startsWith(ms.prefix, offset);
+
     List<MappingSlot> mslots;
 
+    PathPrefixTrie<MappingSlot> mtrie;
+
     String stripPefix;
 
     @Override
@@ -100,6 +108,15 @@ public class JarResourcesFilter implements Filter {
         if (stripPefix == null) {
             stripPefix = "";
         }
+        compileMappings();
+    }
+
+    void compileMappings() {
+        PathPrefixTrie.Builder<MappingSlot> builder = PathPrefixTrie.builder();
+        for (MappingSlot ms : mslots) {
+            builder.add(ms.prefix, ms);
+        }
+        mtrie = builder.build();
     }
 
     @Override
@@ -111,6 +128,7 @@ public class JarResourcesFilter implements Filter {
             }
         }
         mslots.clear();
+        mtrie = PathPrefixTrie.<MappingSlot>builder().build();
     }
 
     boolean getContent(HttpServletRequest req, HttpServletResponse resp, boolean transfer) throws ServletException, IOException {
@@ -146,18 +164,16 @@ public class JarResourcesFilter implements Filter {
     }
 
     private ContentDescriptor getContentDescriptor(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        String uri = req.getRequestURI();
-        try {
-            uri = URLDecoder.decode(uri, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            log.error("", e);
+        String uri = decodeRequestURI(req.getRequestURI());
+        int offset = stripPefix.length();
+        if (uri.length() < offset) {
+            return null;
         }
-        String path = uri.substring(stripPefix.length());
-        MappingSlot ms = findMatchingSlot(path);
+        MappingSlot ms = findMatchingSlot(uri, offset);
         if (ms == null) {
             return null;
         }
-        path = path.substring(ms.prefix.length());
+        String path = uri.substring(offset + ms.prefix.length());
         if (path.isEmpty()) { //redirect to the slash
             resp.sendRedirect(ms.prefix + '/');
             return null;
@@ -169,13 +185,32 @@ public class JarResourcesFilter implements Filter {
         return new ContentDescriptor(ms, url, req.getServletContext().getMimeType(path));
     }
 
-    MappingSlot findMatchingSlot(String path) {
-        for (final MappingSlot ms : mslots) {
-            if (path.startsWith(ms.prefix)) {
-                return ms;
-            }
+    /**
+     * Decodes request URI. Returns the URI as is
+     * if it contains no escaped characters.
+     */
+    static String decodeRequestURI(String uri) {
+        if (uri.indexOf('%') == -1 && uri.indexOf('+') == -1) {
+            return uri;
+        }
+        try {
+            return URLDecoder.decode(uri, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            log.error("", e);
+            return uri;
         }
-        return null;
+    }
+
+    /**
+     * Find the mapping slot with the longest prefix
+     * matching the path by whole path segments.
+     */
+    MappingSlot findMatchingSlot(String path) {
+        return findMatchingSlot(path, 0);
+    }
+
+    MappingSlot findMatchingSlot(String path, int offset) {
+        return mtrie.find(path, offset, PREFIX_FILTER);
     }
 
     void handleJarMapping(String prefix, String spec) throws Exception {
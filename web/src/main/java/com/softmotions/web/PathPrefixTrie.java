@@ -0,0 +1,207 @@
+package com.softmotions.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Compiled trie of URI path prefixes split by {@code /} segments.
+ * Lookup performs longest-prefix-wins matching on whole path segments
+ * and does not allocate: segments are located in the path by offsets
+ * and compared against compiled per-node hash tables in place.
+ * <p/>
+ * Instances are built once by {@link Builder} and are immutable afterwards.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+final class PathPrefixTrie<V> {
+
+    private final Node<V> root;
+
+    private PathPrefixTrie(Node<V> root) {
+        this.root = root;
+    }
+
+    /**
+     * Find a value registered for the longest path prefix
+     * of {@code path.substring(offset)}.
+     */
+    @Nullable
+    V find(String path, int offset) {
+        return find(path, offset, null);
+    }
+
+    /**
+     * Find a value registered for the longest path prefix
+     * of {@code path.substring(offset)} accepted by the given filter.
+     * Values rejected by the filter are skipped in favour of shorter prefixes.
+     */
+    @Nullable
+    V find(String path, int offset, @Nullable Filter<V> filter) {
+        final int len = path.length();
+        Node<V> node = root;
+        V found = (node.value != null && (filter == null || filter.accept(node.value, path, offset)))
+                  ? node.value : null;
+        int pos = offset;
+        while (pos < len) {
+            if (path.charAt(pos) == '/') {
+                ++pos;
+                continue;
+            }
+            int end = path.indexOf('/', pos);
+            if (end == -1) {
+                end = len;
+            }
+            node = node.child(path, pos, end);
+            if (node == null) {
+                break;
+            }
+            if (node.value != null && (filter == null || filter.accept(node.value, path, offset))) {
+                found = node.value;
+            }
+            pos = end;
+        }
+        return found;
+    }
+
+    @Nullable
+    V find(String path) {
+        return find(path, 0);
+    }
+
+    /**
+     * Additional check of values matched by path segments.
+     */
+    interface Filter<V> {
+
+        boolean accept(V value, String path, int offset);
+    }
+
+    static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    static final class Builder<V> {
+
+        private final BNode<V> root = new BNode<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Register value for the given path prefix.
+         * If the same prefix has already been registered
+         * the first registration is kept.
+         */
+        Builder<V> add(String prefix, V value) {
+            BNode<V> node = root;
+            for (String s : splitSegments(prefix)) {
+                node = node.children.computeIfAbsent(s, k -> new BNode<>());
+            }
+            if (node.value == null) {
+                node.value = value;
+            }
+            return this;
+        }
+
+        PathPrefixTrie<V> build() {
+            return new PathPrefixTrie<>(root.compile());
+        }
+    }
+
+    static List<String> splitSegments(String path) {
+        List<String> segments = new ArrayList<>();
+        int len = path.length();
+        int pos = 0;
+        while (pos < len) {
+            int end = path.indexOf('/', pos);
+            if (end == -1) {
+                end = len;
+            }
+            if (end > pos) {
+                segments.add(path.substring(pos, end));
+            }
+            pos = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * Same hash as {@link String#hashCode()} computed over the string region.
+     */
+    static int regionHash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; ++i) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static final class BNode<V> {
+
+        private final Map<String, BNode<V>> children = new LinkedHashMap<>();
+
+        private V value;
+
+        @SuppressWarnings("unchecked")
+        private Node<V> compile() {
+            if (children.isEmpty()) {
+                return new Node<>(value, null, null, 0);
+            }
+            int cap = Integer.highestOneBit(children.size() * 2 - 1) << 1;
+            String[] keys = new String[cap];
+            Node<V>[] nodes = new Node[cap];
+            int mask = cap - 1;
+            for (Map.Entry<String, BNode<V>> e : children.entrySet()) {
+                int idx = spread(e.getKey().hashCode()) & mask;
+                while (keys[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx] = e.getKey();
+                nodes[idx] = e.getValue().compile();
+            }
+            return new Node<>(value, keys, nodes, mask);
+        }
+    }
+
+    private static final class Node<V> {
+
+        private final V value;
+
+        private final String[] keys;
+
+        private final Node<V>[] nodes;
+
+        private final int mask;
+
+        private Node(V value, String[] keys, Node<V>[] nodes, int mask) {
+            this.value = value;
+            this.keys = keys;
+            this.nodes = nodes;
+            this.mask = mask;
+        }
+
+        @Nullable
+        private Node<V> child(String path, int start, int end) {
+            if (keys == null) {
+                return null;
+            }
+            int slen = end - start;
+            int idx = spread(regionHash(path, start, end)) & mask;
+            String k;
+            while ((k = keys[idx]) != null) {
+                if (k.length() == slen && path.regionMatches(start, k, 0, slen)) {
+                    return nodes[idx];
+                }
+                idx = (idx + 1) & mask;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.softmotions.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.softmotions.commons.re.RegexpHelper;
+
+/**
+ * Server side cache of whole rendered responses.
+ * <p/>
+ * Responses of {@code GET} requests matching
+ * the configured URI glob patterns are captured by {@link GenericResponseWrapper}
+ * and served from memory until expired. Only one request renders
+ * a missing entry, concurrent requests for the same key wait for it.
+ * {@code HEAD} requests are served from the cached {@code GET} entry without body,
+ * they are passed to the filter chain and never cached if there is no such entry.
+ * <p/>
+ * Response is not cached if its status is not {@code 200},
+ * it sets cookies (either by {@code addCookie} or by {@code Set-Cookie} header),
+ * sends error or redirect, or has {@code Cache-Control}
+ * with {@code private} or {@code no-store}.
+ * Requests of authenticated users are not cached by default.
+ * <p/>
+ * Filter parameters:
+ * <pre>
+ *      patterns        Comma separated URI glob patterns of cacheable pages. Required.
+ *      ttl             Entry time to live in seconds. Default: 60
+ *      maxBytes        Maximum memory charged to cached responses in bytes:
+ *                      bodies, keys, headers and a fixed per entry overhead. Default: 64Mb
+ *      maxEntryBytes   Maximum size of a single cached response body. Default: 1Mb
+ *      maxEntries      Maximum number of cached responses. Default: 10000
+ *      keyHeaders      Comma separated request headers included into the cache key.
+ *                      Default: Accept-Encoding
+ *      keyCookies      Comma separated request cookies included into the cache key.
+ *      anonymousOnly   Bypass the cache for authenticated users. Default: true
+ *      lockTimeout     Maximum time in seconds to wait for a concurrent rendering
+ *                      of the same entry. Default: 30
+ * </pre>
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class ResponseCacheFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+    /**
+     * Approximate memory footprint of a cache entry
+     * apart from its body, key and headers.
+     */
+    static final int ENTRY_OVERHEAD = 256;
+
+    /**
+     * Minimal interval between sweeps of expired entries.
+     */
+    private static final long PURGE_INTERVAL = 1000L;
+
+    private Pattern[] patterns;
+
+    private String[] keyHeaders;
+
+    private String[] keyCookies;
+
+    private long ttl;
+
+    private long maxBytes;
+
+    private long maxEntryBytes;
+
+    private int maxEntries;
+
+    private long lockTimeout;
+
+    private boolean anonymousOnly;
+
+    private final ConcurrentHashMap<String, CompletableFuture<CachedResponse>> inflight = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, CachedResponse> cache = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long cacheBytes;
+
+    private long nextPurge;
+
+    @Override
+    public void init(FilterConfig cfg) throws ServletException {
+        String spec = cfg.getInitParameter("patterns");
+        if (StringUtils.isBlank(spec)) {
+            throw new ServletException("Missing required filter config parameter: 'patterns'");
+        }
+        List<Pattern> plist = new ArrayList<>();
+        for (String p : splitParam(spec)) {
+            plist.add(Pattern.compile(RegexpHelper.convertGlobToRegEx(p)));
+        }
+        patterns = plist.toArray(new Pattern[0]);
+        String kh = cfg.getInitParameter("keyHeaders");
+        keyHeaders = splitParam(kh != null ? kh : "Accept-Encoding");
+        keyCookies = splitParam(cfg.getInitParameter("keyCookies"));
+        ttl = TimeUnit.SECONDS.toMillis(longParam(cfg, "ttl", 60));
+        maxBytes = longParam(cfg, "maxBytes", 64L * 1024 * 1024);
+        maxEntryBytes = longParam(cfg, "maxEntryBytes", 1024L * 1024);
+        maxEntries = (int) Math.min(Integer.MAX_VALUE, longParam(cfg, "maxEntries", 10000));
+        lockTimeout = TimeUnit.SECONDS.toMillis(longParam(cfg, "lockTimeout", 30));
+        String ao = cfg.getInitParameter("anonymousOnly");
+        anonymousOnly = (ao == null) || BooleanUtils.toBoolean(ao);
+        log.info("Response cache patterns: {} ttl: {}ms maxBytes: {} maxEntries: {} keyHeaders: {} keyCookies: {}",
+                 plist, ttl, maxBytes, maxEntries, Arrays.asList(keyHeaders), Arrays.asList(keyCookies));
+    }
+
+    @Override
+    public void destroy() {
+        clear();
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    /**
+     * Total memory charged to cached responses in bytes.
+     */
+    public long getCacheBytes() {
+        synchronized (cache) {
+            return cacheBytes;
+        }
+    }
+
+    /**
+     * Number of cached responses.
+     */
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest hreq = (HttpServletRequest) req;
+        HttpServletResponse hresp = (HttpServletResponse) resp;
+        if (!isCacheable(hreq)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        String key = createKey(hreq);
+        CachedResponse cr = getCached(key);
+        if ("HEAD".equals(hreq.getMethod())) {
+            // Captured HEAD response has no body, so it is never stored
+            if (cr != null) {
+                cr.replay(hresp, false);
+            } else {
+                chain.doFilter(req, resp);
+            }
+            return;
+        }
+        if (cr != null) {
+            cr.replay(hresp, true);
+            return;
+        }
+        CompletableFuture<CachedResponse> f = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> pf = inflight.putIfAbsent(key, f);
+        if (pf != null) {
+            cr = awaitRendering(key, pf);
+            if (cr != null) {
+                cr.replay(hresp, true);
+            } else {
+                chain.doFilter(req, resp);
+            }
+            return;
+        }
+        try {
+            cr = render(key, hreq, hresp, chain);
+            if (cr != null) {
+                putCached(key, cr);
+            }
+        } finally {
+            inflight.remove(key, f);
+            f.complete(cr);
+        }
+    }
+
+    @Nullable
+    private CachedResponse awaitRendering(String key, CompletableFuture<CachedResponse> f) {
+        try {
+            return f.get(lockTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            log.warn("Timeout waiting for rendering of: {}", key);
+        } catch (ExecutionException e) {
+            log.error("", e);
+        }
+        return null;
+    }
+
+    @Nullable
+    private CachedResponse render(String key, HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        CaptureResponseWrapper wrapper = new CaptureResponseWrapper(resp);
+        boolean async = false;
+        try {
+            chain.doFilter(req, wrapper);
+            if (req.isAsyncStarted()) {
+                // Response is not rendered yet and it is still written
+                // into the wrapper buffer, so it is neither stored nor replayed
+                async = true;
+                log.warn("Asynchronous response of: {} cannot be cached", key);
+                return null;
+            }
+            wrapper.flush();
+            CachedResponse cr = null;
+            if (wrapper.isStorable(maxEntryBytes)) {
+                cr = new CachedResponse(wrapper, key, System.currentTimeMillis() + ttl);
+            }
+            wrapper.replay(resp, true);
+            return cr;
+        } finally {
+            if (!async) {
+                wrapper.release();
+            }
+        }
+    }
+
+    boolean isCacheable(HttpServletRequest req) {
+        String method = req.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        if (anonymousOnly && req.getRemoteUser() != null) {
+            return false;
+        }
+        String uri = req.getRequestURI();
+        for (Pattern p : patterns) {
+            if (p.matcher(uri).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cache key of the request. Only {@code GET} responses are stored
+     * so the request method is not a part of the key.
+     */
+    String createKey(HttpServletRequest req) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(req.getRequestURI());
+        String qs = req.getQueryString();
+        if (qs != null) {
+            sb.append('?').append(qs);
+        }
+        for (String h : keyHeaders) {
+            sb.append('\n');
+            String v = req.getHeader(h);
+            if (v != null) {
+                sb.append(v);
+            }
+        }
+        if (keyCookies.length > 0) {
+            Cookie[] cookies = req.getCookies();
+            for (String cn : keyCookies) {
+                sb.append('\n');
+                if (cookies == null) {
+                    continue;
+                }
+                for (Cookie c : cookies) {
+                    if (cn.equals(c.getName())) {
+                        sb.append(c.getValue());
+                        break;
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Nullable
+    private CachedResponse getCached(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            CachedResponse cr = cache.get(key);
+            if (cr == null) {
+                return null;
+            }
+            if (cr.expires <= now) {
+                cache.remove(key);
+                cacheBytes -= cr.size;
+                return null;
+            }
+            return cr;
+        }
+    }
+
+    private void putCached(String key, CachedResponse cr) {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            if (now >= nextPurge) {
+                // Expired entries are dropped lazily on access, sweep the rest periodically
+                nextPurge = now + PURGE_INTERVAL;
+                Iterator<CachedResponse> it = cache.values().iterator();
+                while (it.hasNext()) {
+                    CachedResponse e = it.next();
+                    if (e.expires <= now) {
+                        it.remove();
+                        cacheBytes -= e.size;
+                    }
+                }
+            }
+            CachedResponse old = cache.put(key, cr);
+            if (old != null) {
+                cacheBytes -= old.size;
+            }
+            cacheBytes += cr.size;
+            Iterator<CachedResponse> it = cache.values().iterator();
+            while ((cacheBytes > maxBytes || cache.size() > maxEntries) && it.hasNext()) {
+                CachedResponse e = it.next();
+                if (e == cr) {
+                    continue;
+                }
+                it.remove();
+                cacheBytes -= e.size;
+            }
+            if (cacheBytes > maxBytes || cache.size() > maxEntries) {
+                // Entry alone does not fit into the cache
+                cache.remove(key, cr);
+                cacheBytes -= cr.size;
+            }
+        }
+    }
+
+    private static String[] splitParam(@Nullable String spec) {
+        if (spec == null) {
+            return new String[0];
+        }
+        List<String> res = new ArrayList<>();
+        for (String s : spec.split(",")) {
+            s = s.trim();
+            if (!s.isEmpty()) {
+                res.add(s);
+            }
+        }
+        return res.toArray(new String[0]);
+    }
+
+    private static long longParam(FilterConfig cfg, String name, long def) throws ServletException {
+        String v = cfg.getInitParameter(name);
+        if (StringUtils.isBlank(v)) {
+            return def;
+        }
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException(String.format("Invalid filter config parameter %s: %s", name, v));
+        }
+    }
+
+    /**
+     * Immutable snapshot of a rendered response.
+     */
+    private static final class CachedResponse {
+
+        private final int status;
+
+        private final String contentType;
+
+        private final String characterEncoding;
+
+        private final String[][] headers;
+
+        private final byte[] body;
+
+        private final long expires;
+
+        /**
+         * Memory charged to this entry against the {@code maxBytes} budget.
+         */
+        private final long size;
+
+        @SuppressWarnings("unchecked")
+        private CachedResponse(CaptureResponseWrapper wrapper, String key, long expires) {
+            this.status = wrapper.getStatus();
+            this.contentType = wrapper.getContentType();
+            this.characterEncoding = wrapper.getCapturedCharacterEncoding();
+            Collection<String[]> hlist = wrapper.getHeaders();
+            this.headers = new String[hlist.size()][];
+            int i = 0;
+            for (String[] h : hlist) {
+                headers[i++] = new String[]{h[0], h[1]};
+            }
+            this.body = wrapper.getBuffer().toByteArray();
+            this.expires = expires;
+            long sz = ENTRY_OVERHEAD + body.length + 2L * key.length();
+            for (String[] h : headers) {
+                sz += 2L * (StringUtils.length(h[0]) + StringUtils.length(h[1]));
+            }
+            sz += 2L * (StringUtils.length(contentType) + StringUtils.length(characterEncoding));
+            this.size = sz;
+        }
+
+        private void replay(HttpServletResponse resp, boolean transfer) throws IOException {
+            resp.setStatus(status);
+            if (contentType != null) {
+                resp.setContentType(contentType);
+            }
+            if (characterEncoding != null) {
+                resp.setCharacterEncoding(characterEncoding);
+            }
+            for (String[] h : headers) {
+                resp.addHeader(h[0], h[1]);
+            }
+            resp.setContentLength(body.length);
+            if (transfer) {
+                ServletOutputStream out = resp.getOutputStream();
+                out.write(body);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Captures response into the pooled buffer
+     * including errors and redirects sent by the rendering chain.
+     * <p/>
+     * Character encoding set by the rendering chain is kept by the wrapper
+     * and used to encode the captured writer output.
+     */
+    private static final class CaptureResponseWrapper extends GenericResponseWrapper {
+
+        private static final Pattern CHARSET_RE = Pattern.compile(";\\s*charset\\s*=\\s*\"?([^\\s;\"]+)",
+                                                                  Pattern.CASE_INSENSITIVE);
+
+        private String redirectLocation;
+
+        private String errorMessage;
+
+        private boolean error;
+
+        private String characterEncoding;
+
+        private boolean writerUsed;
+
+        private CaptureResponseWrapper(HttpServletResponse response) {
+            super(response, false);
+        }
+
+        @Override
+        public void setContentType(String type) {
+            super.setContentType(type);
+            if (type != null && !writerUsed) {
+                Matcher m = CHARSET_RE.matcher(type);
+                if (m.find()) {
+                    characterEncoding = m.group(1);
+                }
+            }
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            // Encoding cannot be changed once the writer is obtained
+            if (!writerUsed) {
+                characterEncoding = charset;
+            }
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return (characterEncoding != null) ? characterEncoding : super.getCharacterEncoding();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            PrintWriter pw = super.getWriter();
+            writerUsed = true;
+            return pw;
+        }
+
+        /**
+         * Encoding of the captured body: set by the rendering chain
+         * or the one used by the writer, {@code null} if unknown.
+         */
+        @Nullable
+        private String getCapturedCharacterEncoding() {
+            return (characterEncoding != null || writerUsed) ? getCharacterEncoding() : null;
+        }
+
+        @Override
+        public void sendError(int i, String string) throws IOException {
+            super.sendError(i, string);
+            error = true;
+            errorMessage = string;
+        }
+
+        @Override
+        public void sendError(int i) throws IOException {
+            super.sendError(i);
+            error = true;
+            errorMessage = null;
+        }
+
+        @Override
+        public void sendRedirect(String string) throws IOException {
+            super.sendRedirect(string);
+            redirectLocation = string;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            error = false;
+            errorMessage = null;
+            redirectLocation = null;
+            if (!writerUsed) {
+                characterEncoding = null;
+            }
+        }
+
+        private boolean isStorable(long maxEntryBytes) {
+            if (getStatus() != SC_OK || error || redirectLocation != null
+                || !getCookies().isEmpty()
+                || getTrackedHeader("Set-Cookie") != null
+                || getTrackedHeader("Set-Cookie2") != null
+                || getBuffer().size() > maxEntryBytes) {
+                return false;
+            }
+            String cc = getTrackedHeader("Cache-Control");
+            if (cc != null) {
+                cc = cc.toLowerCase();
+                return !cc.contains("private") && !cc.contains("no-store");
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void replay(HttpServletResponse resp, boolean transfer) throws IOException {
+            for (Object c : getCookies()) {
+                resp.addCookie((Cookie) c);
+            }
+            for (Object o : getHeaders()) {
+                String[] h = (String[]) o;
+                resp.addHeader(h[0], h[1]);
+            }
+            if (error) {
+                if (errorMessage != null) {
+                    resp.sendError(getStatus(), errorMessage);
+                } else {
+                    resp.sendError(getStatus());
+                }
+                return;
+            }
+            if (redirectLocation != null) {
+                resp.sendRedirect(redirectLocation);
+                return;
+            }
+            resp.setStatus(getStatus());
+            if (getContentType() != null) {
+                resp.setContentType(getContentType());
+            }
+            String enc = getCapturedCharacterEncoding();
+            if (enc != null) {
+                resp.setCharacterEncoding(enc);
+            }
+            long size = getBuffer().size();
+            resp.setContentLengthLong(size);
+            if (transfer) {
+                ServletOutputStream out = resp.getOutputStream();
+                writeTo(out);
+                out.flush();
+            }
+        }
+    }
+}
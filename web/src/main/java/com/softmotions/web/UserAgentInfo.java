@@ -0,0 +1,260 @@
+package com.softmotions.web;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * User agent traits detected by a single case-insensitive pass
+ * over the {@code User-Agent} header.
+ * <p/>
+ * All trait tokens are compiled into one Aho-Corasick automaton,
+ * so classification cost depends only on the user agent length.
+ * Parsed instances are cached by user agent string and
+ * memoized in the request attributes.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public final class UserAgentInfo {
+
+    public static final String REQUEST_ATTR = UserAgentInfo.class.getName();
+
+    private static final int MAX_CACHED = 2048;
+
+    private static final ConcurrentHashMap<String, UserAgentInfo> CACHE = new ConcurrentHashMap<>();
+
+    private static final UserAgentInfo EMPTY = new UserAgentInfo(0);
+
+    /**
+     * Tokens searched in the user agent.
+     */
+    public enum Trait {
+        ANDROID("android"),
+        MOBILE("mobile"),
+        IPAD("ipad"),
+        IPHONE("iphone"),
+        IEMOBILE("iemobile"),
+        TOUCH("touch"),
+        WIN("win"),
+        WEBKIT("applewebkit/"),
+        GECKO("gecko/"),
+        TRIDENT("trident/"),
+        EDGE("edge/");
+
+        private final String token;
+
+        Trait(String token) {
+            this.token = token;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private static final Matcher MATCHER = new Matcher(Trait.values());
+
+    private final int traits;
+
+    private UserAgentInfo(int traits) {
+        this.traits = traits;
+    }
+
+    /**
+     * Returns user agent info of the request.
+     * Result is stored as request attribute {@link #REQUEST_ATTR}.
+     */
+    @Nonnull
+    public static UserAgentInfo of(HttpServletRequest req) {
+        Object info = req.getAttribute(REQUEST_ATTR);
+        if (info instanceof UserAgentInfo) {
+            return (UserAgentInfo) info;
+        }
+        UserAgentInfo uai = parse(req.getHeader("user-agent"));
+        req.setAttribute(REQUEST_ATTR, uai);
+        return uai;
+    }
+
+    /**
+     * Parse user agent string.
+     */
+    @Nonnull
+    public static UserAgentInfo parse(@Nullable String ua) {
+        if (ua == null || ua.isEmpty()) {
+            return EMPTY;
+        }
+        UserAgentInfo uai = CACHE.get(ua);
+        if (uai == null) {
+            uai = new UserAgentInfo(MATCHER.match(ua));
+            if (CACHE.size() >= MAX_CACHED) {
+                CACHE.clear();
+            }
+            CACHE.put(ua, uai);
+        }
+        return uai;
+    }
+
+    public boolean has(Trait trait) {
+        return (traits & (1 << trait.ordinal())) != 0;
+    }
+
+    public Set<Trait> getTraits() {
+        EnumSet<Trait> set = EnumSet.noneOf(Trait.class);
+        for (Trait t : Trait.values()) {
+            if (has(t)) {
+                set.add(t);
+            }
+        }
+        return set;
+    }
+
+    public boolean isMobile() {
+        return isAndroidMobile() || isIphone() || isIeMobile();
+    }
+
+    public boolean isTablet() {
+        return isAndroidTablet() || isIpad() || (has(Trait.TOUCH) && has(Trait.WIN));
+    }
+
+    public boolean isAndroidMobile() {
+        return has(Trait.ANDROID) && has(Trait.MOBILE);
+    }
+
+    public boolean isAndroidTablet() {
+        return has(Trait.ANDROID) && !has(Trait.MOBILE);
+    }
+
+    public boolean isIpad() {
+        return has(Trait.IPAD);
+    }
+
+    public boolean isIphone() {
+        return has(Trait.IPHONE);
+    }
+
+    public boolean isIeMobile() {
+        return has(Trait.IEMOBILE);
+    }
+
+    public boolean isWebkit() {
+        return has(Trait.WEBKIT);
+    }
+
+    public boolean isGecko() {
+        return has(Trait.GECKO);
+    }
+
+    public boolean isTrident() {
+        return has(Trait.TRIDENT);
+    }
+
+    public boolean isEdge() {
+        return has(Trait.EDGE);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return traits == ((UserAgentInfo) o).traits;
+    }
+
+    @Override
+    public int hashCode() {
+        return traits;
+    }
+
+    @Override
+    public String toString() {
+        return "UserAgentInfo{" + getTraits() + '}';
+    }
+
+    /**
+     * Aho-Corasick automaton over ASCII compiled into a full transition table.
+     * Non ASCII characters reset the automaton to the root state.
+     */
+    private static final class Matcher {
+
+        private static final int ALPHABET = 128;
+
+        private final int[][] delta;
+
+        private final int[] output;
+
+        private Matcher(Trait[] traits) {
+            int maxStates = 1;
+            for (Trait t : traits) {
+                maxStates += t.token.length();
+            }
+            int[][] go = new int[maxStates][];
+            int[] out = new int[maxStates];
+            go[0] = new int[ALPHABET];
+            Arrays.fill(go[0], -1);
+            int nstates = 1;
+            for (Trait t : traits) {
+                int s = 0;
+                for (int i = 0; i < t.token.length(); ++i) {
+                    char c = t.token.charAt(i);
+                    if (go[s][c] == -1) {
+                        go[nstates] = new int[ALPHABET];
+                        Arrays.fill(go[nstates], -1);
+                        go[s][c] = nstates++;
+                    }
+                    s = go[s][c];
+                }
+                out[s] |= 1 << t.ordinal();
+            }
+            // Build failure links breadth first and fill in the missing transitions
+            int[] fail = new int[nstates];
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < ALPHABET; ++c) {
+                int s = go[0][c];
+                if (s == -1) {
+                    go[0][c] = 0;
+                } else {
+                    fail[s] = 0;
+                    queue.add(s);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int r = queue.remove();
+                out[r] |= out[fail[r]];
+                for (int c = 0; c < ALPHABET; ++c) {
+                    int s = go[r][c];
+                    if (s == -1) {
+                        go[r][c] = go[fail[r]][c];
+                    } else {
+                        fail[s] = go[fail[r]][c];
+                        queue.add(s);
+                    }
+                }
+            }
+            this.delta = Arrays.copyOf(go, nstates);
+            this.output = Arrays.copyOf(out, nstates);
+        }
+
+        private int match(String s) {
+            int res = 0;
+            int state = 0;
+            for (int i = 0, l = s.length(); i < l; ++i) {
+                char c = s.charAt(i);
+                if (c >= ALPHABET) {
+                    state = 0;
+                    continue;
+                }
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                state = delta[state][c];
+                res |= output[state];
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.softmotions.web;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class PathPrefixTrieTest {
+
+    @Test
+    public void testLongestPrefix() throws Exception {
+        PathPrefixTrie<String> trie = PathPrefixTrie.<String>builder()
+                .add("/ncms", "ncms")
+                .add("/ncms/admin", "admin")
+                .add("/ncms/admin/js/", "js")
+                .add("/static", "static")
+                .build();
+
+        Assert.assertEquals(trie.find("/ncms"), "ncms");
+        Assert.assertEquals(trie.find("/ncms/"), "ncms");
+        Assert.assertEquals(trie.find("/ncms/index.html"), "ncms");
+        Assert.assertEquals(trie.find("/ncms/admin"), "admin");
+        Assert.assertEquals(trie.find("/ncms/admin/app.js"), "admin");
+        Assert.assertEquals(trie.find("/ncms/admin/js/app.js"), "js");
+        Assert.assertEquals(trie.find("/ncms/administrator"), "ncms");
+        Assert.assertEquals(trie.find("/static/a/b/c.css"), "static");
+        Assert.assertNull(trie.find("/ncmsx/index.html"));
+        Assert.assertNull(trie.find("/"));
+        Assert.assertNull(trie.find(""));
+
+        Assert.assertEquals(trie.find("/app/ncms/admin/x", "/app".length()), "admin");
+    }
+
+    @Test
+    public void testRootAndDuplicates() throws Exception {
+        PathPrefixTrie<String> trie = PathPrefixTrie.<String>builder()
+                .add("/", "root")
+                .add("/a", "first")
+                .add("a/", "second")
+                .build();
+        Assert.assertEquals(trie.find("/"), "root");
+        Assert.assertEquals(trie.find("/b/c"), "root");
+        Assert.assertEquals(trie.find("/a/c"), "first");
+    }
+
+    @Test
+    public void testManySiblings() throws Exception {
+        PathPrefixTrie.Builder<Integer> builder = PathPrefixTrie.builder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.add("/slot" + i, i);
+        }
+        PathPrefixTrie<Integer> trie = builder.build();
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(trie.find("/slot" + i + "/file.js"), Integer.valueOf(i));
+        }
+        Assert.assertNull(trie.find("/slot1000/file.js"));
+    }
+
+    @Test
+    public void testDecodeRequestURI() throws Exception {
+        String uri = "/ncms/index.html";
+        Assert.assertSame(JarResourcesFilter.decodeRequestURI(uri), uri);
+        Assert.assertEquals(JarResourcesFilter.decodeRequestURI("/ncms/%D1%84.html"), "/ncms/ф.html");
+        Assert.assertEquals(JarResourcesFilter.decodeRequestURI("/ncms/a+b.html"), "/ncms/a b.html");
+    }
+
+    @Test
+    public void testFilterFallback() throws Exception {
+        PathPrefixTrie<String> trie = PathPrefixTrie.<String>builder()
+                .add("/x/", "/x/")
+                .add("/x/js/", "/x/js/")
+                .build();
+        PathPrefixTrie.Filter<String> filter = (v, path, offset) -> path.startsWith(v, offset);
+        Assert.assertEquals(trie.find("/x/js", 0, filter), "/x/");
+        Assert.assertEquals(trie.find("/x/js/app.js", 0, filter), "/x/js/");
+        Assert.assertNull(trie.find("/x", 0, filter));
+        Assert.assertEquals(trie.find("/x/js", 0), "/x/js/");
+    }
+}
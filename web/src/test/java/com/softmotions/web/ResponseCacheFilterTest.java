@@ -0,0 +1,401 @@
+package com.softmotions.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class ResponseCacheFilterTest {
+
+    @Test
+    public void testHitMiss() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "60");
+        AtomicInteger renders = new AtomicInteger();
+        FilterChain chain = (req, resp) -> {
+            renders.incrementAndGet();
+            resp.setContentType("text/plain");
+            resp.getOutputStream().write(("page " + ((HttpServletRequest) req).getRequestURI()).getBytes());
+        };
+
+        StubResponse r1 = execute(filter, chain, "GET", "/cached/a");
+        StubResponse r2 = execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 1);
+        Assert.assertEquals(r1.bodyString(), "page /cached/a");
+        Assert.assertEquals(r2.bodyString(), "page /cached/a");
+        Assert.assertEquals(r2.status, 200);
+        Assert.assertEquals(r2.contentType, "text/plain");
+
+        execute(filter, chain, "GET", "/cached/b");
+        Assert.assertEquals(renders.get(), 2);
+
+        // Not matching patterns and not cacheable methods
+        execute(filter, chain, "GET", "/other");
+        execute(filter, chain, "GET", "/other");
+        execute(filter, chain, "POST", "/cached/a");
+        Assert.assertEquals(renders.get(), 5);
+    }
+
+    @Test
+    public void testTtlExpiry() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "1");
+        AtomicInteger renders = new AtomicInteger();
+        FilterChain chain = (req, resp) -> {
+            renders.incrementAndGet();
+            resp.getOutputStream().write("data".getBytes());
+        };
+        execute(filter, chain, "GET", "/cached/a");
+        execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 1);
+        Thread.sleep(1100);
+        StubResponse r = execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 2);
+        Assert.assertEquals(r.bodyString(), "data");
+    }
+
+    @Test
+    public void testByteBudgetEviction() throws Exception {
+        ResponseCacheFilter filter = createFilter("maxBytes", "500");
+        AtomicInteger renders = new AtomicInteger();
+        FilterChain chain = (req, resp) -> {
+            renders.incrementAndGet();
+            resp.getOutputStream().write(new byte[60]);
+        };
+        execute(filter, chain, "GET", "/cached/a");
+        long entryBytes = filter.getCacheBytes();
+        Assert.assertTrue(entryBytes > 60 + ResponseCacheFilter.ENTRY_OVERHEAD);
+        execute(filter, chain, "GET", "/cached/b");
+        Assert.assertEquals(filter.getCacheBytes(), entryBytes);
+        execute(filter, chain, "GET", "/cached/b");
+        Assert.assertEquals(renders.get(), 2);
+        // The least recently used entry is evicted
+        execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 3);
+        Assert.assertTrue(filter.getCacheBytes() <= 500);
+
+        // Entries exceeding maxEntryBytes are not cached
+        filter = createFilter("maxEntryBytes", "10");
+        execute(filter, chain, "GET", "/cached/a");
+        execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 5);
+        Assert.assertEquals(filter.getCacheBytes(), 0);
+    }
+
+    @Test
+    public void testEmptyBodyEntriesAreBounded() throws Exception {
+        ResponseCacheFilter filter = createFilter("maxBytes", "100000", "maxEntries", "10");
+        FilterChain chain = (req, resp) -> {
+        };
+        for (int i = 0; i < 100; ++i) {
+            execute(filter, chain, "GET", "/cached/a", "bust=" + i);
+        }
+        Assert.assertEquals(filter.getCacheSize(), 10);
+        Assert.assertTrue(filter.getCacheBytes() >= 10L * ResponseCacheFilter.ENTRY_OVERHEAD);
+
+        filter = createFilter("maxBytes", "3000");
+        for (int i = 0; i < 100; ++i) {
+            execute(filter, chain, "GET", "/cached/a", "bust=" + i);
+        }
+        Assert.assertTrue(filter.getCacheBytes() <= 3000);
+        Assert.assertTrue(filter.getCacheSize() < 3000 / ResponseCacheFilter.ENTRY_OVERHEAD);
+    }
+
+    @Test
+    public void testExpiredEntriesPurged() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "1");
+        FilterChain chain = (req, resp) -> resp.getOutputStream().write("data".getBytes());
+        for (int i = 0; i < 10; ++i) {
+            execute(filter, chain, "GET", "/cached/a", "q=" + i);
+        }
+        Assert.assertEquals(filter.getCacheSize(), 10);
+        Thread.sleep(1100);
+        execute(filter, chain, "GET", "/cached/b");
+        Assert.assertEquals(filter.getCacheSize(), 1);
+    }
+
+    @Test
+    public void testHeadServedFromGetEntry() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "60");
+        AtomicInteger renders = new AtomicInteger();
+        FilterChain chain = (req, resp) -> {
+            renders.incrementAndGet();
+            if (!"HEAD".equals(((HttpServletRequest) req).getMethod())) {
+                resp.getOutputStream().write("content".getBytes());
+            }
+        };
+        // HEAD without cached GET entry is rendered and not cached
+        execute(filter, chain, "HEAD", "/cached/a");
+        execute(filter, chain, "HEAD", "/cached/a");
+        Assert.assertEquals(renders.get(), 2);
+        Assert.assertEquals(filter.getCacheSize(), 0);
+
+        execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 3);
+        StubResponse r = execute(filter, chain, "HEAD", "/cached/a");
+        Assert.assertEquals(renders.get(), 3);
+        Assert.assertEquals(r.contentLength, "content".length());
+        Assert.assertEquals(r.body.size(), 0);
+    }
+
+    @Test
+    public void testConcurrentMissCoalescing() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "60");
+        AtomicInteger renders = new AtomicInteger();
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FilterChain chain = (req, resp) -> {
+            renders.incrementAndGet();
+            rendering.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            resp.getOutputStream().write("slow".getBytes());
+        };
+        int nthreads = 8;
+        List<Thread> threads = new ArrayList<>();
+        List<StubResponse> responses = Collections.synchronizedList(new ArrayList<>());
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < nthreads; ++i) {
+            Thread t = new Thread(() -> {
+                try {
+                    responses.add(execute(filter, chain, "GET", "/cached/slow"));
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+            if (i == 0) {
+                Assert.assertTrue(rendering.await(10, TimeUnit.SECONDS));
+            }
+        }
+        // Wait until all other requests are blocked on the rendering one
+        long deadline = System.currentTimeMillis() + 10000;
+        for (Thread t : threads.subList(1, threads.size())) {
+            while (t.getState() != Thread.State.WAITING && t.getState() != Thread.State.TIMED_WAITING) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+        release.countDown();
+        for (Thread t : threads) {
+            t.join(10000);
+        }
+        Assert.assertTrue(errors.isEmpty(), errors.toString());
+        Assert.assertEquals(renders.get(), 1);
+        Assert.assertEquals(responses.size(), nthreads);
+        for (StubResponse r : responses) {
+            Assert.assertEquals(r.bodyString(), "slow");
+        }
+    }
+
+    @Test
+    public void testCharsetRoundTrip() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "60");
+        String text = "Привет, мир € ✓";
+        FilterChain chain = (req, resp) -> {
+            resp.setContentType("text/html;charset=UTF-8");
+            resp.getWriter().write(text);
+        };
+        StubResponse r1 = execute(filter, chain, "GET", "/cached/utf");
+        StubResponse r2 = execute(filter, chain, "GET", "/cached/utf");
+        for (StubResponse r : new StubResponse[]{r1, r2}) {
+            Assert.assertEquals(r.characterEncoding, "UTF-8");
+            Assert.assertEquals(new String(r.body.toByteArray(), StandardCharsets.UTF_8), text);
+        }
+
+        chain = (req, resp) -> {
+            resp.setContentType("text/plain");
+            resp.setCharacterEncoding("UTF-8");
+            resp.getWriter().write(text);
+        };
+        r1 = execute(filter, chain, "GET", "/cached/utf2");
+        r2 = execute(filter, chain, "GET", "/cached/utf2");
+        for (StubResponse r : new StubResponse[]{r1, r2}) {
+            Assert.assertEquals(r.characterEncoding, "UTF-8");
+            Assert.assertEquals(new String(r.body.toByteArray(), StandardCharsets.UTF_8), text);
+        }
+    }
+
+    @Test
+    public void testSetCookieHeaderNotCached() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "60");
+        AtomicInteger renders = new AtomicInteger();
+        FilterChain chain = (req, resp) -> {
+            int n = renders.incrementAndGet();
+            ((HttpServletResponse) resp).setHeader("Set-Cookie", "sid=" + n);
+            resp.getOutputStream().write("private".getBytes());
+        };
+        StubResponse r1 = execute(filter, chain, "GET", "/cached/a");
+        StubResponse r2 = execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 2);
+        Assert.assertEquals(r1.headers.get("Set-Cookie"), "sid=1");
+        Assert.assertEquals(r2.headers.get("Set-Cookie"), "sid=2");
+        Assert.assertEquals(filter.getCacheBytes(), 0);
+    }
+
+    @Test
+    public void testAsyncResponseNotCached() throws Exception {
+        ResponseCacheFilter filter = createFilter("ttl", "60");
+        AtomicInteger renders = new AtomicInteger();
+        FilterChain chain = (req, resp) -> {
+            renders.incrementAndGet();
+            req.startAsync();
+        };
+        StubResponse r1 = execute(filter, chain, "GET", "/cached/a");
+        // Nothing is replayed while the response is rendered asynchronously
+        Assert.assertEquals(r1.contentLength, -1);
+        Assert.assertEquals(r1.body.size(), 0);
+        execute(filter, chain, "GET", "/cached/a");
+        Assert.assertEquals(renders.get(), 2);
+        Assert.assertEquals(filter.getCacheBytes(), 0);
+    }
+
+    private static ResponseCacheFilter createFilter(String... params) throws Exception {
+        Map<String, String> pmap = new HashMap<>();
+        pmap.put("patterns", "/cached/*");
+        for (int i = 0; i < params.length; i += 2) {
+            pmap.put(params[i], params[i + 1]);
+        }
+        ResponseCacheFilter filter = new ResponseCacheFilter();
+        filter.init(stub(FilterConfig.class, (p, m, args) ->
+                "getInitParameter".equals(m.getName()) ? pmap.get(args[0]) : null));
+        return filter;
+    }
+
+    private static StubResponse execute(ResponseCacheFilter filter,
+                                        FilterChain chain,
+                                        String method,
+                                        String uri) throws Exception {
+        return execute(filter, chain, method, uri, null);
+    }
+
+    private static StubResponse execute(ResponseCacheFilter filter,
+                                        FilterChain chain,
+                                        String method,
+                                        String uri,
+                                        String query) throws Exception {
+        boolean[] asyncStarted = new boolean[1];
+        HttpServletRequest req = stub(HttpServletRequest.class, (p, m, args) -> {
+            switch (m.getName()) {
+                case "startAsync":
+                    asyncStarted[0] = true;
+                    return null;
+                case "isAsyncStarted":
+                    return asyncStarted[0];
+                case "getMethod":
+                    return method;
+                case "getRequestURI":
+                    return uri;
+                case "getQueryString":
+                    return query;
+                default:
+                    return null;
+            }
+        });
+        StubResponse resp = new StubResponse();
+        filter.doFilter(req, stub(HttpServletResponse.class, resp), chain);
+        return resp;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> iface, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class[]{iface}, handler);
+    }
+
+    /**
+     * Minimal servlet response recording its state.
+     */
+    private static final class StubResponse implements InvocationHandler {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private final Map<String, String> headers = new HashMap<>();
+
+        private int status = 200;
+
+        private String contentType;
+
+        private String characterEncoding = "ISO-8859-1";
+
+        private long contentLength = -1;
+
+        private String bodyString() {
+            return new String(body.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws IOException {
+            switch (m.getName()) {
+                case "setStatus":
+                    status = (Integer) args[0];
+                    return null;
+                case "setContentType":
+                    contentType = (String) args[0];
+                    return null;
+                case "setCharacterEncoding":
+                    characterEncoding = (String) args[0];
+                    return null;
+                case "getCharacterEncoding":
+                    return characterEncoding;
+                case "setContentLength":
+                    contentLength = (Integer) args[0];
+                    return null;
+                case "setContentLengthLong":
+                    contentLength = (Long) args[0];
+                    return null;
+                case "addHeader":
+                case "setHeader":
+                    headers.put((String) args[0], (String) args[1]);
+                    return null;
+                case "getOutputStream":
+                    return new ServletOutputStream() {
+                        @Override
+                        public void write(int b) {
+                            body.write(b);
+                        }
+
+                        @Override
+                        public boolean isReady() {
+                            return true;
+                        }
+
+                        @Override
+                        public void setWriteListener(WriteListener writeListener) {
+                        }
+                    };
+                case "isCommitted":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.softmotions.web;
+
+import java.util.EnumSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class UserAgentInfoTest {
+
+    @Test
+    public void testClassification() throws Exception {
+        UserAgentInfo uai = UserAgentInfo.parse(
+                "Mozilla/5.0 (iPhone; CPU iPhone OS 11_0 like Mac OS X) AppleWebKit/604.1.38 " +
+                "(KHTML, like Gecko) Version/11.0 Mobile/15A372 Safari/604.1");
+        Assert.assertTrue(uai.isIphone());
+        Assert.assertTrue(uai.isMobile());
+        Assert.assertTrue(uai.isWebkit());
+        Assert.assertFalse(uai.isGecko());
+        Assert.assertFalse(uai.isTablet());
+        Assert.assertFalse(uai.isIpad());
+
+        uai = UserAgentInfo.parse("Mozilla/5.0 (Linux; Android 7.0; SM-T827R4 Build/NRD90M) " +
+                                  "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.116 Safari/537.36");
+        Assert.assertTrue(uai.isAndroidTablet());
+        Assert.assertTrue(uai.isTablet());
+        Assert.assertFalse(uai.isMobile());
+
+        uai = UserAgentInfo.parse("Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:61.0) Gecko/20100101 Firefox/61.0");
+        Assert.assertEquals(uai.getTraits(), EnumSet.of(UserAgentInfo.Trait.WIN, UserAgentInfo.Trait.GECKO));
+
+        uai = UserAgentInfo.parse("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 " +
+                                  "(KHTML, like Gecko) Chrome/64.0.3282.140 Safari/537.36 Edge/17.17134");
+        Assert.assertTrue(uai.isEdge());
+        Assert.assertTrue(uai.isWebkit());
+
+        // Overlapping tokens
+        uai = UserAgentInfo.parse("xxiemobilexx");
+        Assert.assertTrue(uai.isIeMobile());
+        Assert.assertTrue(uai.has(UserAgentInfo.Trait.MOBILE));
+        Assert.assertTrue(uai.isMobile());
+
+        Assert.assertTrue(UserAgentInfo.parse(null).getTraits().isEmpty());
+        Assert.assertTrue(UserAgentInfo.parse("Ѿandroid").has(UserAgentInfo.Trait.ANDROID));
+    }
+
+    @Test
+    public void testHttpUtilsCompat() throws Exception {
+        String[] uas = {
+                "mozilla/5.0 (ipad; cpu os 11_0 like mac os x) applewebkit/604.1.34 (khtml, like gecko) mobile/15a5341f",
+                "mozilla/5.0 (compatible; msie 10.0; windows phone 8.0; trident/6.0; iemobile/10.0; arm; touch)",
+                "mozilla/5.0 (windows nt 6.3; trident/7.0; touch; rv:11.0) like gecko",
+                "curl/7.58.0"
+        };
+        for (String ua : uas) {
+            Assert.assertEquals(HttpUtils.isMobile(ua),
+                                ua.contains("android") && ua.contains("mobile") || ua.contains("iphone") || ua.contains("iemobile"));
+            Assert.assertEquals(HttpUtils.isTablet(ua),
+                                ua.contains("android") && !ua.contains("mobile") || ua.contains("ipad")
+                                || (ua.contains("touch") && ua.contains("win")));
+            Assert.assertEquals(HttpUtils.isTrident(ua), ua.contains("trident/"));
+            Assert.assertEquals(HttpUtils.isGecko(ua), ua.contains("gecko/"));
+        }
+    }
+}
@@ -1,23 +1,13 @@
 package com.softmotions.weboot.cayenne;
 
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import javax.annotation.Nullable;
 
 import org.apache.cayenne.Cayenne;
 import org.apache.cayenne.CayenneDataObject;
 import org.apache.cayenne.ObjectContext;
-import org.apache.cayenne.Persistent;
-import org.apache.cayenne.PersistentObject;
-import org.apache.commons.beanutils.BeanUtilsBean;
-import org.apache.commons.beanutils.PropertyUtilsBean;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.softmotions.commons.json.JsonUtils;
 
 /**
  * @author Adamansky Anton (adamansky@gmail.com)
@@ -82,9 +72,8 @@ public abstract class DataObject extends CayenneDataObject {
      */
     public void mergeAllPlain(Object src) throws Exception {
         if (src instanceof ObjectNode) {
-            src = JsonUtils.populateMapByJsonNode((ObjectNode) src, new HashMap<>());
-        }
-        if (src instanceof Map) {
+            copyNotNullJson(this, (ObjectNode) src, false, false);
+        } else if (src instanceof Map) {
             //noinspection unchecked
             copyNotNullMap(this, (Map<String, Object>) src, false, false);
         } else {
@@ -98,132 +87,23 @@ public abstract class DataObject extends CayenneDataObject {
      */
     public void mergeNotNullPlain(Object src) throws Exception {
         if (src instanceof ObjectNode) {
-            src = JsonUtils.populateMapByJsonNode((ObjectNode) src, new HashMap<>());
-        }
-        if (src instanceof Map) {
+            copyNotNullJson(this, (ObjectNode) src, false, false);
+        } else if (src instanceof Map) {
             copyNotNullMap(this, (Map<String, Object>) src, false, false);
         } else {
             copyNotNullProperties(this, src, false, false);
         }
     }
 
-    private Object preprocessPropValue(Object value, Class<?> destType) throws Exception {
-        if (destType != null) {
-            if (destType == Date.class || Date.class.isAssignableFrom(destType)) {
-                if (value instanceof String) {
-                    try {
-                        value = Long.parseLong((String) value);
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
-                if (value instanceof Number) {
-                    value = new Date(((Number) value).longValue());
-                }
-            } else if (destType == Integer.class) {
-                if (value instanceof String) {
-                    value = Integer.valueOf((String) value);
-                } else if (value instanceof Number) {
-                    value = ((Number) value).intValue();
-                }
-            } else if (destType == Long.class) {
-                if (value instanceof String) {
-                    value = Long.valueOf((String) value);
-                } else if (value instanceof Number) {
-                    value = ((Number) value).longValue();
-                }
-            }
-        }
-        return value;
+    private void copyNotNullProperties(Object dest, Object orig, boolean allowNulls, boolean allowRelations) throws Exception {
+        PropertyCopier.forClass(dest.getClass()).copyProperties(dest, orig, allowNulls, allowRelations);
     }
 
-    @SuppressWarnings("OverlyNestedMethod")
-    private void copyNotNullProperties(Object dest, Object orig, boolean allowNulls, boolean allowRelations) throws Exception {
-        if (orig == null) {
-            return;
-        }
-        PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
-        PropertyDescriptor[] origDescriptors = propertyUtils.getPropertyDescriptors(orig);
-        for (int i = 0; i < origDescriptors.length; i++) {
-            String name = origDescriptors[i].getName();
-            PropertyDescriptor destDescriptor = propertyUtils.getPropertyDescriptor(dest, name);
-            Class<?> destType = destDescriptor != null ? destDescriptor.getPropertyType() : null;
-            if (propertyUtils.isReadable(orig, name) && propertyUtils.isWriteable(dest, name)) {
-                try {
-                    Method writeMethod = propertyUtils.getWriteMethod(destDescriptor);
-                    Class dc = writeMethod.getDeclaringClass();
-                    //noinspection ObjectEquality
-                    if (dc == CayenneDataObject.class || dc == PersistentObject.class || dc == DataObject.class) {
-                        continue;
-                    }
-                    Object value = propertyUtils.getSimpleProperty(orig, name);
-                    if (!allowNulls && value == null) {
-                        continue;
-                    }
-                    if (!allowRelations) {
-                        if ((destType != null && Persistent.class.isAssignableFrom(destType)) || value instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Map
-                            && !((Map) value).isEmpty()
-                            && (((Map) value).values().iterator().next()) instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Iterable) {
-                            Iterator iter = ((Iterable) value).iterator();
-                            if (iter.hasNext() && iter.next() instanceof Persistent) {
-                                continue;
-                            }
-                        }
-                    }
-                    propertyUtils.setSimpleProperty(dest, name, preprocessPropValue(value, destType));
-                } catch (NoSuchMethodException ignored) {
-                }
-            }
-        }
+    private void copyNotNullJson(Object dest, ObjectNode orig, boolean allowNulls, boolean allowRelations) throws Exception {
+        PropertyCopier.forClass(dest.getClass()).copyJson(dest, orig, allowNulls, allowRelations);
     }
 
-    @SuppressWarnings("OverlyNestedMethod")
     private void copyNotNullMap(Object dest, Map<String, Object> orig, boolean allowNulls, boolean allowRelations) throws Exception {
-        if (orig == null) {
-            return;
-        }
-        PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
-        for (Map.Entry<String, Object> entry : orig.entrySet()) {
-            String name = entry.getKey();
-            PropertyDescriptor destDescriptor = propertyUtils.getPropertyDescriptor(dest, name);
-            Class<?> destType = destDescriptor != null ? destDescriptor.getPropertyType() : null;
-            if (propertyUtils.isWriteable(dest, name)) {
-                try {
-                    Method writeMethod = propertyUtils.getWriteMethod(destDescriptor);
-                    Class dc = writeMethod.getDeclaringClass();
-                    //noinspection ObjectEquality
-                    if (dc == CayenneDataObject.class || dc == PersistentObject.class || dc == DataObject.class) {
-                        continue;
-                    }
-                    Object value = orig.get(name);
-                    if (!allowNulls && value == null) {
-                        continue;
-                    }
-                    if (!allowRelations) {
-                        if ((destType != null && Persistent.class.isAssignableFrom(destType)) || value instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Map
-                            && !((Map) value).isEmpty()
-                            && (((Map) value).values().iterator().next()) instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Iterable) {
-                            Iterator iter = ((Iterable) value).iterator();
-                            if (iter.hasNext() && iter.next() instanceof Persistent) {
-                                continue;
-                            }
-                        }
-                    }
-                    propertyUtils.setSimpleProperty(dest, name, preprocessPropValue(value, destType));
-                } catch (NoSuchMethodException ignored) {
-                }
-            }
-        }
+        PropertyCopier.forClass(dest.getClass()).copyMap(dest, orig, allowNulls, allowRelations);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+package com.softmotions.weboot.cayenne;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON attribute value parsed on first access.
+ * <p/>
+ * Raw UTF-8 column data is kept as fetched from the database
+ * and parsed into {@link JsonNode} only when {@link #get()} is called.
+ * Values never accessed are written back without serialization.
+ * <p/>
+ * Map data object attributes of {@code json/jsonb} columns
+ * to this type when {@link WBCayennePostgresModule} is used:
+ * <pre>
+ *     &lt;obj-attribute name="payload" type="com.softmotions.weboot.cayenne.LazyJsonNode" db-attribute-path="payload"/&gt;
+ * </pre>
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public final class LazyJsonNode {
+
+    private final ObjectMapper mapper;
+
+    private final byte[] data;
+
+    private final int offset;
+
+    private volatile JsonNode node;
+
+    LazyJsonNode(ObjectMapper mapper, byte[] data, int offset) {
+        this.mapper = mapper;
+        this.data = data;
+        this.offset = offset;
+    }
+
+    private LazyJsonNode(JsonNode node) {
+        this.mapper = null;
+        this.data = null;
+        this.offset = 0;
+        this.node = node;
+    }
+
+    public static LazyJsonNode of(JsonNode node) {
+        return new LazyJsonNode(Objects.requireNonNull(node, "node"));
+    }
+
+    /**
+     * Returns true if JSON data is already parsed.
+     */
+    public boolean isMaterialized() {
+        return node != null;
+    }
+
+    /**
+     * Parsed JSON node. Data is parsed once on the first call.
+     * Returned node is shared by all callers so it must not be modified
+     * in place, wrap the modified node by {@link #of(JsonNode)} instead.
+     *
+     * @throws UncheckedIOException If column data is not a valid JSON
+     */
+    public JsonNode get() {
+        JsonNode n = node;
+        if (n == null) {
+            synchronized (this) {
+                n = node;
+                if (n == null) {
+                    try {
+                        n = mapper.readTree(new ByteArrayInputStream(data, offset, data.length - offset));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    node = n;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * JSON text fetched from the database
+     * or {@code null} if this value is created from {@link JsonNode}.
+     */
+    @Nullable
+    String rawText() {
+        return (data != null) ? new String(data, offset, data.length - offset, StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return get().equals(((LazyJsonNode) o).get());
+    }
+
+    @Override
+    public int hashCode() {
+        return get().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        String raw = rawText();
+        return (raw != null) ? raw : String.valueOf(node);
+    }
+}
@@ -1,5 +1,15 @@
 package com.softmotions.weboot.cayenne;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -8,12 +18,19 @@ import org.apache.cayenne.configuration.server.ServerRuntime;
 
 /**
  * Placeholder for the current thread object context.
+ * <p/>
+ * Object context is not inherited by spawned threads.
+ * Use {@link #runWith(ObjectContext, Runnable)}, {@link #wrap(Runnable)}
+ * or {@link #propagating(ExecutorService)} to pass the current
+ * object context to tasks executed by other threads explicitly.
+ * Context is bound to the executing thread for the task duration only,
+ * so pooled threads do not retain object contexts between tasks.
  *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
 public class ObjectContextThreadHolder {
 
-    static final ThreadLocal<ObjectContext> contextStore = new InheritableThreadLocal<>();
+    static final ThreadLocal<ObjectContext> contextStore = new ThreadLocal<>();
 
     private ObjectContextThreadHolder() {
     }
@@ -22,7 +39,7 @@ public class ObjectContextThreadHolder {
         contextStore.set(ctx);
     }
 
-   @Nullable
+    @Nullable
     public static ObjectContext getObjectContext() {
         return contextStore.get();
     }
@@ -40,4 +57,171 @@ public class ObjectContextThreadHolder {
         }
         return octx;
     }
+
+    /**
+     * Run task with the given object context bound to the current thread.
+     * Previously bound context is restored when task completes.
+     */
+    public static void runWith(@Nullable ObjectContext ctx, Runnable task) {
+        ObjectContext prev = bind(ctx);
+        try {
+            task.run();
+        } finally {
+            restore(prev);
+        }
+    }
+
+    /**
+     * Call task with the given object context bound to the current thread.
+     * Previously bound context is restored when task completes.
+     */
+    public static <T> T callWith(@Nullable ObjectContext ctx, Callable<T> task) throws Exception {
+        ObjectContext prev = bind(ctx);
+        try {
+            return task.call();
+        } finally {
+            restore(prev);
+        }
+    }
+
+    /**
+     * Wrap task to run with the object context of the current thread.
+     * Context is captured at the time of this call.
+     */
+    public static Runnable wrap(Runnable task) {
+        ObjectContext ctx = contextStore.get();
+        if (ctx == null) {
+            return task;
+        }
+        return () -> runWith(ctx, task);
+    }
+
+    /**
+     * Wrap task to be called with the object context of the current thread.
+     * Context is captured at the time of this call.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        ObjectContext ctx = contextStore.get();
+        if (ctx == null) {
+            return task;
+        }
+        return () -> callWith(ctx, task);
+    }
+
+    /**
+     * Executor passing object context of the submitting thread to executed tasks.
+     */
+    public static Executor propagating(Executor executor) {
+        return command -> executor.execute(wrap(command));
+    }
+
+    /**
+     * Executor service passing object context of the submitting thread to executed tasks.
+     * Lifecycle methods are delegated to the given executor service.
+     */
+    public static ExecutorService propagating(ExecutorService executor) {
+        return new PropagatingExecutorService(executor);
+    }
+
+    private static ObjectContext bind(ObjectContext ctx) {
+        ObjectContext prev = contextStore.get();
+        if (ctx != null) {
+            contextStore.set(ctx);
+        } else if (prev != null) {
+            contextStore.remove();
+        }
+        return prev;
+    }
+
+    private static void restore(ObjectContext prev) {
+        if (prev != null) {
+            contextStore.set(prev);
+        } else {
+            contextStore.remove();
+        }
+    }
+
+    private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+        List<Callable<T>> res = new ArrayList<>(tasks.size());
+        for (Callable<T> t : tasks) {
+            res.add(wrap(t));
+        }
+        return res;
+    }
+
+    private static final class PropagatingExecutorService implements ExecutorService {
+
+        private final ExecutorService executor;
+
+        private PropagatingExecutorService(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return executor.submit(wrap(task));
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return executor.submit(wrap(task), result);
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return executor.submit(wrap(task));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return executor.invokeAll(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.invokeAll(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+            return executor.invokeAny(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks,
+                               long timeout,
+                               TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return executor.invokeAny(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(wrap(command));
+        }
+    }
 }
@@ -0,0 +1,377 @@
+package com.softmotions.weboot.cayenne;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.CayenneDataObject;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.PersistentObject;
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.beanutils.PropertyUtilsBean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.softmotions.commons.json.JsonUtils;
+
+/**
+ * Copies properties of beans, maps and JSON objects into data objects
+ * using plans computed once per destination and source classes.
+ * <p/>
+ * Property descriptors are resolved by commons-beanutils only while
+ * a plan is built, accessors are invoked through {@link MethodHandle}s
+ * and values are converted by coercers selected for the destination property type.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@SuppressWarnings({"ChainOfInstanceofChecks", "ObjectEquality"})
+final class PropertyCopier {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<PropertyCopier> COPIERS = new ClassValue<PropertyCopier>() {
+        @Override
+        protected PropertyCopier computeValue(Class<?> type) {
+            return new PropertyCopier(type);
+        }
+    };
+
+    private final Map<String, Setter> setters;
+
+    /**
+     * Copy plans for source bean classes.
+     */
+    private final ClassValue<Property[]> plans = new ClassValue<Property[]>() {
+        @Override
+        protected Property[] computeValue(Class<?> type) {
+            return buildPlan(type);
+        }
+    };
+
+    static PropertyCopier forClass(Class<?> destType) {
+        return COPIERS.get(destType);
+    }
+
+    private PropertyCopier(Class<?> destType) {
+        PropertyUtilsBean pu = BeanUtilsBean.getInstance().getPropertyUtils();
+        Map<String, Setter> smap = new HashMap<>();
+        for (PropertyDescriptor pd : pu.getPropertyDescriptors(destType)) {
+            Method wm = pu.getWriteMethod(pd);
+            if (wm == null) {
+                continue;
+            }
+            Class dc = wm.getDeclaringClass();
+            if (dc == CayenneDataObject.class || dc == PersistentObject.class || dc == DataObject.class) {
+                continue;
+            }
+            MethodHandle mh = unreflect(wm);
+            if (mh != null) {
+                smap.put(pd.getName(), new Setter(pd.getName(), pd.getPropertyType(), mh));
+            }
+        }
+        this.setters = Collections.unmodifiableMap(smap);
+    }
+
+    private Property[] buildPlan(Class<?> srcType) {
+        PropertyUtilsBean pu = BeanUtilsBean.getInstance().getPropertyUtils();
+        List<Property> plist = new ArrayList<>();
+        for (PropertyDescriptor pd : pu.getPropertyDescriptors(srcType)) {
+            Setter setter = setters.get(pd.getName());
+            if (setter == null) {
+                continue;
+            }
+            Method rm = pu.getReadMethod(pd);
+            MethodHandle mh = (rm != null) ? unreflect(rm) : null;
+            if (mh != null) {
+                plist.add(new Property(mh.asType(GETTER_TYPE), setter));
+            }
+        }
+        return plist.toArray(new Property[plist.size()]);
+    }
+
+    private static MethodHandle unreflect(Method m) {
+        try {
+            return MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Copy properties of the source bean into the destination object.
+     */
+    void copyProperties(Object dest, Object orig, boolean allowNulls, boolean allowRelations) throws Exception {
+        if (orig == null) {
+            return;
+        }
+        for (Property p : plans.get(orig.getClass())) {
+            Object value;
+            try {
+                value = p.getter.invokeExact(orig);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            p.setter.set(dest, value, allowNulls, allowRelations);
+        }
+    }
+
+    /**
+     * Copy map entries into properties of the destination object.
+     */
+    void copyMap(Object dest, Map<String, Object> orig, boolean allowNulls, boolean allowRelations) throws Exception {
+        if (orig == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> entry : orig.entrySet()) {
+            Setter setter = setters.get(entry.getKey());
+            if (setter != null) {
+                setter.set(dest, entry.getValue(), allowNulls, allowRelations);
+            }
+        }
+    }
+
+    /**
+     * Copy fields of the JSON object into properties of the destination object.
+     * Fields unknown to the destination object are skipped without conversion,
+     * numeric fields are passed directly to the setters of primitive properties.
+     */
+    void copyJson(Object dest, ObjectNode orig, boolean allowNulls, boolean allowRelations) throws Exception {
+        if (orig == null) {
+            return;
+        }
+        Iterator<Map.Entry<String, JsonNode>> fields = orig.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> f = fields.next();
+            Setter setter = setters.get(f.getKey());
+            if (setter != null) {
+                setter.setJson(dest, f.getValue(), allowNulls, allowRelations);
+            }
+        }
+    }
+
+    private static Exception rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return (Exception) t;
+    }
+
+    private static boolean isRelation(Object value) {
+        if (value instanceof Persistent) {
+            return true;
+        }
+        if (value instanceof Map
+            && !((Map) value).isEmpty()
+            && (((Map) value).values().iterator().next()) instanceof Persistent) {
+            return true;
+        }
+        if (value instanceof Iterable) {
+            Iterator iter = ((Iterable) value).iterator();
+            return iter.hasNext() && iter.next() instanceof Persistent;
+        }
+        return false;
+    }
+
+    private static final class Property {
+
+        private final MethodHandle getter;
+
+        private final Setter setter;
+
+        private Property(MethodHandle getter, Setter setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    private static final class Setter {
+
+        private final String name;
+
+        private final Class<?> type;
+
+        private final MethodHandle handle;
+
+        /**
+         * Setter of primitive numeric or boolean property
+         * typed as {@code (Object, primitive)void}.
+         */
+        private final MethodHandle primitiveHandle;
+
+        private final Coercer coercer;
+
+        private final boolean relation;
+
+        private Setter(String name, Class<?> type, MethodHandle mh) {
+            this.name = name;
+            this.type = type;
+            this.handle = mh.asType(SETTER_TYPE);
+            this.primitiveHandle = (type == int.class || type == long.class || type == double.class
+                                    || type == float.class || type == boolean.class)
+                                   ? mh.asType(MethodType.methodType(void.class, Object.class, type))
+                                   : null;
+            this.coercer = Coercer.forType(type);
+            this.relation = (type != null && Persistent.class.isAssignableFrom(type));
+        }
+
+        private void setJson(Object dest, JsonNode n, boolean allowNulls, boolean allowRelations) throws Exception {
+            switch (n.getNodeType()) {
+                case NUMBER:
+                    if (primitiveHandle != null && type != boolean.class) {
+                        setNumber(dest, n);
+                        return;
+                    }
+                    if (coercer == Coercer.INTEGER) {
+                        set(dest, n.intValue(), allowNulls, allowRelations);
+                    } else if (coercer == Coercer.LONG) {
+                        set(dest, n.longValue(), allowNulls, allowRelations);
+                    } else if (coercer == Coercer.DATE) {
+                        set(dest, new Date(n.longValue()), allowNulls, allowRelations);
+                    } else {
+                        set(dest, JsonUtils.nodeAsObject(n), allowNulls, allowRelations);
+                    }
+                    return;
+                case BOOLEAN:
+                    if (type == boolean.class) {
+                        try {
+                            primitiveHandle.invokeExact(dest, n.booleanValue());
+                        } catch (Throwable t) {
+                            throw rethrow(t);
+                        }
+                    } else {
+                        set(dest, n.booleanValue(), allowNulls, allowRelations);
+                    }
+                    return;
+                case STRING:
+                    set(dest, n.textValue(), allowNulls, allowRelations);
+                    return;
+                default:
+                    set(dest, JsonUtils.nodeAsObject(n), allowNulls, allowRelations);
+            }
+        }
+
+        private void setNumber(Object dest, JsonNode n) throws Exception {
+            // Values not representable by the integral property are rejected, not truncated
+            if ((type == int.class && (!n.isIntegralNumber() || !n.canConvertToInt()))
+                || (type == long.class && (!n.isIntegralNumber() || !n.canConvertToLong()))) {
+                throw invalidValue(dest, n);
+            }
+            try {
+                if (type == int.class) {
+                    primitiveHandle.invokeExact(dest, n.intValue());
+                } else if (type == long.class) {
+                    primitiveHandle.invokeExact(dest, n.longValue());
+                } else if (type == double.class) {
+                    primitiveHandle.invokeExact(dest, n.doubleValue());
+                } else {
+                    primitiveHandle.invokeExact(dest, n.floatValue());
+                }
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        private void set(Object dest, Object value, boolean allowNulls, boolean allowRelations) throws Exception {
+            if (!allowNulls && value == null) {
+                return;
+            }
+            if (!allowRelations && (relation || isRelation(value))) {
+                return;
+            }
+            value = coercer.coerce(value);
+            try {
+                handle.invokeExact(dest, value);
+            } catch (ClassCastException | NullPointerException e) {
+                IllegalArgumentException iae = invalidValue(dest, value);
+                iae.initCause(e);
+                throw iae;
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        private IllegalArgumentException invalidValue(Object dest, Object value) {
+            return new IllegalArgumentException("Cannot set property: '" + name + "' of " +
+                                                dest.getClass().getName() + " to: " + value);
+        }
+    }
+
+    private enum Coercer {
+
+        NONE {
+            @Override
+            Object coerce(Object value) {
+                return value;
+            }
+        },
+
+        DATE {
+            @Override
+            Object coerce(Object value) {
+                if (value instanceof String) {
+                    try {
+                        value = Long.parseLong((String) value);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                if (value instanceof Number) {
+                    value = new Date(((Number) value).longValue());
+                }
+                return value;
+            }
+        },
+
+        INTEGER {
+            @Override
+            Object coerce(Object value) {
+                if (value instanceof String) {
+                    return Integer.valueOf((String) value);
+                } else if (value instanceof Number && !(value instanceof Integer)) {
+                    return ((Number) value).intValue();
+                }
+                return value;
+            }
+        },
+
+        LONG {
+            @Override
+            Object coerce(Object value) {
+                if (value instanceof String) {
+                    return Long.valueOf((String) value);
+                } else if (value instanceof Number && !(value instanceof Long)) {
+                    return ((Number) value).longValue();
+                }
+                return value;
+            }
+        };
+
+        abstract Object coerce(Object value);
+
+        private static Coercer forType(Class<?> type) {
+            if (type == null) {
+                return NONE;
+            }
+            if (Date.class.isAssignableFrom(type)) {
+                return DATE;
+            }
+            if (type == Integer.class) {
+                return INTEGER;
+            }
+            if (type == Long.class) {
+                return LONG;
+            }
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.softmotions.weboot.cayenne;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.cayenne.Cayenne;
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.graph.GraphChangeHandler;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.tx.BaseTransaction;
+import org.apache.cayenne.tx.Transaction;
+import org.apache.cayenne.tx.TransactionListener;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.softmotions.commons.ServicesConfiguration;
+
+/**
+ * In-memory snapshots of reference entities (dictionaries, categories etc.)
+ * shared by all threads.
+ * <p/>
+ * All instances of the configured entity types are fetched
+ * on application start and served by primary key or by unique key property without SQL.
+ * Snapshot of entity type is replaced as a whole by the fresh one
+ * when changes of objects of this type (or its subclasses) are committed,
+ * objects of the replaced snapshot are never modified.
+ * Changes are tracked by the data domain filter so commits of any object context
+ * are taken into account. Changes made within transaction
+ * started by {@link TransactionalInterceptor} are applied after the transaction commit,
+ * changes committed without transaction are applied immediately.
+ * Snapshots changed within other transactions are marked as stale
+ * once the commit is completed and refreshed on next access.
+ * Snapshots not loaded yet by {@link #load()} are fetched on first access.
+ * <p/>
+ * Cached objects belong to the private object context. They must not be modified,
+ * use {@link #localObject(ObjectContext, Class, Object)} to get
+ * the instance registered in the given object context.
+ * <p/>
+ * Configuration:
+ * <pre>
+ *     &lt;cayenne&gt;
+ *         ...
+ *         &lt;shared-cache&gt;
+ *             &lt;entity&gt;
+ *                 &lt;class&gt;com.example.model.Category&lt;/class&gt;
+ *                 &lt;!-- Optional unique key property --&gt;
+ *                 &lt;key&gt;code&lt;/key&gt;
+ *             &lt;/entity&gt;
+ *         &lt;/shared-cache&gt;
+ *     &lt;/cayenne&gt;
+ * </pre>
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@Singleton
+public class SharedEntityCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedEntityCache.class);
+
+    private final Provider<ServerRuntime> runtimeProvider;
+
+    private final Map<Class<?>, EntityCache> caches;
+
+    /**
+     * Changed cached types of transactions started by {@link TransactionalInterceptor}.
+     */
+    private final Map<Transaction, Set<Class<?>>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Cached types affected by changes of entity.
+     */
+    private final Map<String, Set<Class<?>>> entityTypes = new ConcurrentHashMap<>();
+
+    private final ClassLoader classLoader;
+
+    private volatile boolean filterInstalled;
+
+    @Inject
+    public SharedEntityCache(ServicesConfiguration cfg, Provider<ServerRuntime> runtimeProvider) {
+        this.runtimeProvider = runtimeProvider;
+        ClassLoader cl = ObjectUtils.firstNonNull(
+                Thread.currentThread().getContextClassLoader(),
+                getClass().getClassLoader());
+        this.classLoader = cl;
+        Map<Class<?>, EntityCache> cmap = new LinkedHashMap<>();
+        for (HierarchicalConfiguration<ImmutableNode> ecfg : cfg.xcfg().configurationsAt("cayenne.shared-cache.entity")) {
+            String className = ecfg.getString("class");
+            if (StringUtils.isBlank(className)) {
+                continue;
+            }
+            Class<?> type;
+            try {
+                type = cl.loadClass(className.trim());
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("Shared cache entity class not found: " + className, e);
+            }
+            if (!Persistent.class.isAssignableFrom(type)) {
+                throw new RuntimeException("Shared cache entity class: " + className + " is not Cayenne persistent");
+            }
+            cmap.put(type, new EntityCache(type, StringUtils.trimToNull(ecfg.getString("key"))));
+        }
+        this.caches = Collections.unmodifiableMap(cmap);
+    }
+
+    /**
+     * Returns true if no entity types are cached.
+     */
+    public boolean isEmpty() {
+        return caches.isEmpty();
+    }
+
+    public boolean isCached(Class<?> type) {
+        return caches.containsKey(type);
+    }
+
+    /**
+     * Fetch snapshots of all configured entity types not loaded yet.
+     */
+    public void load() {
+        if (caches.isEmpty()) {
+            return;
+        }
+        ServerRuntime runtime = runtimeProvider.get();
+        installFilter(runtime);
+        for (EntityCache ec : caches.values()) {
+            ec.refreshIfStale(runtime);
+        }
+    }
+
+    /**
+     * Changes are tracked before the first snapshot is fetched.
+     */
+    private void installFilter(ServerRuntime runtime) {
+        if (filterInstalled) {
+            return;
+        }
+        synchronized (this) {
+            if (!filterInstalled) {
+                runtime.getDataDomain().addFilter(new ChangesFilter());
+                filterInstalled = true;
+            }
+        }
+    }
+
+    /**
+     * Replace snapshots of the given entity types by fresh ones.
+     * Types not configured for caching are ignored.
+     */
+    public void refresh(Collection<Class<?>> types) {
+        ServerRuntime runtime = runtimeProvider.get();
+        for (Class<?> type : types) {
+            EntityCache ec = caches.get(type);
+            if (ec != null) {
+                ec.refresh(runtime);
+            }
+        }
+    }
+
+    /**
+     * Start tracking of changes committed within the given transaction.
+     * Tracked changes are applied by {@link #afterCompletion(Transaction, boolean)}.
+     */
+    void beginTracking(Transaction tx) {
+        if (!caches.isEmpty()) {
+            pending.put(tx, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Refresh snapshots changed within the given transaction if it is committed.
+     */
+    void afterCompletion(Transaction tx, boolean committed) {
+        Set<Class<?>> types = pending.remove(tx);
+        if (committed && types != null && !types.isEmpty()) {
+            refreshCommitted(types);
+        }
+    }
+
+    /**
+     * Refresh snapshots of the committed types.
+     * Data is already committed so refresh failure is not propagated,
+     * snapshots are marked as stale to be refreshed on next access.
+     */
+    private void refreshCommitted(Set<Class<?>> types) {
+        try {
+            refresh(types);
+        } catch (Exception e) {
+            log.error("Failed to refresh shared cache of: {}", types, e);
+            for (Class<?> type : types) {
+                caches.get(type).markStale();
+            }
+        }
+    }
+
+    /**
+     * Cached types affected by the committed changes.
+     */
+    private Set<Class<?>> changedTypes(GraphDiff changes) {
+        EntityResolver resolver = runtimeProvider.get().getDataDomain().getEntityResolver();
+        Set<Class<?>> types = new HashSet<>();
+        changes.apply(new GraphChangeHandler() {
+
+            private void changed(Object nodeId) {
+                if (nodeId instanceof ObjectId) {
+                    types.addAll(entityTypes.computeIfAbsent(((ObjectId) nodeId).getEntityName(),
+                                                             n -> cachedTypesOf(resolver, n)));
+                }
+            }
+
+            @Override
+            public void nodeIdChanged(Object nodeId, Object newId) {
+            }
+
+            @Override
+            public void nodeCreated(Object nodeId) {
+                changed(nodeId);
+            }
+
+            @Override
+            public void nodeRemoved(Object nodeId) {
+                changed(nodeId);
+            }
+
+            @Override
+            public void nodePropertyChanged(Object nodeId, String property, Object oldValue, Object newValue) {
+                changed(nodeId);
+            }
+
+            @Override
+            public void arcCreated(Object nodeId, Object targetNodeId, Object arcId) {
+                changed(nodeId);
+            }
+
+            @Override
+            public void arcDeleted(Object nodeId, Object targetNodeId, Object arcId) {
+                changed(nodeId);
+            }
+        });
+        return types;
+    }
+
+    private Set<Class<?>> cachedTypesOf(EntityResolver resolver, String entityName) {
+        ObjEntity entity = resolver.getObjEntity(entityName);
+        String className = (entity != null) ? entity.getJavaClassName() : null;
+        if (className == null) {
+            return Collections.emptySet();
+        }
+        Class<?> type;
+        try {
+            type = Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            // Instances of unknown class cannot be cached
+            return Collections.emptySet();
+        }
+        Set<Class<?>> types = new HashSet<>();
+        for (Class<?> ct : caches.keySet()) {
+            if (ct.isAssignableFrom(type)) {
+                types.add(ct);
+            }
+        }
+        return types.isEmpty() ? Collections.emptySet() : types;
+    }
+
+    private void committed(Set<Class<?>> types) {
+        Transaction tx = BaseTransaction.getThreadTransaction();
+        if (tx == null) {
+            refreshCommitted(types);
+            return;
+        }
+        Set<Class<?>> ptypes = pending.get(tx);
+        if (ptypes != null) {
+            ptypes.addAll(types);
+            return;
+        }
+        tx.addListener(new TransactionListener() {
+            @Override
+            public void willCommit(Transaction tx) {
+                // Snapshot refreshed before the commit lands would keep the old rows,
+                // so types are marked as stale only when the commit is completed
+                PendingCommit pc = new PendingCommit(tx.getConnections().values());
+                for (Class<?> type : types) {
+                    caches.get(type).committing.add(pc);
+                }
+            }
+
+            @Override
+            public void willRollback(Transaction tx) {
+            }
+
+            @Override
+            public void willAddConnection(Transaction tx, String connectionName, Connection connection) {
+            }
+        });
+    }
+
+    /**
+     * Cached object by primary key.
+     */
+    @Nullable
+    public <T> T get(Class<T> type, Object id) {
+        return type.cast(snapshot(entityCache(type)).byId.get(normalizeId(id)));
+    }
+
+    /**
+     * Cached object by value of the unique key property.
+     */
+    @Nullable
+    public <T> T getByKey(Class<T> type, Object key) {
+        EntityCache ec = entityCache(type);
+        if (ec.keyProperty == null) {
+            throw new IllegalArgumentException("No unique key property configured for: " + type.getName());
+        }
+        return type.cast(snapshot(ec).byKey.get(key));
+    }
+
+    /**
+     * All cached objects of the given type.
+     */
+    @Nonnull
+    public <T> List<T> getAll(Class<T> type) {
+        @SuppressWarnings("unchecked")
+        List<T> all = (List<T>) snapshot(entityCache(type)).all;
+        return all;
+    }
+
+    /**
+     * Instance of the cached object registered in the given object context.
+     * Object state is taken from Cayenne shared snapshots without SQL.
+     */
+    @Nullable
+    public <T extends Persistent> T localObject(ObjectContext octx, Class<T> type, Object id) {
+        T obj = get(type, id);
+        return (obj != null) ? octx.localObject(obj) : null;
+    }
+
+    /**
+     * Integral primary keys are looked up regardless of their boxed type.
+     */
+    private static Object normalizeId(Object id) {
+        if (id instanceof Integer || id instanceof Short || id instanceof Byte) {
+            return ((Number) id).longValue();
+        }
+        return id;
+    }
+
+    private Snapshot snapshot(EntityCache ec) {
+        if (!ec.committing.isEmpty()) {
+            for (Iterator<PendingCommit> it = ec.committing.iterator(); it.hasNext(); ) {
+                if (it.next().isCompleted()) {
+                    it.remove();
+                    ec.markStale();
+                }
+            }
+        }
+        if (ec.isStale()) {
+            ServerRuntime runtime = runtimeProvider.get();
+            installFilter(runtime);
+            ec.refreshIfStale(runtime);
+        }
+        return ec.snapshot;
+    }
+
+    private EntityCache entityCache(Class<?> type) {
+        EntityCache ec = caches.get(type);
+        if (ec == null) {
+            throw new IllegalArgumentException("Entity type: " + type.getName() + " is not cached");
+        }
+        return ec;
+    }
+
+    private static final class EntityCache {
+
+        private final Class<?> type;
+
+        private final String keyProperty;
+
+        /**
+         * Snapshot, {@code null} until loaded.
+         */
+        private volatile Snapshot snapshot;
+
+        /**
+         * Incremented every time the snapshot is marked as stale.
+         */
+        private final AtomicLong version = new AtomicLong();
+
+        /**
+         * Version of the current snapshot, the snapshot is stale if it differs from {@link #version}.
+         */
+        private volatile long loadedVersion = -1;
+
+        /**
+         * Commits of other transactions changing this type which may be still in progress.
+         */
+        private final Set<PendingCommit> committing = ConcurrentHashMap.newKeySet();
+
+        private EntityCache(Class<?> type, String keyProperty) {
+            this.type = type;
+            this.keyProperty = keyProperty;
+        }
+
+        private boolean isStale() {
+            return loadedVersion != version.get();
+        }
+
+        private void markStale() {
+            version.incrementAndGet();
+        }
+
+        /**
+         * Refresh snapshot once for all threads waiting for it.
+         */
+        private void refreshIfStale(ServerRuntime runtime) {
+            if (isStale()) {
+                synchronized (this) {
+                    if (isStale()) {
+                        refresh(runtime);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Snapshot stays stale if the fetch fails or it is marked as stale while fetched.
+         */
+        private synchronized void refresh(ServerRuntime runtime) {
+            long start = System.currentTimeMillis();
+            long v = version.get();
+            ObjectContext octx = runtime.newContext();
+            List<?> objects = ObjectSelect.query(type).select(octx);
+            Map<Object, Object> byId = new HashMap<>(objects.size() * 2);
+            Map<Object, Object> byKey = (keyProperty != null) ? new HashMap<>(objects.size() * 2) : Collections.emptyMap();
+            for (Object o : objects) {
+                byId.put(normalizeId(Cayenne.pkForObject((Persistent) o)), o);
+                if (keyProperty != null) {
+                    Object key = Cayenne.readNestedProperty(o, keyProperty);
+                    if (key != null && byKey.put(key, o) != null) {
+                        log.warn("Duplicated key: '{}'='{}' of shared cache entity: {}",
+                                 keyProperty, key, type.getName());
+                    }
+                }
+            }
+            snapshot = new Snapshot(Collections.unmodifiableList(new ArrayList<>(objects)), byId, byKey);
+            loadedVersion = v;
+            log.info("Shared cache of {} loaded: {} objects in {}ms",
+                     type.getName(), objects.size(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Collects cached types of changes committed by object contexts.
+     */
+    private final class ChangesFilter implements DataChannelFilter {
+
+        @Override
+        public void init(DataChannel channel) {
+        }
+
+        @Override
+        public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+            return filterChain.onQuery(originatingContext, query);
+        }
+
+        @Override
+        public GraphDiff onSync(ObjectContext originatingContext,
+                                GraphDiff changes,
+                                int syncType,
+                                DataChannelFilterChain filterChain) {
+            Set<Class<?>> types = null;
+            if (changes != null && !changes.isNoop()
+                && (syncType == DataChannel.FLUSH_CASCADE_SYNC || syncType == DataChannel.FLUSH_NOCASCADE_SYNC)) {
+                types = changedTypes(changes);
+            }
+            GraphDiff ret = filterChain.onSync(originatingContext, changes, syncType);
+            if (types != null && !types.isEmpty()) {
+                committed(types);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Commit of the transaction not started by {@link TransactionalInterceptor}.
+     * Cayenne transaction has no completion callback,
+     * commit is completed when all connections of the transaction are closed.
+     */
+    private static final class PendingCommit {
+
+        private final List<Connection> connections;
+
+        private PendingCommit(Collection<Connection> connections) {
+            this.connections = new ArrayList<>(connections);
+        }
+
+        private boolean isCompleted() {
+            for (Connection c : connections) {
+                try {
+                    if (!c.isClosed()) {
+                        return false;
+                    }
+                } catch (SQLException ignored) {
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final List<?> all;
+
+        private final Map<Object, Object> byId;
+
+        private final Map<Object, Object> byKey;
+
+        private Snapshot(List<?> all, Map<Object, Object> byId, Map<Object, Object> byKey) {
+            this.all = all;
+            this.byId = byId;
+            this.byKey = byKey;
+        }
+    }
+}
@@ -23,4 +23,17 @@ public @interface Transactional {
     boolean useCurrentObjectContext() default true;
 
     Class<? extends TransactionExceptionChecker> exceptionChecker() default DefaultTransactionExceptionChecker.class;
+
+    /**
+     * If method is called within transaction already in progress
+     * run it within JDBC savepoints instead of silently joining the outer transaction.
+     * Failure of such method rolls back changes made by this method only
+     * and the outer transaction can continue.
+     * <p/>
+     * Pending changes of the current thread ObjectContext
+     * are flushed before savepoints are set.
+     * Objects committed within the rolled back savepoint may hold stale state
+     * and should be refetched.
+     */
+    boolean savepoint() default false;
 }
@@ -1,12 +1,18 @@
 package com.softmotions.weboot.cayenne;
 
 import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.access.DataNode;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.log.JdbcEventLogger;
 import org.apache.cayenne.tx.BaseTransaction;
@@ -29,84 +35,87 @@ public final class TransactionalInterceptor implements MethodInterceptor {
     private static final Map<Class<? extends TransactionExceptionChecker>, TransactionExceptionChecker>
             EX_CHECKERS = new ConcurrentHashMap<>();
 
+    private final ConcurrentHashMap<Method, TxAttributes> txAttributes = new ConcurrentHashMap<>();
+
+    private ServerRuntime serverRuntime;
+
     private TransactionFactory txFactory;
 
     private JdbcEventLogger jdbcEventLogger;
 
+    private SharedEntityCache sharedCache;
+
     @Inject
     public void setServerRuntime(ServerRuntime serverRuntime) {
         log.info("Activating @Transactional interceptor {}", getClass().getName());
+        this.serverRuntime = serverRuntime;
         txFactory = serverRuntime.getInjector().getInstance(TransactionFactory.class);
         jdbcEventLogger = serverRuntime.getInjector().getInstance(JdbcEventLogger.class);
     }
 
+    @Inject
+    public void setSharedCache(SharedEntityCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable {
 
+        Method interceptedMethod = invocation.getMethod();
+        TxAttributes attrs = txAttributes.get(interceptedMethod);
+        if (attrs == null) {
+            attrs = txAttributes.computeIfAbsent(interceptedMethod, TxAttributes::new);
+        }
+
         // join existing tx if it is in progress... in such case do not try to
         // commit or roll it back
         Transaction currentTx = BaseTransaction.getThreadTransaction();
         if (currentTx != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("We are nested transaction, delegating invocation method: {}", invocation.getMethod().getName());
+            if (attrs.savepoint) {
+                return invokeWithinSavepoints(invocation, attrs, currentTx);
             }
+            log.debug("We are nested transaction, delegating invocation method: {}", interceptedMethod.getName());
             return invocation.proceed();
         }
 
+        final boolean debug = log.isDebugEnabled();
         Object ret;
-        Method interceptedMethod = invocation.getMethod();
-        Transactional transactional = ClassUtils.getAnnotation(interceptedMethod, Transactional.class);
-        if (transactional == null) {
-            transactional = interceptedMethod.getDeclaringClass().getAnnotation(Transactional.class);
-        }
-        if (log.isDebugEnabled()) {
-            log.debug("@Transactional annotation: {}", transactional);
-        }
 
         // start a new tx and manage it till the end
         Throwable thrown = null;
         Throwable thrown2 = null;
         Transaction tx = txFactory.createTransaction();
-        if (log.isDebugEnabled()) {
-            log.debug("Created tx: {}", tx);
+        if (debug) {
+            log.debug("Created tx: {} calling transactional method: {}", tx, interceptedMethod.getName());
         }
         BaseTransaction.bindThreadTransaction(tx);
+        sharedCache.beginTracking(tx);
         try {
-            if (log.isDebugEnabled()) {
-                log.debug("Calling transactional method: {}", invocation.getMethod().getName());
-            }
             ret = invocation.proceed();
         } catch (Throwable tr) {
-            if (log.isDebugEnabled()) {
-                log.debug("Got exception: {}", tr.toString());
-            }
             thrown = tr;
-            TransactionExceptionChecker checker = getExceptionChecker(transactional);
-            if (checker.needRollback(tr)) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Exception checker voted for rollback");
-                }
+            boolean rollback = attrs.exceptionChecker.needRollback(tr);
+            if (debug) {
+                log.debug("Got exception: {} exception checker voted for {}",
+                          tr.toString(), (rollback ? "rollback" : "commit"));
+            }
+            if (rollback) {
                 tx.setRollbackOnly();
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("Exception checker voted for commit");
-                }
             }
             throw tr;
         } finally {
             ObjectContext octx = null;
-            if (transactional.useCurrentObjectContext()) {
+            if (attrs.useCurrentObjectContext) {
                 octx = ObjectContextThreadHolder.getObjectContext();
                 ObjectContextThreadHolder.removeObjectContext();
             }
-            if (log.isDebugEnabled()) {
-                log.debug("Perform {}", (tx.isRollbackOnly() ? "rollback" : "commit"));
-            }
+            Transaction startedTx = tx;
+            boolean committed = false;
             tx = BaseTransaction.getThreadTransaction();
-            if (log.isDebugEnabled()) {
-                log.debug("finishing tx: {}", tx);
-            }
             if (tx != null) {
+                if (debug) {
+                    log.debug("Perform {} tx: {}", (tx.isRollbackOnly() ? "rollback" : "commit"), tx);
+                }
                 if (tx.isRollbackOnly()) {
                     try {
                         if (octx != null) {
@@ -116,15 +125,9 @@ public final class TransactionalInterceptor implements MethodInterceptor {
                         thrown2 = e;
                         jdbcEventLogger.logQueryError(e);
                     } finally {
-                        if (log.isDebugEnabled()) {
-                            log.debug("BaseTransaction.bindThreadTransaction(null)");
-                        }
                         BaseTransaction.bindThreadTransaction(null);
                     }
                     try {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Do tx.rollback() tx: {}", tx);
-                        }
                         tx.rollback();
                     } catch (Throwable e) {
                         thrown2 = e;
@@ -139,19 +142,14 @@ public final class TransactionalInterceptor implements MethodInterceptor {
                         thrown2 = e;
                         jdbcEventLogger.logQueryError(e);
                     } finally {
-                        if (log.isDebugEnabled()) {
-                            log.debug("BaseTransaction.bindThreadTransaction(null)");
-                        }
                         BaseTransaction.bindThreadTransaction(null);
                     }
                     try {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Do tx.commit() tx: {}", tx);
-                        }
                         if (tx.isRollbackOnly()) {
                             tx.rollback();
                         } else {
                             tx.commit();
+                            committed = true;
                         }
                     } catch (Throwable e) {
                         thrown2 = e;
@@ -159,8 +157,9 @@ public final class TransactionalInterceptor implements MethodInterceptor {
                     }
                 }
             }
+            sharedCache.afterCompletion(startedTx, committed);
             if (thrown == null && thrown2 != null) {
-                if (log.isDebugEnabled()) {
+                if (debug) {
                     log.debug("Throw exception occurred during commit or rollback: {}", thrown2.toString());
                 }
                 //noinspection ThrowFromFinallyBlock
@@ -170,15 +169,115 @@ public final class TransactionalInterceptor implements MethodInterceptor {
         return ret;
     }
 
-    private TransactionExceptionChecker getExceptionChecker(Transactional transactional) throws Exception {
-        TransactionExceptionChecker checker = EX_CHECKERS.get(transactional.exceptionChecker());
-        if (checker != null) {
-            return checker;
+    /**
+     * Call nested transactional method within savepoints
+     * set on every connection of the current transaction.
+     */
+    private Object invokeWithinSavepoints(MethodInvocation invocation,
+                                          TxAttributes attrs,
+                                          Transaction tx) throws Throwable {
+        ObjectContext octx = attrs.useCurrentObjectContext ? ObjectContextThreadHolder.getObjectContext() : null;
+        if (octx != null && octx.hasChanges()) {
+            // Flushed within the current transaction
+            octx.commitChanges();
+        }
+        // Connections opened later cannot be rolled back to the savepoint
+        // so open connections of all data nodes in advance
+        for (DataNode node : serverRuntime.getDataDomain().getDataNodes()) {
+            if (node.getDataSource() != null) {
+                node.getDataSource().getConnection();
+            }
+        }
+        List<Connection> connections = new ArrayList<>(tx.getConnections().values());
+        List<Savepoint> savepoints = new ArrayList<>(connections.size());
+        try {
+            for (Connection c : connections) {
+                savepoints.add(c.setSavepoint());
+            }
+        } catch (SQLException e) {
+            releaseSavepoints(connections, savepoints);
+            throw e;
+        }
+        log.debug("Set {} savepoint(s) for method: {}", savepoints.size(), invocation.getMethod().getName());
+
+        Object ret;
+        try {
+            ret = invocation.proceed();
+        } catch (Throwable tr) {
+            if (!attrs.exceptionChecker.needRollback(tr)) {
+                releaseSavepoints(connections, savepoints);
+                throw tr;
+            }
+            log.debug("Rollback to savepoint(s) for method: {}", invocation.getMethod().getName());
+            try {
+                if (octx != null) {
+                    octx.rollbackChanges();
+                }
+                for (int i = 0; i < savepoints.size(); ++i) {
+                    connections.get(i).rollback(savepoints.get(i));
+                }
+            } catch (Throwable e) {
+                jdbcEventLogger.logQueryError(e);
+                tx.setRollbackOnly();
+            }
+            if (tx.getConnections().size() != connections.size()) {
+                log.warn("Connections opened within savepoint of method: {} " +
+                         "cannot be rolled back partially. Transaction is marked as rollback only",
+                         invocation.getMethod());
+                tx.setRollbackOnly();
+            }
+            throw tr;
+        }
+        releaseSavepoints(connections, savepoints);
+        return ret;
+    }
+
+    private void releaseSavepoints(List<Connection> connections, List<Savepoint> savepoints) {
+        for (int i = 0; i < savepoints.size(); ++i) {
+            try {
+                connections.get(i).releaseSavepoint(savepoints.get(i));
+            } catch (SQLException | UnsupportedOperationException e) {
+                // Some drivers do not support explicit release,
+                // savepoints are released by the transaction end
+                log.debug("Failed to release savepoint: {}", e.toString());
+            }
         }
-        checker = transactional.exceptionChecker().getConstructor().newInstance();
-        EX_CHECKERS.put(transactional.exceptionChecker(), checker);
-        return checker;
     }
-}
 
+    private static TransactionExceptionChecker getExceptionChecker(Class<? extends TransactionExceptionChecker> type) {
+        return EX_CHECKERS.computeIfAbsent(type, t -> {
+            try {
+                return t.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to instantiate transaction exception checker: " + t, e);
+            }
+        });
+    }
+
+    /**
+     * Transaction attributes of the intercepted method
+     * resolved once from its {@link Transactional} annotation.
+     */
+    private static final class TxAttributes {
+
+        private final boolean useCurrentObjectContext;
 
+        private final boolean savepoint;
+
+        private final TransactionExceptionChecker exceptionChecker;
+
+        private TxAttributes(Method method) {
+            Transactional transactional = ClassUtils.getAnnotation(method, Transactional.class);
+            // The annotation may be present at the class level instead
+            if (transactional == null) {
+                transactional = method.getDeclaringClass().getAnnotation(Transactional.class);
+            }
+            if (transactional == null) {
+                throw new IllegalStateException("Missing @Transactional annotation for: " + method);
+            }
+            this.useCurrentObjectContext = transactional.useCurrentObjectContext();
+            this.savepoint = transactional.savepoint();
+            this.exceptionChecker = getExceptionChecker(transactional.exceptionChecker());
+        }
+    }
+}
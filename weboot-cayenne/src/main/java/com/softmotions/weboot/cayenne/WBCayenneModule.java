@@ -1,11 +1,17 @@
 package com.softmotions.weboot.cayenne;
 
+import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
 import javax.sql.DataSource;
 
@@ -32,6 +38,16 @@ import com.softmotions.commons.lifecycle.Start;
 
 /**
  * Apache cayenne module
+ * <p/>
+ * If {@code async-start} is set Cayenne runtime is built and its model is loaded
+ * in the background thread in parallel with other services and the datasource start,
+ * consumers of {@link ServerRuntime} block until it is started.
+ * <pre>
+ *     &lt;cayenne&gt;
+ *         &lt;config&gt;cayenne-project.xml&lt;/config&gt;
+ *         &lt;async-start&gt;true&lt;/async-start&gt;
+ *     &lt;/cayenne&gt;
+ * </pre>
  *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
@@ -76,6 +92,7 @@ public class WBCayenneModule extends AbstractModule {
         bind(CayenneWrapper.class).toInstance(new CayenneWrapper(cfg, cfgLocation, extraCayenneModules));
         bind(CayeneInitializer.class).asEagerSingleton();
         bind(ServerRuntime.class).toProvider(CayenneRuntimeProvider.class);
+        bind(SharedEntityCache.class);
 
         //@Transactional interceptor
         TransactionalInterceptor interceptor = new TransactionalInterceptor();
@@ -96,6 +113,11 @@ public class WBCayenneModule extends AbstractModule {
 
         private volatile ServerRuntime runtime;
 
+        /**
+         * Pending asynchronous start.
+         */
+        private volatile CompletableFuture<ServerRuntime> warmup;
+
 
         public CayenneWrapper(ServicesConfiguration cfg,
                               String cfgLocation,
@@ -105,18 +127,66 @@ public class WBCayenneModule extends AbstractModule {
             this.cfg = cfg;
         }
 
+        boolean isAsyncStart() {
+            return cfg.xcfg().getBoolean("cayenne.async-start", false);
+        }
+
         @Nonnull
-        ServerRuntime getRuntime(DataSource dataSource) throws Exception {
-            if (runtime == null) {
-                synchronized (CayenneWrapper.class) {
-                    if (runtime == null) {
-                        start(dataSource);
-                    }
+        ServerRuntime getRuntime(Provider<DataSource> dataSourceProvider) throws Exception {
+            ServerRuntime rt = runtime;
+            if (rt != null) {
+                return rt;
+            }
+            CompletableFuture<ServerRuntime> f = warmup;
+            if (f != null) {
+                try {
+                    return f.get();
+                } catch (ExecutionException e) {
+                    // Next call will try to start runtime again
+                    warmup = null;
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+            synchronized (this) {
+                if (runtime == null) {
+                    start(dataSourceProvider.get());
                 }
             }
             return runtime;
         }
 
+        /**
+         * Build runtime and load Cayenne model in the background thread.
+         * Datasource is resolved on the first database access, so model loading
+         * overlaps with the datasource start.
+         *
+         * @param onStart Action called in the background thread when runtime is started
+         */
+        synchronized void startAsync(Provider<DataSource> dataSourceProvider, Runnable onStart) {
+            if (runtime != null || warmup != null) {
+                return;
+            }
+            CompletableFuture<ServerRuntime> f = new CompletableFuture<>();
+            Thread t = new Thread(() -> {
+                try {
+                    synchronized (this) {
+                        if (runtime == null) {
+                            start(new ProviderDataSource(dataSourceProvider));
+                        }
+                    }
+                    onStart.run();
+                    f.complete(runtime);
+                } catch (Throwable e) {
+                    log.error("Failed to start cayenne runtime", e);
+                    f.completeExceptionally(e);
+                }
+            }, "cayenne-warmup");
+            t.setDaemon(true);
+            warmup = f;
+            t.start();
+        }
+
         void start(DataSource dataSource) throws Exception {
             log.info("WBCayenneModule starting cayenne runtime. Config: {}", cfgLocation);
 
@@ -162,25 +232,98 @@ public class WBCayenneModule extends AbstractModule {
                 }
             }
 
-            runtime = ServerRuntime.builder()
-                                   .addConfigs(cfgLocation)
-                                   .addModules(modules)
-                                   .addModules(extraCayenneModules)
-                                   .dataSource(dataSource)
-                                   .build();
-
-            log.info("WBCayenneModule cayenne runtime configured");
+            long start = System.currentTimeMillis();
+            ServerRuntime rt = ServerRuntime.builder()
+                                            .addConfigs(cfgLocation)
+                                            .addModules(modules)
+                                            .addModules(extraCayenneModules)
+                                            .dataSource(dataSource)
+                                            .build();
+            long built = System.currentTimeMillis();
+            // Load and parse the model
+            rt.getDataDomain();
+            runtime = rt;
+
+            log.info("WBCayenneModule cayenne runtime configured. Built in {}ms, model loaded in {}ms",
+                     built - start, System.currentTimeMillis() - built);
         }
 
         void shutdown() throws Exception {
-            if (runtime != null) {
-                synchronized (CayenneWrapper.class) {
+            CompletableFuture<ServerRuntime> f = warmup;
+            if (f != null) {
+                try {
+                    f.get();
+                } catch (ExecutionException ignored) {
+                }
+            }
+            synchronized (this) {
+                if (runtime != null) {
                     runtime.shutdown();
                 }
             }
         }
     }
 
+    /**
+     * Datasource resolved on each call from the given provider.
+     */
+    private static final class ProviderDataSource implements DataSource {
+
+        private final Provider<DataSource> provider;
+
+        private ProviderDataSource(Provider<DataSource> provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return provider.get().getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return provider.get().getConnection(username, password);
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            return provider.get().unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || provider.get().isWrapperFor(iface);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return provider.get().getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            provider.get().setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            provider.get().setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return provider.get().getLoginTimeout();
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return provider.get().getParentLogger();
+        }
+    }
+
     public static class CayenneRuntimeProvider implements Provider<ServerRuntime> {
 
         private final CayenneWrapper cayenneWrapper;
@@ -198,7 +341,7 @@ public class WBCayenneModule extends AbstractModule {
         public ServerRuntime get() {
             ServerRuntime runtime;
             try {
-                runtime = cayenneWrapper.getRuntime(dataSourceProvider.get());
+                runtime = cayenneWrapper.getRuntime(dataSourceProvider);
             } catch (Exception e) {
                 log.error("", e);
                 throw new ProvisionException("CayenneRuntime is not initialized", e);
@@ -212,18 +355,31 @@ public class WBCayenneModule extends AbstractModule {
 
         private final Provider<ServerRuntime> runtimeProvider;
 
+        private final Provider<DataSource> dataSourceProvider;
+
         private final CayenneWrapper cayenneWrapper;
 
+        private final SharedEntityCache sharedCache;
+
         @Inject
         public CayeneInitializer(Provider<ServerRuntime> runtimeProvider,
-                                 CayenneWrapper cayenneWrapper) {
+                                 Provider<DataSource> dataSourceProvider,
+                                 CayenneWrapper cayenneWrapper,
+                                 SharedEntityCache sharedCache) {
             this.runtimeProvider = runtimeProvider;
+            this.dataSourceProvider = dataSourceProvider;
             this.cayenneWrapper = cayenneWrapper;
+            this.sharedCache = sharedCache;
         }
 
         @Start(order = 15)
         public void start() throws Exception {
+            if (cayenneWrapper.isAsyncStart()) {
+                cayenneWrapper.startAsync(dataSourceProvider, sharedCache::load);
+                return;
+            }
             runtimeProvider.get();
+            sharedCache.load();
         }
 
         @Dispose(order = 15)
@@ -1,10 +1,13 @@
 package com.softmotions.weboot.cayenne;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.sql.Array;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Types;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.UUID;
@@ -14,7 +17,6 @@ import org.apache.cayenne.access.types.ExtendedType;
 import org.apache.cayenne.configuration.Constants;
 import org.apache.cayenne.di.Binder;
 import org.apache.cayenne.di.Module;
-import org.postgresql.util.PGobject;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -26,6 +28,11 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  */
 public class WBCayennePostgresModule implements Module {
 
+    /**
+     * Version of jsonb binary transfer format.
+     */
+    private static final byte JSONB_BINARY_VERSION = 1;
+
     private final ObjectMapper mapper;
 
     public WBCayennePostgresModule() {
@@ -42,6 +49,7 @@ public class WBCayennePostgresModule implements Module {
               .add(new JacksonJSONType(ObjectNode.class.getName()))
               .add(new JacksonJSONType(ArrayNode.class.getName()))
               .add(new JacksonJSONType(JsonNode.class.getName()))
+              .add(new LazyJSONType())
               .add(new UUIDType())
               .add(new StringArrayType());
     }
@@ -140,33 +148,30 @@ public class WBCayennePostgresModule implements Module {
             if (value == null) {
                 ps.setNull(pos, type);
             } else {
-                PGobject po = new PGobject();
-                po.setType("jsonb");
-                po.setValue(mapper.writeValueAsString(value));
-                ps.setObject(pos, po);
+                // Untyped parameter is casted by the server to the json/jsonb column type
+                ps.setObject(pos, mapper.writeValueAsString(value), Types.OTHER);
             }
         }
 
         @Nullable
         @Override
         public Object materializeObject(ResultSet rs, int index, int type) throws Exception {
-            String value = rs.getString(index);
-            if (value == null) {
-                return null;
-            } else {
-                return mapper.readTree(value);
-            }
+            return readJson(rs.getBytes(index));
         }
 
         @Nullable
         @Override
         public Object materializeObject(CallableStatement rs, int index, int type) throws Exception {
-            String value = rs.getString(index);
-            if (value == null) {
+            return readJson(rs.getBytes(index));
+        }
+
+        @Nullable
+        private JsonNode readJson(@Nullable byte[] data) throws IOException {
+            if (data == null) {
                 return null;
-            } else {
-                return mapper.readTree(value);
             }
+            int off = jsonOffset(data);
+            return mapper.readTree(new ByteArrayInputStream(data, off, data.length - off));
         }
 
         public boolean equals(Object o) {
@@ -188,5 +193,59 @@ public class WBCayennePostgresModule implements Module {
             return value.toString();
         }
     }
-}
 
+    /**
+     * Offset of JSON text in the raw column data. Column data transferred
+     * in jsonb binary format is prefixed by the format version byte.
+     */
+    static int jsonOffset(byte[] data) {
+        return (data.length > 0 && data[0] == JSONB_BINARY_VERSION) ? 1 : 0;
+    }
+
+    /**
+     * Type of {@link LazyJsonNode} attributes.
+     */
+    private class LazyJSONType implements ExtendedType<LazyJsonNode> {
+
+        @Override
+        public String getClassName() {
+            return LazyJsonNode.class.getName();
+        }
+
+        @Override
+        public void setJdbcObject(PreparedStatement ps,
+                                  LazyJsonNode value,
+                                  int pos,
+                                  int type,
+                                  int scale) throws Exception {
+            if (value == null) {
+                ps.setNull(pos, type);
+            } else {
+                String raw = value.rawText();
+                ps.setObject(pos, (raw != null) ? raw : mapper.writeValueAsString(value.get()), Types.OTHER);
+            }
+        }
+
+        @Nullable
+        @Override
+        public LazyJsonNode materializeObject(ResultSet rs, int index, int type) throws Exception {
+            byte[] data = rs.getBytes(index);
+            return (data != null) ? new LazyJsonNode(mapper, data, jsonOffset(data)) : null;
+        }
+
+        @Nullable
+        @Override
+        public LazyJsonNode materializeObject(CallableStatement rs, int index, int type) throws Exception {
+            byte[] data = rs.getBytes(index);
+            return (data != null) ? new LazyJsonNode(mapper, data, jsonOffset(data)) : null;
+        }
+
+        @Override
+        public String toString(LazyJsonNode value) {
+            if (value == null) {
+                return "NULL";
+            }
+            return value.toString();
+        }
+    }
+}
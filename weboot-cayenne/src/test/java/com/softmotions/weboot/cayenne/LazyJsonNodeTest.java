@@ -0,0 +1,53 @@
+package com.softmotions.weboot.cayenne;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class LazyJsonNodeTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testLazyParse() throws Exception {
+        byte[] data = "{\"a\":1,\"b\":[\"x\"]}".getBytes(StandardCharsets.UTF_8);
+        LazyJsonNode n = new LazyJsonNode(mapper, data, WBCayennePostgresModule.jsonOffset(data));
+        Assert.assertFalse(n.isMaterialized());
+        Assert.assertEquals(n.rawText(), "{\"a\":1,\"b\":[\"x\"]}");
+        Assert.assertFalse(n.isMaterialized());
+        JsonNode node = n.get();
+        Assert.assertTrue(n.isMaterialized());
+        Assert.assertSame(n.get(), node);
+        Assert.assertEquals(node.path("a").intValue(), 1);
+        Assert.assertEquals(node.path("b").get(0).textValue(), "x");
+        Assert.assertEquals(n, LazyJsonNode.of(mapper.readTree("{\"b\":[\"x\"],\"a\":1}")));
+    }
+
+    @Test
+    public void testBinaryJsonb() throws Exception {
+        byte[] text = "[1,2]".getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[text.length + 1];
+        data[0] = 1;
+        System.arraycopy(text, 0, data, 1, text.length);
+        Assert.assertEquals(WBCayennePostgresModule.jsonOffset(data), 1);
+        Assert.assertEquals(WBCayennePostgresModule.jsonOffset(text), 0);
+        LazyJsonNode n = new LazyJsonNode(mapper, data, WBCayennePostgresModule.jsonOffset(data));
+        Assert.assertEquals(n.rawText(), "[1,2]");
+        Assert.assertEquals(n.get().size(), 2);
+    }
+
+    @Test
+    public void testOf() {
+        LazyJsonNode n = LazyJsonNode.of(mapper.createObjectNode().put("k", "v"));
+        Assert.assertTrue(n.isMaterialized());
+        Assert.assertNull(n.rawText());
+        Assert.assertEquals(n.get().path("k").textValue(), "v");
+    }
+}
@@ -0,0 +1,70 @@
+package com.softmotions.weboot.cayenne;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.cayenne.ObjectContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class ObjectContextThreadHolderTest {
+
+    private static ObjectContext newContext() {
+        return (ObjectContext) Proxy.newProxyInstance(ObjectContext.class.getClassLoader(),
+                                                      new Class[]{ObjectContext.class},
+                                                      (proxy, method, args) -> {
+                                                          if ("equals".equals(method.getName())) {
+                                                              return proxy == args[0];
+                                                          }
+                                                          if ("hashCode".equals(method.getName())) {
+                                                              return System.identityHashCode(proxy);
+                                                          }
+                                                          return null;
+                                                      });
+    }
+
+    @Test
+    public void testRunWith() throws Exception {
+        ObjectContext outer = newContext();
+        ObjectContext inner = newContext();
+        ObjectContextThreadHolder.setObjectContext(outer);
+        try {
+            ObjectContextThreadHolder.runWith(inner, () ->
+                    Assert.assertSame(ObjectContextThreadHolder.getObjectContext(), inner));
+            Assert.assertSame(ObjectContextThreadHolder.getObjectContext(), outer);
+            Assert.assertNull(ObjectContextThreadHolder.callWith(null, ObjectContextThreadHolder::getObjectContext));
+            Assert.assertSame(ObjectContextThreadHolder.getObjectContext(), outer);
+        } finally {
+            ObjectContextThreadHolder.removeObjectContext();
+        }
+    }
+
+    @Test
+    public void testPropagation() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        ExecutorService executor = ObjectContextThreadHolder.propagating(pool);
+        ObjectContext ctx = newContext();
+        try {
+            ObjectContextThreadHolder.setObjectContext(ctx);
+            AtomicReference<ObjectContext> spawned = new AtomicReference<>(ctx);
+            Thread t = new Thread(() -> spawned.set(ObjectContextThreadHolder.getObjectContext()));
+            t.start();
+            t.join();
+            Assert.assertNull(spawned.get());
+
+            Assert.assertSame(executor.submit(ObjectContextThreadHolder::getObjectContext).get(), ctx);
+            ObjectContextThreadHolder.removeObjectContext();
+            // Pooled thread does not retain context of the previous task
+            Assert.assertNull(pool.submit(ObjectContextThreadHolder::getObjectContext).get());
+            Assert.assertNull(executor.submit(ObjectContextThreadHolder::getObjectContext).get());
+        } finally {
+            ObjectContextThreadHolder.removeObjectContext();
+            pool.shutdown();
+        }
+    }
+}
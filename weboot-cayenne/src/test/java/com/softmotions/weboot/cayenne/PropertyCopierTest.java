@@ -0,0 +1,219 @@
+package com.softmotions.weboot.cayenne;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class PropertyCopierTest {
+
+    @Test
+    public void testMergeMap() throws Exception {
+        TestEntity e = new TestEntity();
+        e.setName("old");
+        Map<String, Object> src = new HashMap<>();
+        src.put("name", null);
+        src.put("count", "12");
+        src.put("size", 5);
+        src.put("created", "1000");
+        src.put("parent", new TestEntity());
+        src.put("children", Collections.singletonList(new TestEntity()));
+        src.put("unknown", "x");
+        e.mergeNotNullPlain(src);
+        Assert.assertEquals(e.getName(), "old");
+        Assert.assertEquals(e.getCount(), Integer.valueOf(12));
+        Assert.assertEquals(e.getSize(), Long.valueOf(5));
+        Assert.assertEquals(e.getCreated(), new Date(1000));
+        Assert.assertNull(e.getParent());
+        Assert.assertNull(e.getChildren());
+    }
+
+    @Test
+    public void testMergeBean() throws Exception {
+        TestBean b = new TestBean();
+        b.setName("bean");
+        b.setCount(3L);
+        TestEntity e = new TestEntity();
+        e.setSize(7L);
+        e.mergeAllPlain(b);
+        Assert.assertEquals(e.getName(), "bean");
+        Assert.assertEquals(e.getCount(), Integer.valueOf(3));
+        Assert.assertEquals(e.getSize(), Long.valueOf(7));
+    }
+
+    @Test
+    public void testMergeJson() throws Exception {
+        ObjectNode n = (ObjectNode) new ObjectMapper().readTree(
+                "{\"name\":\"json\",\"count\":\"4\",\"size\":9,\"created\":2000," +
+                "\"rank\":3,\"ratio\":0.5,\"active\":true,\"children\":[{\"a\":1}]," +
+                "\"unknown\":{\"x\":1},\"parent\":null}");
+        TestEntity e = new TestEntity();
+        e.mergeNotNullPlain(n);
+        Assert.assertEquals(e.getName(), "json");
+        Assert.assertEquals(e.getCount(), Integer.valueOf(4));
+        Assert.assertEquals(e.getSize(), Long.valueOf(9));
+        Assert.assertEquals(e.getCreated(), new Date(2000));
+        Assert.assertEquals(e.getRank(), 3);
+        Assert.assertEquals(e.getRatio(), 0.5);
+        Assert.assertTrue(e.isActive());
+        Assert.assertEquals(e.getChildren(), Collections.singletonList(Collections.singletonMap("a", 1)));
+        Assert.assertNull(e.getParent());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTypeMismatch() throws Exception {
+        new TestEntity().mergeNotNullPlain(Collections.singletonMap("name", 1));
+    }
+
+    @Test
+    public void testPrimitiveNumberOutOfRange() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        for (String json : new String[]{"{\"rank\":3.7}", "{\"rank\":1099511627776}", "{\"rank\":1e3}"}) {
+            TestEntity e = new TestEntity();
+            try {
+                e.mergeNotNullPlain((ObjectNode) mapper.readTree(json));
+                Assert.fail("Value must be rejected: " + json);
+            } catch (IllegalArgumentException expected) {
+            }
+            Assert.assertEquals(e.getRank(), 0);
+        }
+        TestEntity e = new TestEntity();
+        e.mergeNotNullPlain((ObjectNode) mapper.readTree("{\"rank\":-2147483648}"));
+        Assert.assertEquals(e.getRank(), Integer.MIN_VALUE);
+    }
+
+    public static class TestBean {
+
+        private String name;
+
+        private Long count;
+
+        private Long size;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Long getCount() {
+            return count;
+        }
+
+        public void setCount(Long count) {
+            this.count = count;
+        }
+
+        public Long getSize() {
+            return size;
+        }
+
+        public void setSize(Long size) {
+            this.size = size;
+        }
+    }
+
+    public static class TestEntity extends DataObject {
+
+        private String name;
+
+        private Integer count;
+
+        private Long size;
+
+        private Date created;
+
+        private TestEntity parent;
+
+        private Object children;
+
+        private int rank;
+
+        private double ratio;
+
+        private boolean active;
+
+        public int getRank() {
+            return rank;
+        }
+
+        public void setRank(int rank) {
+            this.rank = rank;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+
+        public void setRatio(double ratio) {
+            this.ratio = ratio;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+
+        public Long getSize() {
+            return size;
+        }
+
+        public void setSize(Long size) {
+            this.size = size;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public void setCreated(Date created) {
+            this.created = created;
+        }
+
+        public TestEntity getParent() {
+            return parent;
+        }
+
+        public void setParent(TestEntity parent) {
+            this.parent = parent;
+        }
+
+        public Object getChildren() {
+            return children;
+        }
+
+        public void setChildren(Object children) {
+            this.children = children;
+        }
+    }
+}
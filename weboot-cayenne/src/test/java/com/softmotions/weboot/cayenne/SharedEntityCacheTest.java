@@ -0,0 +1,318 @@
+package com.softmotions.weboot.cayenne;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.access.DataDomain;
+import org.apache.cayenne.configuration.ObjectContextFactory;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.graph.GraphChangeHandler;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.tx.BaseTransaction;
+import org.apache.cayenne.tx.Transaction;
+import org.apache.cayenne.tx.TransactionListener;
+import org.apache.commons.configuration2.BaseHierarchicalConfiguration;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.softmotions.commons.ServicesConfiguration;
+
+/**
+ * Snapshot loading and staleness tracking of {@link SharedEntityCache}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class SharedEntityCacheTest {
+
+    /**
+     * Rows returned by the next select.
+     */
+    private volatile List<Item> rows;
+
+    private final AtomicInteger selects = new AtomicInteger();
+
+    private volatile boolean failSelect;
+
+    private volatile CountDownLatch selectEntered;
+
+    private volatile CountDownLatch selectRelease;
+
+    private DataChannelFilter filter;
+
+    private ServerRuntime runtime;
+
+    private SharedEntityCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        rows = Arrays.asList(new Item(1L), new Item(2L));
+        selects.set(0);
+        failSelect = false;
+        selectEntered = null;
+        selectRelease = null;
+        filter = null;
+
+        DataMap map = new DataMap("test");
+        ObjEntity entity = new ObjEntity("Item");
+        entity.setClassName(Item.class.getName());
+        map.addObjEntity(entity);
+        EntityResolver resolver = new EntityResolver(Collections.singletonList(map));
+        DataDomain domain = new DataDomain("test") {
+            @Override
+            public EntityResolver getEntityResolver() {
+                return resolver;
+            }
+
+            @Override
+            public void addFilter(DataChannelFilter f) {
+                filter = f;
+            }
+        };
+        ObjectContextFactory contextFactory = (ObjectContextFactory) Proxy.newProxyInstance(
+                ObjectContextFactory.class.getClassLoader(), new Class[]{ObjectContextFactory.class},
+                (p, m, args) -> "createContext".equals(m.getName()) ? newContext() : defaultValue(m.getReturnType()));
+        runtime = ServerRuntime.builder()
+                               .addModule(binder -> {
+                                   binder.bind(DataDomain.class).toInstance(domain);
+                                   binder.bind(ObjectContextFactory.class).toInstance(contextFactory);
+                               })
+                               .build();
+
+        BaseHierarchicalConfiguration xcfg = new BaseHierarchicalConfiguration();
+        xcfg.addProperty("cayenne.shared-cache.entity.class", Item.class.getName());
+        ServicesConfiguration cfg = new ServicesConfiguration() {
+            @Override
+            public HierarchicalConfiguration<ImmutableNode> xcfg() {
+                return xcfg;
+            }
+        };
+        cache = new SharedEntityCache(cfg, () -> runtime);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        BaseTransaction.bindThreadTransaction(null);
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testLoadedOnFirstAccess() throws Exception {
+        // Lookup before load() fetches the snapshot
+        Assert.assertEquals(cache.getAll(Item.class).size(), 2);
+        Assert.assertNotNull(filter);
+        Assert.assertEquals(cache.get(Item.class, 1).getObjectId(), rows.get(0).getObjectId());
+        Assert.assertNull(cache.get(Item.class, 3L));
+        cache.load();
+        Assert.assertEquals(selects.get(), 1);
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() throws Exception {
+        failSelect = true;
+        try {
+            cache.getAll(Item.class);
+            Assert.fail();
+        } catch (CayenneRuntimeException expected) {
+        }
+        Assert.assertEquals(cache.getAll(Item.class).size(), 2);
+        Assert.assertEquals(selects.get(), 2);
+    }
+
+    @Test
+    public void testChangesWithoutTransaction() throws Exception {
+        cache.load();
+        rows = Collections.singletonList(new Item(3L));
+        sync();
+        Assert.assertEquals(selects.get(), 2);
+        Assert.assertNotNull(cache.get(Item.class, 3));
+    }
+
+    @Test
+    public void testTrackedTransaction() throws Exception {
+        cache.load();
+        rows = Collections.singletonList(new Item(3L));
+        StubTransaction tx = new StubTransaction();
+        BaseTransaction.bindThreadTransaction(tx.proxy);
+
+        cache.beginTracking(tx.proxy);
+        sync();
+        Assert.assertEquals(cache.getAll(Item.class).size(), 2);
+        cache.afterCompletion(tx.proxy, false);
+        Assert.assertEquals(cache.getAll(Item.class).size(), 2);
+        Assert.assertEquals(selects.get(), 1);
+
+        cache.beginTracking(tx.proxy);
+        sync();
+        cache.afterCompletion(tx.proxy, true);
+        Assert.assertEquals(selects.get(), 2);
+        Assert.assertEquals(cache.getAll(Item.class).size(), 1);
+        Assert.assertTrue(tx.listeners.isEmpty());
+    }
+
+    @Test
+    public void testCommitOfOtherTransaction() throws Exception {
+        cache.load();
+        rows = Collections.singletonList(new Item(3L));
+        StubTransaction tx = new StubTransaction();
+        BaseTransaction.bindThreadTransaction(tx.proxy);
+        sync();
+        BaseTransaction.bindThreadTransaction(null);
+        Assert.assertEquals(tx.listeners.size(), 1);
+        tx.listeners.get(0).willCommit(tx.proxy);
+
+        // Commit is in progress while the connection is open
+        Assert.assertEquals(cache.getAll(Item.class).size(), 2);
+        Assert.assertEquals(selects.get(), 1);
+        tx.closed = true;
+        Assert.assertEquals(cache.getAll(Item.class).size(), 1);
+        Assert.assertEquals(cache.getAll(Item.class).size(), 1);
+        Assert.assertEquals(selects.get(), 2);
+    }
+
+    @Test
+    public void testStaleSnapshotRefreshedOnce() throws Exception {
+        cache.load();
+        rows = Collections.singletonList(new Item(3L));
+        // Committed data is not reverted by the refresh failure, snapshot is marked as stale
+        failSelect = true;
+        sync();
+        Assert.assertEquals(selects.get(), 2);
+
+        selectEntered = new CountDownLatch(1);
+        selectRelease = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Item>>> results = new ArrayList<>();
+            results.add(pool.submit(() -> cache.getAll(Item.class)));
+            Assert.assertTrue(selectEntered.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; ++i) {
+                results.add(pool.submit(() -> cache.getAll(Item.class)));
+            }
+            Thread.sleep(50);
+            selectRelease.countDown();
+            for (Future<List<Item>> f : results) {
+                Assert.assertEquals(f.get(10, TimeUnit.SECONDS).size(), 1);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(selects.get(), 3);
+    }
+
+    /**
+     * Sync changes of the {@code Item} through the cache filter.
+     */
+    private void sync() {
+        GraphDiff changes = (GraphDiff) Proxy.newProxyInstance(
+                GraphDiff.class.getClassLoader(), new Class[]{GraphDiff.class}, (p, m, args) -> {
+                    if ("apply".equals(m.getName())) {
+                        ((GraphChangeHandler) args[0]).nodePropertyChanged(
+                                new ObjectId("Item", "id", 1L), "name", null, "changed");
+                    }
+                    return defaultValue(m.getReturnType());
+                });
+        DataChannelFilterChain chain = (DataChannelFilterChain) Proxy.newProxyInstance(
+                DataChannelFilterChain.class.getClassLoader(), new Class[]{DataChannelFilterChain.class},
+                (p, m, args) -> defaultValue(m.getReturnType()));
+        filter.onSync(null, changes, DataChannel.FLUSH_CASCADE_SYNC, chain);
+    }
+
+    private ObjectContext newContext() {
+        return (ObjectContext) Proxy.newProxyInstance(
+                ObjectContext.class.getClassLoader(), new Class[]{ObjectContext.class}, (p, m, args) -> {
+                    if ("select".equals(m.getName()) || "performQuery".equals(m.getName())) {
+                        selects.incrementAndGet();
+                        if (failSelect) {
+                            failSelect = false;
+                            throw new CayenneRuntimeException("Select failed");
+                        }
+                        CountDownLatch entered = selectEntered;
+                        if (entered != null) {
+                            entered.countDown();
+                            selectRelease.await(10, TimeUnit.SECONDS);
+                        }
+                        return new ArrayList<>(rows);
+                    }
+                    return defaultValue(m.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        return (type.isPrimitive() && type != void.class) ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    /**
+     * Transaction with the single connection closed when the transaction is completed.
+     */
+    private static final class StubTransaction {
+
+        private final List<TransactionListener> listeners = new ArrayList<>();
+
+        private volatile boolean closed;
+
+        private final Map<String, Connection> connections = new HashMap<>();
+
+        private final Transaction proxy = (Transaction) Proxy.newProxyInstance(
+                Transaction.class.getClassLoader(), new Class[]{Transaction.class}, (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "addListener":
+                            listeners.add((TransactionListener) args[0]);
+                            return null;
+                        case "getConnections":
+                            return connections;
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        case "equals":
+                            return p == args[0];
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+
+        private StubTransaction() {
+            connections.put("test", (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class[]{Connection.class}, (p, m, args) -> {
+                        if ("isClosed".equals(m.getName())) {
+                            return closed;
+                        }
+                        return defaultValue(m.getReturnType());
+                    }));
+        }
+    }
+
+    public static class Item extends DataObject {
+
+        public Item() {
+        }
+
+        private Item(long id) {
+            setObjectId(new ObjectId("Item", "id", id));
+        }
+    }
+}
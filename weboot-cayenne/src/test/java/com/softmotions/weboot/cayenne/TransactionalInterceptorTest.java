@@ -0,0 +1,267 @@
+package com.softmotions.weboot.cayenne;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import javax.sql.DataSource;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.cayenne.access.DataDomain;
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.dbsync.SkipSchemaUpdateStrategy;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.tx.BaseTransaction;
+import org.apache.cayenne.tx.Transaction;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Nested {@code @Transactional(savepoint = true)} calls.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class TransactionalInterceptorTest {
+
+    private static final List<String> COMMITTED = Arrays.asList("setSavepoint", "releaseSavepoint");
+
+    private static final List<String> ROLLED_BACK = Arrays.asList("setSavepoint", "rollback");
+
+    /**
+     * JDBC calls recorded per connection name.
+     */
+    private final Map<String, List<String>> calls = new HashMap<>();
+
+    private ServerRuntime runtime;
+
+    private TransactionalInterceptor interceptor;
+
+    private StubTransaction tx;
+
+    @BeforeMethod
+    public void setUp() {
+        calls.clear();
+        DataDomain domain = new DataDomain("test");
+        domain.addNode(newNode("a"));
+        domain.addNode(newNode("b"));
+        runtime = ServerRuntime.builder()
+                               .addModule(binder -> binder.bind(DataDomain.class).toInstance(domain))
+                               .build();
+        interceptor = new TransactionalInterceptor();
+        interceptor.setServerRuntime(runtime);
+        tx = new StubTransaction();
+        BaseTransaction.bindThreadTransaction(tx.proxy);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        BaseTransaction.bindThreadTransaction(null);
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testCommit() throws Throwable {
+        Assert.assertEquals(invoke("nested", () -> {
+            Assert.assertEquals(calls.get("a"), Collections.singletonList("setSavepoint"));
+            Assert.assertEquals(calls.get("b"), Collections.singletonList("setSavepoint"));
+            return "ok";
+        }), "ok");
+        Assert.assertEquals(calls.get("a"), COMMITTED);
+        Assert.assertEquals(calls.get("b"), COMMITTED);
+        Assert.assertFalse(tx.rollbackOnly);
+        Assert.assertSame(BaseTransaction.getThreadTransaction(), tx.proxy);
+    }
+
+    @Test
+    public void testPartialRollback() throws Throwable {
+        IllegalStateException failure = new IllegalStateException("nested failure");
+        try {
+            invoke("nested", () -> {
+                throw failure;
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertSame(e, failure);
+        }
+        Assert.assertEquals(calls.get("a"), ROLLED_BACK);
+        Assert.assertEquals(calls.get("b"), ROLLED_BACK);
+        // Outer transaction can continue
+        Assert.assertFalse(tx.rollbackOnly);
+        Assert.assertSame(BaseTransaction.getThreadTransaction(), tx.proxy);
+
+        Assert.assertEquals(invoke("nested", () -> "ok"), "ok");
+        Assert.assertEquals(calls.get("a"), Arrays.asList("setSavepoint", "rollback", "setSavepoint", "releaseSavepoint"));
+        Assert.assertFalse(tx.rollbackOnly);
+    }
+
+    @Test
+    public void testCheckerVotesForCommit() throws Throwable {
+        try {
+            invoke("nestedCommitOnFailure", () -> {
+                throw new IllegalArgumentException("ignored failure");
+            });
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(calls.get("a"), COMMITTED);
+        Assert.assertEquals(calls.get("b"), COMMITTED);
+        Assert.assertFalse(tx.rollbackOnly);
+    }
+
+    @Test
+    public void testConnectionOpenedWithinSavepoint() throws Throwable {
+        try {
+            invoke("nested", () -> {
+                tx.connections.put("c", newConnection("c"));
+                throw new IllegalStateException("nested failure");
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(calls.get("a"), ROLLED_BACK);
+        Assert.assertEquals(calls.get("b"), ROLLED_BACK);
+        // No savepoint for the connection opened by the nested call
+        Assert.assertEquals(calls.get("c"), Collections.emptyList());
+        Assert.assertTrue(tx.rollbackOnly);
+    }
+
+    private Object invoke(String method, Callable<Object> body) throws Throwable {
+        Method m = Service.class.getMethod(method);
+        MethodInvocation invocation = (MethodInvocation) Proxy.newProxyInstance(
+                MethodInvocation.class.getClassLoader(), new Class[]{MethodInvocation.class}, (p, im, args) -> {
+                    switch (im.getName()) {
+                        case "getMethod":
+                            return m;
+                        case "proceed":
+                            return body.call();
+                        default:
+                            return defaultValue(im.getReturnType());
+                    }
+                });
+        return interceptor.invoke(invocation);
+    }
+
+    private DataNode newNode(String name) {
+        DataSource ds = (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(), new Class[]{DataSource.class}, (p, m, args) -> {
+                    if ("getConnection".equals(m.getName())) {
+                        return newConnection(name);
+                    }
+                    return defaultValue(m.getReturnType());
+                });
+        DataNode node = new DataNode(name);
+        node.setSchemaUpdateStrategy(new SkipSchemaUpdateStrategy());
+        node.setDataSource(ds);
+        return node;
+    }
+
+    /**
+     * Connection recording savepoint calls made with its own savepoints.
+     */
+    private Connection newConnection(String name) {
+        List<String> log = new ArrayList<>();
+        calls.put(name, log);
+        List<Savepoint> savepoints = new ArrayList<>();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class[]{Connection.class}, (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "setSavepoint":
+                            log.add("setSavepoint");
+                            Savepoint sp = (Savepoint) Proxy.newProxyInstance(
+                                    Savepoint.class.getClassLoader(), new Class[]{Savepoint.class},
+                                    (sp1, sm, sargs) -> defaultValue(sm.getReturnType()));
+                            savepoints.add(sp);
+                            return sp;
+                        case "rollback":
+                        case "releaseSavepoint":
+                            Assert.assertNotNull(args, m.getName());
+                            Assert.assertTrue(savepoints.stream().anyMatch(s -> s == args[0]), "Foreign savepoint");
+                            log.add(m.getName());
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        case "equals":
+                            return p == args[0];
+                        case "toString":
+                            return "Connection " + name;
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        return (type.isPrimitive() && type != void.class) ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    /**
+     * Transaction holding connections of the data nodes by name.
+     */
+    private static final class StubTransaction {
+
+        private final Map<String, Connection> connections = new LinkedHashMap<>();
+
+        private boolean rollbackOnly;
+
+        private final Transaction proxy = (Transaction) Proxy.newProxyInstance(
+                Transaction.class.getClassLoader(), new Class[]{Transaction.class}, (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "getConnections":
+                            return connections;
+                        case "getConnection":
+                            return connections.get(args[0]);
+                        case "addConnection":
+                            connections.put((String) args[0], (Connection) args[1]);
+                            return defaultValue(m.getReturnType());
+                        case "getOrCreateConnection":
+                            Connection c = connections.get(args[0]);
+                            if (c == null) {
+                                c = ((DataSource) args[1]).getConnection();
+                                connections.put((String) args[0], c);
+                            }
+                            return c;
+                        case "setRollbackOnly":
+                            rollbackOnly = true;
+                            return null;
+                        case "isRollbackOnly":
+                            return rollbackOnly;
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        case "equals":
+                            return p == args[0];
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    public static class CommitChecker implements TransactionExceptionChecker {
+
+        @Override
+        public boolean needRollback(Throwable tr) {
+            return false;
+        }
+    }
+
+    public static class Service {
+
+        @Transactional(savepoint = true, useCurrentObjectContext = false)
+        public void nested() {
+        }
+
+        @Transactional(savepoint = true, useCurrentObjectContext = false, exceptionChecker = CommitChecker.class)
+        public void nestedCommitOnFailure() {
+        }
+    }
+}
@@ -4,8 +4,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -18,17 +26,64 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Binding;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import com.softmotions.commons.JVMResources;
 import com.softmotions.commons.ServicesConfiguration;
+import com.softmotions.commons.db.LeakDetectingDataSource;
 import com.softmotions.commons.lifecycle.Dispose;
 import com.softmotions.commons.lifecycle.Start;
 
 /**
+ * Hikari datasource module.
+ * <p/>
+ * Every {@code <datasource>} element configures its own connection pool
+ * bound as {@code @Named(name) DataSource}. Datasource without name
+ * (or named {@code default}) is also bound as unqualified {@link DataSource},
+ * the single configured datasource is always the default one.
+ * If several datasources are configured exactly one of them must be the default one.
+ * Pools are started in the configuration order and shut down in the reverse order.
+ * Pool sizing, validation and JMX registration are tuned per datasource
+ * by Hikari properties, the pool name defaults to the datasource name.
+ * <p/>
+ * If {@code leakDetection} is set connections held longer than {@code threshold}
+ * milliseconds are traced by {@link LeakDetectingDataSource},
+ * use {@code DataSource.unwrap(LeakDetectingDataSource.class)} to get the top offenders.
+ * <p/>
+ * If {@code asyncStart} is set datasource connection pool is started
+ * in the background thread in parallel with other services,
+ * consumers of {@link DataSource} block until it is started.
+ * <pre>
+ *     &lt;datasource&gt;
+ *         &lt;asyncStart&gt;true&lt;/asyncStart&gt;
+ *         &lt;properties&gt;
+ *             jdbcUrl=...
+ *             maximumPoolSize=20
+ *         &lt;/properties&gt;
+ *     &lt;/datasource&gt;
+ *     &lt;datasource&gt;
+ *         &lt;name&gt;reports&lt;/name&gt;
+ *         &lt;jndiName&gt;reports&lt;/jndiName&gt;
+ *         &lt;leakDetection&gt;
+ *             &lt;threshold&gt;60000&lt;/threshold&gt;
+ *             &lt;sampleRate&gt;10&lt;/sampleRate&gt;
+ *         &lt;/leakDetection&gt;
+ *         &lt;properties&gt;
+ *             jdbcUrl=...
+ *             maximumPoolSize=4
+ *             connectionTestQuery=SELECT 1
+ *             registerMbeans=true
+ *         &lt;/properties&gt;
+ *     &lt;/datasource&gt;
+ * </pre>
+ *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
 public class WBDatasourceModule extends AbstractModule {
@@ -44,11 +99,50 @@ public class WBDatasourceModule extends AbstractModule {
     @Override
     protected void configure() {
         HierarchicalConfiguration<ImmutableNode> xcfg = cfg.xcfg();
-        if (xcfg.configurationsAt("datasource").isEmpty()) {
+        List<HierarchicalConfiguration<ImmutableNode>> dsConfigs = xcfg.configurationsAt("datasource");
+        if (dsConfigs.isEmpty()) {
             log.warn("No WBDatasourceModule module configuration found. Skipping.");
             return;
         }
-        String propsStr = xcfg.getString("datasource.properties");
+        Set<String> names = new HashSet<>();
+        boolean hasDefault = false;
+        for (HierarchicalConfiguration<ImmutableNode> dcfg : dsConfigs) {
+            String name = StringUtils.trimToNull(dcfg.getString("name"));
+            if ("default".equals(name)) {
+                name = null;
+            }
+            if (name == null && dsConfigs.size() > 1) {
+                if (hasDefault) {
+                    throw new RuntimeException("Only one default <datasource> can be configured");
+                }
+                hasDefault = true;
+            }
+            if (name != null && !names.add(name)) {
+                throw new RuntimeException("Duplicated <datasource> name: " + name);
+            }
+            DatasourceWrapper wrapper = new DatasourceWrapper(name, dcfg, loadProperties(name, dcfg));
+            DataSourceProvider provider = new DataSourceProvider(wrapper);
+            if (name == null || dsConfigs.size() == 1) {
+                bind(DatasourceWrapper.class).toInstance(wrapper);
+                bind(DataSource.class).toProvider(provider);
+            }
+            bind(DatasourceWrapper.class)
+                    .annotatedWith(Names.named(name != null ? name : "default"))
+                    .toInstance(wrapper);
+            bind(DataSource.class)
+                    .annotatedWith(Names.named(name != null ? name : "default"))
+                    .toProvider(provider);
+        }
+        if (dsConfigs.size() > 1 && !hasDefault) {
+            throw new RuntimeException("One of multiple <datasource> elements must be the default one: " +
+                                       "without <name> or with <name>default</name>");
+        }
+        bind(DatasourceInitializer.class).asEagerSingleton();
+    }
+
+    private Properties loadProperties(String name, HierarchicalConfiguration<ImmutableNode> dcfg) {
+        String dsName = (name != null) ? name : "default";
+        String propsStr = dcfg.getString("properties");
         Properties dsProps = new Properties();
         if (!StringUtils.isBlank(propsStr)) {
             try {
@@ -59,7 +153,7 @@ public class WBDatasourceModule extends AbstractModule {
                 throw new RuntimeException(msg, e);
             }
         }
-        String propsFile = xcfg.getString("datasource.propertiesFile");
+        String propsFile = dcfg.getString("propertiesFile");
         if (!StringUtils.isBlank(propsFile)) {
             log.info("WBDatasourceModule loading the properties file: {}", propsFile);
             try (FileInputStream is = new FileInputStream(propsFile)) {
@@ -69,6 +163,10 @@ public class WBDatasourceModule extends AbstractModule {
                 throw new RuntimeException(e);
             }
         }
+        if (name != null && !dsProps.containsKey("poolName")) {
+            // Distinct pool names for thread names and JMX beans
+            dsProps.setProperty("poolName", name);
+        }
 
         Properties logProps = new Properties();
         logProps.putAll(dsProps);
@@ -77,80 +175,171 @@ public class WBDatasourceModule extends AbstractModule {
                 logProps.setProperty(k, "********");
             }
         }
-        log.info("WBDatasourceModule properties: {}", logProps);
-        bind(DatasourceWrapper.class).toInstance(new DatasourceWrapper(xcfg, dsProps));
-        bind(DataSource.class).toProvider(DataSourceProvider.class);
-        bind(DatasourceInitializer.class).asEagerSingleton();
+        log.info("WBDatasourceModule '{}' properties: {}", dsName, logProps);
+        return dsProps;
     }
 
     public static class DatasourceWrapper {
 
+        /**
+         * Datasource name or {@code null} for the default datasource.
+         */
+        @Nullable
+        final String name;
+
         final HierarchicalConfiguration<ImmutableNode> cfg;
 
         final Properties dsProps;
 
-        volatile HikariDataSource dataSource;
+        /**
+         * Datasource exposed to consumers: the pool
+         * or leak detector wrapping the pool.
+         */
+        volatile DataSource dataSource;
+
+        HikariDataSource pool;
+
+        /**
+         * Pending asynchronous start.
+         */
+        volatile CompletableFuture<DataSource> warmup;
 
-        DatasourceWrapper(HierarchicalConfiguration<ImmutableNode> cfg, Properties dsProps) {
+        DatasourceWrapper(@Nullable String name, HierarchicalConfiguration<ImmutableNode> cfg, Properties dsProps) {
+            this.name = name;
             this.dsProps = dsProps;
             this.cfg = cfg;
         }
 
+        boolean isAsyncStart() {
+            return cfg.getBoolean("asyncStart", false);
+        }
+
         @Nonnull
         DataSource getDataSource() throws Exception {
-            if (dataSource == null) {
-                synchronized (DatasourceWrapper.class) {
-                    if (dataSource == null) {
-                        start();
-                    }
+            DataSource ds = dataSource;
+            if (ds != null) {
+                return ds;
+            }
+            CompletableFuture<DataSource> f = warmup;
+            if (f != null) {
+                try {
+                    return f.get();
+                } catch (ExecutionException e) {
+                    // Next call will try to start datasource again
+                    warmup = null;
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+            synchronized (this) {
+                if (dataSource == null) {
+                    start();
                 }
             }
             return dataSource;
         }
 
+        /**
+         * Start datasource in the background thread.
+         * Callers of {@link #getDataSource()} block until it is started.
+         */
+        synchronized void startAsync() {
+            if (dataSource != null || warmup != null) {
+                return;
+            }
+            CompletableFuture<DataSource> f = new CompletableFuture<>();
+            Thread t = new Thread(() -> {
+                try {
+                    synchronized (this) {
+                        if (dataSource == null) {
+                            start();
+                        }
+                    }
+                    f.complete(dataSource);
+                } catch (Throwable e) {
+                    log.error("Failed to start datasource", e);
+                    f.completeExceptionally(e);
+                }
+            }, "datasource-warmup-" + (name != null ? name : "default"));
+            t.setDaemon(true);
+            warmup = f;
+            t.start();
+        }
+
         void start() throws Exception {
-            dataSource = new HikariDataSource(new HikariConfig(dsProps));
-            try (Connection conn = dataSource.getConnection()) {
-                if (conn.isValid(0)) {
-                    log.info("Database connection to: {} successfullly opened",
-                             dsProps.getProperty("jdbcUrl"));
-                } else {
-                    log.error("Failed to estabilish database connection to: {}",
-                              dsProps.getProperty("jdbcUrl"));
+            long start = System.currentTimeMillis();
+            HikariDataSource ds = new HikariDataSource(new HikariConfig(dsProps));
+            DataSource exposed = ds;
+            try {
+                try (Connection conn = ds.getConnection()) {
+                    if (conn.isValid(0)) {
+                        log.info("Database connection to: {} successfullly opened in {}ms",
+                                 dsProps.getProperty("jdbcUrl"), System.currentTimeMillis() - start);
+                    } else {
+                        log.error("Failed to estabilish database connection to: {}",
+                                  dsProps.getProperty("jdbcUrl"));
+                    }
                 }
-            }
 
-            String jvmDsName = cfg.getString("datasource.jvmDsName");
-            String jndiName = cfg.getString("datasource.jndiName");
-            if (jndiName != null) {
-                InitialContext initCtx = new InitialContext();
-                Context comp = (Context) initCtx.lookup("java:comp");
-                Context jdbc, env;
-                try {
-                    env = (Context) comp.lookup("env");
-                } catch (NamingException ignored) {
-                    env = comp.createSubcontext("env");
+                if (!cfg.configurationsAt("leakDetection").isEmpty()) {
+                    exposed = new LeakDetectingDataSource(
+                            ds,
+                            cfg.getLong("leakDetection.threshold", LeakDetectingDataSource.DEFAULT_THRESHOLD_MS),
+                            cfg.getInt("leakDetection.sampleRate", LeakDetectingDataSource.DEFAULT_SAMPLE_RATE));
+                    log.info("Connection leak detection enabled for datasource: '{}'", (name != null ? name : "default"));
                 }
-                try {
-                    jdbc = (Context) env.lookup("jdbc");
-                } catch (NamingException ignored) {
-                    jdbc = env.createSubcontext("jdbc");
+
+                String jvmDsName = cfg.getString("jvmDsName");
+                String jndiName = cfg.getString("jndiName");
+                if (jndiName != null) {
+                    InitialContext initCtx = new InitialContext();
+                    Context comp = (Context) initCtx.lookup("java:comp");
+                    Context jdbc, env;
+                    try {
+                        env = (Context) comp.lookup("env");
+                    } catch (NamingException ignored) {
+                        env = comp.createSubcontext("env");
+                    }
+                    try {
+                        jdbc = (Context) env.lookup("jdbc");
+                    } catch (NamingException ignored) {
+                        jdbc = env.createSubcontext("jdbc");
+                    }
+                    jdbc.rebind(jndiName, exposed);
+                    log.info("Datasource JNDI name: java:comp/env/jdbc/{}", jndiName);
                 }
-                jdbc.rebind(jndiName, dataSource);
-                log.info("Datasource JNDI name: java:comp/env/jdbc/{}", jndiName);
-            }
-            if (jvmDsName != null) {
-                JVMResources.set(jvmDsName, dataSource);
-                log.info("Datasource registered in WBJVMDatasources as '{}'", jvmDsName);
+                if (jvmDsName != null) {
+                    JVMResources.set(jvmDsName, exposed);
+                    log.info("Datasource registered in WBJVMDatasources as '{}'", jvmDsName);
+                }
+            } catch (Exception | Error e) {
+                // Failed start is retried by the next getDataSource() call, do not leak the pool
+                if (exposed instanceof LeakDetectingDataSource) {
+                    ((LeakDetectingDataSource) exposed).close();
+                }
+                ds.close();
+                throw e;
             }
+            pool = ds;
+            dataSource = exposed;
+            log.info("Datasource '{}' started in {}ms",
+                     (name != null ? name : "default"), System.currentTimeMillis() - start);
         }
 
         void shutdown() throws Exception {
-            if (dataSource != null) {
-                synchronized (DatasourceWrapper.class) {
-                    if (dataSource != null) {
-                        dataSource.close();
-                    }
+            CompletableFuture<DataSource> f = warmup;
+            if (f != null) {
+                try {
+                    f.get();
+                } catch (ExecutionException ignored) {
+                }
+            }
+            synchronized (this) {
+                if (dataSource instanceof LeakDetectingDataSource) {
+                    ((LeakDetectingDataSource) dataSource).close();
+                }
+                if (pool != null) {
+                    pool.close();
                 }
             }
         }
@@ -160,7 +349,6 @@ public class WBDatasourceModule extends AbstractModule {
 
         final DatasourceWrapper datasourceWrapper;
 
-        @Inject
         DataSourceProvider(DatasourceWrapper datasourceWrapper) {
             this.datasourceWrapper = datasourceWrapper;
         }
@@ -180,28 +368,43 @@ public class WBDatasourceModule extends AbstractModule {
 
     public static class DatasourceInitializer {
 
-        final DatasourceWrapper datasourceWrapper;
+        final List<DatasourceWrapper> wrappers;
 
         @Inject
-        public DatasourceInitializer(DatasourceWrapper datasourceWrapper) {
-            this.datasourceWrapper = datasourceWrapper;
+        public DatasourceInitializer(Injector injector) {
+            // Bindings are listed in the configuration order,
+            // every wrapper is bound both named and unqualified for the default one
+            Set<DatasourceWrapper> wset = new LinkedHashSet<>();
+            for (Binding<DatasourceWrapper> b : injector.findBindingsByType(TypeLiteral.get(DatasourceWrapper.class))) {
+                wset.add(b.getProvider().get());
+            }
+            this.wrappers = new ArrayList<>(wset);
         }
 
         @Start(order = 5)
         public void start() {
-            try {
-                datasourceWrapper.getDataSource();
-            } catch (Exception e) {
-                log.error("", e);
+            for (DatasourceWrapper w : wrappers) {
+                if (w.isAsyncStart()) {
+                    w.startAsync();
+                    continue;
+                }
+                try {
+                    w.getDataSource();
+                } catch (Exception e) {
+                    log.error("", e);
+                }
             }
         }
 
         @Dispose(order = 5)
         public void shutdown() {
-            try {
-                datasourceWrapper.shutdown();
-            } catch (Exception e) {
-                log.error("", e);
+            for (int i = wrappers.size() - 1; i >= 0; --i) {
+                DatasourceWrapper w = wrappers.get(i);
+                try {
+                    w.shutdown();
+                } catch (Exception e) {
+                    log.error("", e);
+                }
             }
         }
     }
@@ -0,0 +1,401 @@
+package com.softmotions.weboot.liquibase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.precondition.core.PreconditionContainer;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Fingerprint of the changelog inputs used to skip
+ * Liquibase update when nothing is changed since the last update.
+ * <p/>
+ * Fingerprint covers configuration parameters, contents of all resources
+ * read by liquibase during the last update, listings of their directories
+ * and of directories listed by liquibase (to detect files added for {@code includeAll})
+ * and the state of the {@code DATABASECHANGELOG} table.
+ * Resources are recorded by {@link RecordingResourceAccessor}: they include every
+ * parsed changelog file (include-only ones too) and resources referenced by changes
+ * ({@code sqlFile}, {@code loadData}, {@code createProcedure} etc.),
+ * see {@link #readChangeResources(DatabaseChangeLog)}.
+ * Fingerprint, the list of resources and directory listings are stored in the marker file.
+ * <p/>
+ * Fingerprint cannot reflect changesets run on every update ({@code runAlways})
+ * and preconditions evaluated on every update (changelog preconditions and
+ * changeset preconditions with {@code CONTINUE} failure or error option).
+ * If the changelog contains any of them or resources referenced by its changes
+ * cannot be read the marker is flagged by {@link Marker#reevaluate}
+ * and the update is never skipped.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+final class ChangeLogFingerprint {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeLogFingerprint.class);
+
+    private static final String VERSION = "2";
+
+    private final Path markerFile;
+
+    private final String params;
+
+    /**
+     * @param params Configuration parameters affecting the update:
+     *               changelog location, contexts, changelog parameters, extra configs etc.
+     */
+    ChangeLogFingerprint(Path markerFile, String params) {
+        this.markerFile = markerFile;
+        this.params = params;
+    }
+
+    /**
+     * Marker of the last update or {@code null} if marker is absent or unreadable.
+     */
+    @Nullable
+    Marker readMarker() {
+        if (!Files.isRegularFile(markerFile)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(markerFile, StandardCharsets.UTF_8)) {
+            props.load(r);
+        } catch (IOException e) {
+            log.warn("Failed to read liquibase marker file: {}", markerFile, e);
+            return null;
+        }
+        if (!VERSION.equals(props.getProperty("version"))) {
+            return null;
+        }
+        String fingerprint = props.getProperty("fingerprint");
+        if (fingerprint == null) {
+            return null;
+        }
+        List<String> files = new ArrayList<>();
+        for (int i = 0; props.containsKey("file." + i); ++i) {
+            files.add(props.getProperty("file." + i));
+        }
+        List<String> listings = new ArrayList<>();
+        for (int i = 0; props.containsKey("listing." + i); ++i) {
+            listings.add(props.getProperty("listing." + i));
+        }
+        long updateTime = 0;
+        try {
+            updateTime = Long.parseLong(props.getProperty("update-time", "0"));
+        } catch (NumberFormatException ignored) {
+        }
+        boolean reevaluate = Boolean.parseBoolean(props.getProperty("reevaluate", "false"));
+        return new Marker(fingerprint, files, listings, updateTime, reevaluate);
+    }
+
+    void writeMarker(Marker marker) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("version", VERSION);
+        props.setProperty("fingerprint", marker.fingerprint);
+        props.setProperty("update-time", String.valueOf(marker.updateTime));
+        props.setProperty("reevaluate", String.valueOf(marker.reevaluate));
+        for (int i = 0; i < marker.files.size(); ++i) {
+            props.setProperty("file." + i, marker.files.get(i));
+        }
+        for (int i = 0; i < marker.listings.size(); ++i) {
+            props.setProperty("listing." + i, marker.listings.get(i));
+        }
+        Path dir = markerFile.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        Path tmp = markerFile.resolveSibling(markerFile.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(w, "Liquibase changelog fingerprint");
+        }
+        Files.move(tmp, markerFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Compute checksums of all changesets of the parsed changelog.
+     * It makes liquibase read resources referenced by changes
+     * ({@code sqlFile}, {@code loadData} CSV, {@code createProcedure} path etc.)
+     * through the resource accessor the changelog was parsed with
+     * so they are recorded by {@link RecordingResourceAccessor}.
+     *
+     * @return {@code false} if some resources cannot be read
+     */
+    static boolean readChangeResources(DatabaseChangeLog changeLog) {
+        boolean ok = true;
+        for (ChangeSet cs : changeLog.getChangeSets()) {
+            try {
+                cs.generateCheckSum();
+            } catch (Exception e) {
+                log.warn("Failed to compute checksum of changeset: {} {}", cs, e.toString());
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Returns true if the parsed changelog has changesets or preconditions
+     * to be evaluated on every update regardless of the fingerprint.
+     */
+    static boolean requiresReevaluation(DatabaseChangeLog changeLog) {
+        PreconditionContainer clp = changeLog.getPreconditions();
+        if (clp != null && !clp.getNestedPreconditions().isEmpty()) {
+            return true;
+        }
+        for (ChangeSet cs : changeLog.getChangeSets()) {
+            if (cs.isAlwaysRun()) {
+                return true;
+            }
+            PreconditionContainer pc = cs.getPreconditions();
+            if (pc != null && !pc.getNestedPreconditions().isEmpty()
+                && (pc.getOnFail() == PreconditionContainer.FailOption.CONTINUE
+                    || pc.getOnError() == PreconditionContainer.ErrorOption.CONTINUE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute fingerprint of the given resources, directory listings and the database state.
+     *
+     * @param listings Directory listings encoded by {@link RecordingResourceAccessor}
+     */
+    String compute(Collection<String> files,
+                   Collection<String> listings,
+                   ResourceAccessor resourceAccessor,
+                   Database database,
+                   Connection connection) throws IOException {
+        MessageDigest md = newDigest();
+        update(md, "version", VERSION);
+        update(md, "params", params);
+        Set<String> dirs = new TreeSet<>();
+        for (String file : files) {
+            update(md, "file", file);
+            digestResource(md, file, resourceAccessor);
+            int idx = file.lastIndexOf('/');
+            if (idx > 0) {
+                dirs.add(file.substring(0, idx));
+            }
+        }
+        for (String dir : dirs) {
+            update(md, "dir", dir);
+            Set<String> listing = null;
+            try {
+                listing = resourceAccessor.list(null, dir, true, false, false);
+            } catch (IOException e) {
+                log.debug("Failed to list directory: {}", dir, e);
+            }
+            if (listing != null) {
+                for (String name : new TreeSet<>(listing)) {
+                    update(md, "entry", name);
+                }
+            }
+        }
+        for (String spec : listings) {
+            update(md, "listing", spec);
+            String[] parts = spec.split("\n", -1);
+            if (parts.length != 3) {
+                update(md, "invalid", String.valueOf(System.nanoTime()));
+                continue;
+            }
+            Set<String> listing = null;
+            try {
+                listing = resourceAccessor.list(parts[0].isEmpty() ? null : parts[0],
+                                                parts[1], true, false, Boolean.parseBoolean(parts[2]));
+            } catch (IOException e) {
+                log.debug("Failed to list directory: {}", parts[1], e);
+            }
+            if (listing != null) {
+                for (String name : new TreeSet<>(listing)) {
+                    update(md, "entry", name);
+                }
+            }
+        }
+        update(md, "db", databaseState(database, connection));
+        return toHex(md.digest());
+    }
+
+    private static void digestResource(MessageDigest md, String path, ResourceAccessor resourceAccessor) throws IOException {
+        Set<InputStream> streams = resourceAccessor.getResourcesAsStream(path);
+        if (streams == null || streams.isEmpty()) {
+            update(md, "missing", path);
+            return;
+        }
+        try {
+            // The first resource is used by liquibase
+            InputStream is = streams.iterator().next();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            for (InputStream is : streams) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of applied changesets and the last execution order.
+     * Any failure results in the unique state so the fingerprint never matches.
+     */
+    static String databaseState(Database database, Connection connection) {
+        String table = database.escapeTableName(database.getLiquibaseCatalogName(),
+                                                database.getLiquibaseSchemaName(),
+                                                database.getDatabaseChangeLogTableName());
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MAX(ORDEREXECUTED) FROM " + table)) {
+            if (rs.next()) {
+                return rs.getLong(1) + ":" + rs.getLong(2);
+            }
+        } catch (Exception e) {
+            log.debug("Failed to query changelog table: {}", e.toString());
+        } finally {
+            try {
+                if (!connection.getAutoCommit()) {
+                    // Finish the read transaction before liquibase starts its own work
+                    connection.rollback();
+                }
+            } catch (Exception ignored) {
+            }
+        }
+        return "unknown:" + System.nanoTime();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest md, String key, String value) {
+        md.update(key.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) '=');
+        if (value != null) {
+            md.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        md.update((byte) 0);
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+              .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static final class Marker {
+
+        final String fingerprint;
+
+        final List<String> files;
+
+        final List<String> listings;
+
+        /**
+         * Duration of the full update in milliseconds.
+         */
+        final long updateTime;
+
+        /**
+         * Changelog must be evaluated on every update, fingerprint is not used.
+         */
+        final boolean reevaluate;
+
+        Marker(String fingerprint, List<String> files, List<String> listings,
+               long updateTime, boolean reevaluate) {
+            this.fingerprint = fingerprint;
+            this.files = files;
+            this.listings = listings;
+            this.updateTime = updateTime;
+            this.reevaluate = reevaluate;
+        }
+    }
+
+    /**
+     * Resource accessor recording all resources and directory listings
+     * requested by liquibase.
+     */
+    static final class RecordingResourceAccessor implements ResourceAccessor {
+
+        private final ResourceAccessor delegate;
+
+        private final Set<String> files = Collections.synchronizedSet(new TreeSet<>());
+
+        private final Set<String> listings = Collections.synchronizedSet(new TreeSet<>());
+
+        RecordingResourceAccessor(ResourceAccessor delegate) {
+            this.delegate = delegate;
+        }
+
+        List<String> getFiles() {
+            synchronized (files) {
+                return new ArrayList<>(files);
+            }
+        }
+
+        List<String> getListings() {
+            synchronized (listings) {
+                return new ArrayList<>(listings);
+            }
+        }
+
+        @Override
+        public Set<InputStream> getResourcesAsStream(String path) throws IOException {
+            if (path != null) {
+                files.add(path);
+            }
+            return delegate.getResourcesAsStream(path);
+        }
+
+        @Override
+        public Set<String> list(String relativeTo,
+                                String path,
+                                boolean includeFiles,
+                                boolean includeDirectories,
+                                boolean recursive) throws IOException {
+            if (path != null && includeFiles) {
+                listings.add((relativeTo != null ? relativeTo : "") + '\n' + path + '\n' + recursive);
+            }
+            return delegate.list(relativeTo, path, includeFiles, includeDirectories, recursive);
+        }
+
+        @Override
+        public ClassLoader toClassLoader() {
+            return delegate.toClassLoader();
+        }
+    }
+}
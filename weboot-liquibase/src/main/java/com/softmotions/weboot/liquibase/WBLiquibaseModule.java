@@ -1,9 +1,11 @@
 package com.softmotions.weboot.liquibase;
 
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.apache.commons.configuration2.HierarchicalConfiguration;
@@ -35,6 +37,19 @@ import com.softmotions.commons.lifecycle.Start;
 
 /**
  * Liquibase Guice integration.
+ * <p/>
+ * If {@code fingerprint-file} is configured the fingerprint of changelog files,
+ * update parameters and applied changesets is stored into this file after update.
+ * Next update is skipped without changelog parsing if the fingerprint is not changed
+ * and the changelog has no {@code runAlways} changesets or preconditions
+ * evaluated on every update.
+ * <pre>
+ *     &lt;liquibase&gt;
+ *         &lt;changelog&gt;db/changelog.xml&lt;/changelog&gt;
+ *         &lt;fingerprint-file&gt;/var/lib/app/liquibase.fingerprint&lt;/fingerprint-file&gt;
+ *         &lt;update/&gt;
+ *     &lt;/liquibase&gt;
+ * </pre>
  *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
@@ -112,6 +127,11 @@ public class WBLiquibaseModule extends AbstractModule {
             }
             log.info("Using changelog: {}", changelogResource);
 
+            long started = System.currentTimeMillis();
+            List<HierarchicalConfiguration<ImmutableNode>> hcList =
+                    lbCfg.configurationsAt("liquibase.changelog-parameters.parameter");
+            ChangeLogFingerprint fingerprint = createFingerprint(lbCfg, changelogResource, hcList);
+
             try (Connection connection = ds.getConnection()) {
                 Database database = DatabaseFactory.getInstance()
                                                    .findCorrectDatabaseImplementation(new JdbcConnection(connection));
@@ -122,6 +142,21 @@ public class WBLiquibaseModule extends AbstractModule {
                         new ClassLoaderResourceAccessor(Thread.currentThread()
                                                               .getContextClassLoader())
                 );
+                if (fingerprint != null) {
+                    ChangeLogFingerprint.Marker marker = fingerprint.readMarker();
+                    if (marker != null
+                        && !marker.reevaluate
+                        && marker.fingerprint.equals(
+                            fingerprint.compute(marker.files, marker.listings,
+                                                resourceAccessor, database, connection))) {
+                        log.info("Liquibase changelog is up to date, update skipped in {}ms. " +
+                                 "Full update took {}ms",
+                                 System.currentTimeMillis() - started, marker.updateTime);
+                        return;
+                    }
+                    // Record every resource read by liquibase: parsed changelogs and change resources
+                    resourceAccessor = new ChangeLogFingerprint.RecordingResourceAccessor(resourceAccessor);
+                }
                 ChangeLogParser parser =
                         ChangeLogParserFactory.getInstance()
                                               .getParser(changelogResource, resourceAccessor);
@@ -142,8 +177,6 @@ public class WBLiquibaseModule extends AbstractModule {
                                       database
                         );
 
-                List<HierarchicalConfiguration<ImmutableNode>> hcList =
-                        lbCfg.configurationsAt("liquibase.changelog-parameters.parameter");
                 for (final HierarchicalConfiguration<ImmutableNode> hc : hcList) {
                     String name = hc.getString("name");
                     String value = hc.getString("value");
@@ -193,6 +226,30 @@ public class WBLiquibaseModule extends AbstractModule {
                 } else if (lbCfg.containsKey("update")) {
                     log.info("Executing Liquibase update");
                     liquibase.update("");
+                } else {
+                    fingerprint = null;
+                }
+
+                if (fingerprint != null) {
+                    ChangeLogFingerprint.RecordingResourceAccessor recorder =
+                            (ChangeLogFingerprint.RecordingResourceAccessor) resourceAccessor;
+                    boolean reevaluate = ChangeLogFingerprint.requiresReevaluation(changeLog);
+                    if (reevaluate) {
+                        log.info("Liquibase changelog contains runAlways changesets or preconditions " +
+                                 "evaluated on every update, update will not be skipped");
+                    } else if (!ChangeLogFingerprint.readChangeResources(changeLog)) {
+                        log.info("Some resources referenced by liquibase changes cannot be read, " +
+                                 "update will not be skipped");
+                        reevaluate = true;
+                    }
+                    List<String> files = recorder.getFiles();
+                    List<String> listings = recorder.getListings();
+                    long updateTime = System.currentTimeMillis() - started;
+                    fingerprint.writeMarker(
+                            new ChangeLogFingerprint.Marker(
+                                    fingerprint.compute(files, listings, recorder, database, connection),
+                                    files, listings, updateTime, reevaluate));
+                    log.info("Liquibase update took {}ms", updateTime);
                 }
 
             } catch (Exception e) {
@@ -200,5 +257,38 @@ public class WBLiquibaseModule extends AbstractModule {
                 throw new RuntimeException(e);
             }
         }
+
+        /**
+         * Fingerprint of update inputs if {@code fingerprint-file} is configured
+         * and database is not dropped on update.
+         */
+        @Nullable
+        private ChangeLogFingerprint createFingerprint(HierarchicalConfiguration<ImmutableNode> lbCfg,
+                                                       String changelogResource,
+                                                       List<HierarchicalConfiguration<ImmutableNode>> parameters) {
+            String file = lbCfg.getString("fingerprint-file");
+            if (StringUtils.isBlank(file)) {
+                return null;
+            }
+            if ((lbCfg.containsKey("update.dropAll") || lbCfg.containsKey("update.dropAll.activate"))
+                && BooleanUtils.toBoolean(lbCfg.getString("update.dropAll.activate", "true"))) {
+                log.info("Liquibase fingerprint is not used since dropAll is activated");
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("changelog=").append(changelogResource)
+              .append("\ndefaultSchema=").append(lbCfg.getString("defaultSchema"))
+              .append("\nupdate=").append(lbCfg.containsKey("update"))
+              .append("\ncontexts=").append(lbCfg.getString("update.contexts"));
+            for (HierarchicalConfiguration<ImmutableNode> hc : parameters) {
+                sb.append("\nparameter=").append(hc.getString("name")).append('=').append(hc.getString("value"));
+            }
+            for (WBLiquibaseExtraConfigSupplier ecs : extraConfigSuppliers) {
+                for (WBLiquibaseExtraConfigSupplier.ConfigSpec cs : ecs.getConfigSpecs()) {
+                    sb.append("\nextra=").append(cs.getLocation()).append(':').append(cs.getIncludeContexts());
+                }
+            }
+            return new ChangeLogFingerprint(Paths.get(file.trim()), sb.toString());
+        }
     }
 }
@@ -0,0 +1,110 @@
+package com.softmotions.weboot.liquibase;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.precondition.core.PreconditionContainer;
+import liquibase.precondition.core.SqlPrecondition;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class ChangeLogFingerprintTest {
+
+    @Test
+    public void testMarker() throws Exception {
+        Path dir = Files.createTempDirectory("lbfp");
+        Path file = dir.resolve("sub/liquibase.fingerprint");
+        try {
+            ChangeLogFingerprint fp = new ChangeLogFingerprint(file, "changelog=db/changelog.xml");
+            Assert.assertNull(fp.readMarker());
+            fp.writeMarker(new ChangeLogFingerprint.Marker(
+                    "abc", Arrays.asList("db/changelog.xml", "db/changes/001.xml"),
+                    Collections.singletonList("db/changelog.xml\ndb/all\ntrue"), 1234, true));
+            ChangeLogFingerprint.Marker m = fp.readMarker();
+            Assert.assertNotNull(m);
+            Assert.assertEquals(m.fingerprint, "abc");
+            Assert.assertEquals(m.files, Arrays.asList("db/changelog.xml", "db/changes/001.xml"));
+            Assert.assertEquals(m.listings, Collections.singletonList("db/changelog.xml\ndb/all\ntrue"));
+            Assert.assertEquals(m.updateTime, 1234);
+            Assert.assertTrue(m.reevaluate);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testRequiresReevaluation() throws Exception {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("db/changelog.xml");
+        changeLog.addChangeSet(new ChangeSet("1", "test", false, true, "db/changelog.xml", null, null, changeLog));
+        Assert.assertFalse(ChangeLogFingerprint.requiresReevaluation(changeLog));
+
+        // Preconditions marking changeset as ran are evaluated once
+        ChangeSet cs = new ChangeSet("2", "test", false, false, "db/changelog.xml", null, null, changeLog);
+        PreconditionContainer pc = new PreconditionContainer();
+        pc.setOnFail(PreconditionContainer.FailOption.MARK_RAN);
+        pc.addNestedPrecondition(new SqlPrecondition());
+        cs.setPreconditions(pc);
+        changeLog.addChangeSet(cs);
+        Assert.assertFalse(ChangeLogFingerprint.requiresReevaluation(changeLog));
+
+        pc.setOnFail(PreconditionContainer.FailOption.CONTINUE);
+        Assert.assertTrue(ChangeLogFingerprint.requiresReevaluation(changeLog));
+
+        changeLog = new DatabaseChangeLog("db/changelog.xml");
+        changeLog.addChangeSet(new ChangeSet("3", "test", true, false, "db/changelog.xml", null, null, changeLog));
+        Assert.assertTrue(ChangeLogFingerprint.requiresReevaluation(changeLog));
+
+        changeLog = new DatabaseChangeLog("db/changelog.xml");
+        PreconditionContainer clp = new PreconditionContainer();
+        clp.addNestedPrecondition(new SqlPrecondition());
+        changeLog.setPreconditions(clp);
+        Assert.assertTrue(ChangeLogFingerprint.requiresReevaluation(changeLog));
+    }
+
+    @Test
+    public void testRecordingResourceAccessor() throws Exception {
+        ResourceAccessor delegate = new ResourceAccessor() {
+            @Override
+            public Set<InputStream> getResourcesAsStream(String path) {
+                return Collections.singleton(new ByteArrayInputStream(path.getBytes(StandardCharsets.UTF_8)));
+            }
+
+            @Override
+            public Set<String> list(String relativeTo, String path, boolean includeFiles,
+                                    boolean includeDirectories, boolean recursive) {
+                return new HashSet<>(Collections.singletonList(path + "/001.xml"));
+            }
+
+            @Override
+            public ClassLoader toClassLoader() {
+                return getClass().getClassLoader();
+            }
+        };
+        ChangeLogFingerprint.RecordingResourceAccessor ra = new ChangeLogFingerprint.RecordingResourceAccessor(delegate);
+        // Include-only changelog, included one and resource referenced by a change
+        ra.getResourcesAsStream("db/changelog.xml");
+        ra.getResourcesAsStream("db/modules/module.xml");
+        ra.getResourcesAsStream("db/sql/proc.sql");
+        ra.list("db/changelog.xml", "all", true, false, true);
+        ra.list(null, "ignored", false, true, false);
+        Assert.assertEquals(ra.getFiles(),
+                            Arrays.asList("db/changelog.xml", "db/modules/module.xml", "db/sql/proc.sql"));
+        Assert.assertEquals(ra.getListings(), Collections.singletonList("db/changelog.xml\nall\ntrue"));
+    }
+}
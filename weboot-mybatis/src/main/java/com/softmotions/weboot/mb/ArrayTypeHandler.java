@@ -20,6 +20,12 @@ public class ArrayTypeHandler extends BaseTypeHandler<Object> {
     public void setNonNullParameter(PreparedStatement ps, int i, Object parameter, JdbcType jdbcType) throws SQLException {
         if (parameter instanceof Array) {
             ps.setArray(i, (Array) parameter);
+        } else if (parameter instanceof int[]) {
+            SqlArrays.bind(ps, i, parameter, "integer");
+        } else if (parameter instanceof long[]) {
+            SqlArrays.bind(ps, i, parameter, "bigint");
+        } else if (parameter instanceof double[]) {
+            SqlArrays.bind(ps, i, parameter, "double precision");
         } else {
             ps.setObject(i, parameter, jdbcType.TYPE_CODE);
         }
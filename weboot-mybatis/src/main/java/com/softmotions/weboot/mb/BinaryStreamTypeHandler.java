@@ -0,0 +1,50 @@
+package com.softmotions.weboot.mb;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+
+/**
+ * Maps binary columns ({@code bytea}, {@code VARBINARY}, {@code LONGVARBINARY})
+ * to {@link InputStream} using {@link ResultSet#getBinaryStream(int)}.
+ * <p/>
+ * Unlike {@link InputStreamTypeHandler} it does not go through {@link java.sql.Blob}
+ * so drivers are free to stream column data. Parameters are bound by
+ * {@link PreparedStatement#setBinaryStream(int, InputStream)}.
+ * Returned streams are valid only until the result set moves to the next row,
+ * so the handler is intended to be used with cursors and result handlers.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@MappedJdbcTypes({JdbcType.BINARY, JdbcType.VARBINARY, JdbcType.LONGVARBINARY})
+public class BinaryStreamTypeHandler extends BaseTypeHandler<InputStream> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, InputStream parameter, JdbcType jdbcType) throws SQLException {
+        ps.setBinaryStream(i, parameter);
+    }
+
+    @Override
+    public InputStream getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return rs.getBinaryStream(columnName);
+    }
+
+    @Override
+    public InputStream getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getBinaryStream(columnIndex);
+    }
+
+    @Override
+    public InputStream getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        // There is no getBinaryStream() for callable statements
+        byte[] data = cs.getBytes(columnIndex);
+        return (data != null) ? new ByteArrayInputStream(data) : null;
+    }
+}
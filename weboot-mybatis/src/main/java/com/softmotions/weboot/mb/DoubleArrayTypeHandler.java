@@ -0,0 +1,31 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+/**
+ * Maps SQL arrays to {@code double[]}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@MappedTypes(double[].class)
+@MappedJdbcTypes(value = JdbcType.ARRAY, includeNullJdbcType = true)
+public class DoubleArrayTypeHandler extends PrimitiveArrayTypeHandler<double[]> {
+
+    public DoubleArrayTypeHandler() {
+        super("double precision");
+    }
+
+    @Override
+    protected double[] parse(String literal) throws SQLException {
+        return SqlArrays.parseDoubles(literal);
+    }
+
+    @Override
+    protected double[] convert(Object array) throws SQLException {
+        return SqlArrays.toDoubles(array);
+    }
+}
@@ -0,0 +1,31 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+/**
+ * Maps SQL arrays to {@code int[]}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@MappedTypes(int[].class)
+@MappedJdbcTypes(value = JdbcType.ARRAY, includeNullJdbcType = true)
+public class IntArrayTypeHandler extends PrimitiveArrayTypeHandler<int[]> {
+
+    public IntArrayTypeHandler() {
+        super("integer");
+    }
+
+    @Override
+    protected int[] parse(String literal) throws SQLException {
+        return SqlArrays.parseInts(literal);
+    }
+
+    @Override
+    protected int[] convert(Object array) throws SQLException {
+        return SqlArrays.toInts(array);
+    }
+}
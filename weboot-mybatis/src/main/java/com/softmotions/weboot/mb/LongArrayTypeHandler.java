@@ -0,0 +1,31 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+/**
+ * Maps SQL arrays to {@code long[]}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@MappedTypes(long[].class)
+@MappedJdbcTypes(value = JdbcType.ARRAY, includeNullJdbcType = true)
+public class LongArrayTypeHandler extends PrimitiveArrayTypeHandler<long[]> {
+
+    public LongArrayTypeHandler() {
+        super("bigint");
+    }
+
+    @Override
+    protected long[] parse(String literal) throws SQLException {
+        return SqlArrays.parseLongs(literal);
+    }
+
+    @Override
+    protected long[] convert(Object array) throws SQLException {
+        return SqlArrays.toLongs(array);
+    }
+}
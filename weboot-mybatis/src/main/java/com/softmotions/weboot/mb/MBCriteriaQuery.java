@@ -3,32 +3,47 @@ package com.softmotions.weboot.mb;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.collections4.map.Flat3Map;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 
-import com.softmotions.commons.cont.CollectionUtils;
-import com.softmotions.commons.cont.Stack;
-
 /**
  * Base class for MyBatis criteria queries.
  *
  * @author Adamansky Anton (adamansky@gmail.com)
  */
 @SuppressWarnings("unchecked")
-public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String, Object> {
+public class MBCriteriaQuery<T extends MBCriteriaQuery> extends MBParamsMap {
 
     public static final String DEFAULT_PREFIX = "CQ_";
 
+    private static final String DEFAULT_ORDERBY_KEY = DEFAULT_PREFIX + "ORDERBY";
+
+    private static final String DEFAULT_LIMIT_KEY = DEFAULT_PREFIX + "LIMIT";
+
+    private static final String DEFAULT_OFFSET_KEY = DEFAULT_PREFIX + "OFFSET";
+
+    private static final String DEFAULT_PK_KEY = DEFAULT_PREFIX + "PK";
+
     private final String cqPrefix;
 
+    private final String orderByKey;
+
+    private final String limitKey;
+
+    private final String offsetKey;
+
+    private final String pkKey;
+
     private final MBDAOSupport dao;
 
     private final String namespace;
 
     private String columnPrefix;
 
-    private Stack<String> orderBySpec;
+    /**
+     * ORDER BY clause being built, reused after {@link #clear()}.
+     */
+    private StringBuilder orderBySpec;
 
     private boolean finished;
 
@@ -58,6 +73,17 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
         this.dao = dao;
         this.cqPrefix = cqPrefix;
         this.namespace = namespace;
+        if (DEFAULT_PREFIX.equals(cqPrefix)) {
+            orderByKey = DEFAULT_ORDERBY_KEY;
+            limitKey = DEFAULT_LIMIT_KEY;
+            offsetKey = DEFAULT_OFFSET_KEY;
+            pkKey = DEFAULT_PK_KEY;
+        } else {
+            orderByKey = cqPrefix + "ORDERBY";
+            limitKey = cqPrefix + "LIMIT";
+            offsetKey = cqPrefix + "OFFSET";
+            pkKey = cqPrefix + "PK";
+        }
         if (params != null) {
             putAll(params);
         }
@@ -67,12 +93,23 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
     public void clear() {
         finished = false;
         columnPrefix = null;
-        orderBySpec = null;
+        if (orderBySpec != null) {
+            orderBySpec.setLength(0);
+        }
         rowLimit = null;
         rowOffset = null;
         super.clear();
     }
 
+    @Override
+    public MBCriteriaQuery<T> clone() {
+        MBCriteriaQuery<T> cq = (MBCriteriaQuery<T>) super.clone();
+        if (orderBySpec != null) {
+            cq.orderBySpec = new StringBuilder(orderBySpec);
+        }
+        return cq;
+    }
+
     public boolean isFinished() {
         return finished;
     }
@@ -82,9 +119,8 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
             return (T) this;
         }
         this.finished = true;
-        if (orderBySpec != null) {
-            put(cqPrefix + "ORDERBY", CollectionUtils.join(", ", orderBySpec));
-            orderBySpec = null;
+        if (hasOrderBy()) {
+            put(orderByKey, orderBySpec.toString());
         }
         return (T) this;
     }
@@ -98,10 +134,13 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
     public T orderBy(String... columns) {
         preActionCheck();
         if (orderBySpec == null) {
-            orderBySpec = new Stack<>();
+            orderBySpec = new StringBuilder(32);
         }
         for (String c : columns) {
-            orderBySpec.push(toColumnName(c));
+            if (orderBySpec.length() > 0) {
+                orderBySpec.append(", ");
+            }
+            orderBySpec.append(toColumnName(c));
         }
         return (T) this;
     }
@@ -120,17 +159,17 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
 
     public T limit(int val) {
         rowLimit = val;
-        return putQ("LIMIT", val);
+        return putKey(limitKey, val);
     }
 
     public T offset(int val) {
         rowOffset = val;
-        return putQ("OFFSET", val);
+        return putKey(offsetKey, val);
     }
 
     public T skip(int val) {
         rowOffset = val;
-        return putQ("OFFSET", val);
+        return putKey(offsetKey, val);
     }
 
     public String getNamespace() {
@@ -147,7 +186,7 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
     }
 
     public T withPK(Object val) {
-        return putQ("PK", val);
+        return putKey(pkKey, val);
     }
 
     public T withParam(String name, Object val) {
@@ -236,12 +275,14 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
     }
 
     protected void addOrderByMod(boolean asc) {
-        if (orderBySpec == null || orderBySpec.isEmpty()) {
+        if (!hasOrderBy()) {
             throw new IllegalStateException("Please specify 'order by' columns before");
         }
-        String last = orderBySpec.pop();
-        last += (asc ? " ASC" : " DESC");
-        orderBySpec.push(last);
+        orderBySpec.append(asc ? " ASC" : " DESC");
+    }
+
+    private boolean hasOrderBy() {
+        return orderBySpec != null && orderBySpec.length() > 0;
     }
 
     protected String toColumnName(String col) {
@@ -249,8 +290,12 @@ public class MBCriteriaQuery<T extends MBCriteriaQuery> extends Flat3Map<String,
     }
 
     protected T putQ(String key, Object val) {
+        return putKey(cqPrefix + key, val);
+    }
+
+    private T putKey(String pkey, Object val) {
         preActionCheck();
-        put(cqPrefix + key, val);
+        put(pkey, val);
         return (T) this;
     }
 
@@ -1,15 +1,22 @@
 package com.softmotions.weboot.mb;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.apache.commons.collections4.map.Flat3Map;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
@@ -21,6 +28,11 @@ import com.google.common.base.Preconditions;
  */
 public class MBDAOSupport {
 
+    /**
+     * Default JDBC fetch size used by {@link #stream(String, Object...)}.
+     */
+    public static final int DEFAULT_STREAM_FETCH_SIZE = 1000;
+
     protected String namespace;
 
     protected final SqlSession sess;
@@ -67,6 +79,103 @@ public class MBDAOSupport {
         return sess.update(toStatementId(stmtId), toParametersObj(params));
     }
 
+    /**
+     * Executes insert statement for every parameter object using JDBC batches.
+     *
+     * @param batchSize Number of statements sent to the database in one batch
+     * @return Update counts of statements for every executed batch
+     * @see MBSqlSessionManager#withBatchSession(java.util.function.Function)
+     */
+    @Nonnull
+    public List<int[]> insertBatch(String stmtId, Iterable<?> params, int batchSize) {
+        return executeBatch(stmtId, params, batchSize, BatchOp.INSERT);
+    }
+
+    /**
+     * Executes update statement for every parameter object using JDBC batches.
+     *
+     * @param batchSize Number of statements sent to the database in one batch
+     * @return Update counts of statements for every executed batch
+     */
+    @Nonnull
+    public List<int[]> updateBatch(String stmtId, Iterable<?> params, int batchSize) {
+        return executeBatch(stmtId, params, batchSize, BatchOp.UPDATE);
+    }
+
+    /**
+     * Executes delete statement for every parameter object using JDBC batches.
+     *
+     * @param batchSize Number of statements sent to the database in one batch
+     * @return Update counts of statements for every executed batch
+     */
+    @Nonnull
+    public List<int[]> deleteBatch(String stmtId, Iterable<?> params, int batchSize) {
+        return executeBatch(stmtId, params, batchSize, BatchOp.DELETE);
+    }
+
+    private List<int[]> executeBatch(String stmtId, Iterable<?> params, int batchSize, BatchOp op) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        String sid = toStatementId(stmtId);
+        if (!(sess instanceof MBSqlSessionManager)) {
+            // Plain session, statements are batched only if its executor is BATCH
+            return executeBatch(sess, sid, params, batchSize, op);
+        }
+        MBSqlSessionManager sm = (MBSqlSessionManager) sess;
+        List<int[]> counts = sm.withBatchSession(bs -> executeBatch(bs, sid, params, batchSize, op));
+        sm.fireWrite(sid);
+        return counts;
+    }
+
+    private static List<int[]> executeBatch(SqlSession bs, String sid, Iterable<?> params, int batchSize, BatchOp op) {
+        List<int[]> counts = new ArrayList<>();
+        int cnt = 0;
+        for (Object p : params) {
+            switch (op) {
+                case INSERT:
+                    bs.insert(sid, p);
+                    break;
+                case UPDATE:
+                    bs.update(sid, p);
+                    break;
+                case DELETE:
+                    bs.delete(sid, p);
+                    break;
+            }
+            if (++cnt == batchSize) {
+                counts.add(toUpdateCounts(bs.flushStatements()));
+                cnt = 0;
+            }
+        }
+        if (cnt > 0) {
+            counts.add(toUpdateCounts(bs.flushStatements()));
+        }
+        return counts;
+    }
+
+    private static int[] toUpdateCounts(List<BatchResult> results) {
+        if (results.size() == 1) {
+            return results.get(0).getUpdateCounts();
+        }
+        int len = 0;
+        for (BatchResult br : results) {
+            len += br.getUpdateCounts().length;
+        }
+        int[] counts = new int[len];
+        int off = 0;
+        for (BatchResult br : results) {
+            int[] uc = br.getUpdateCounts();
+            System.arraycopy(uc, 0, counts, off, uc.length);
+            off += uc.length;
+        }
+        return counts;
+    }
+
+    private enum BatchOp {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
     public void select(String stmtId, ResultHandler rh, Object... params) {
         sess.select(toStatementId(stmtId), toParametersObj(params), rh);
     }
@@ -87,9 +196,64 @@ public class MBDAOSupport {
                     rh);
     }
 
+    /**
+     * Selects list of records. Result is served from {@link MBResultCache}
+     * if the statement is registered in the cache.
+     */
     @Nonnull
     public <E> List<E> select(String stmtId, Object... params) {
-        return sess.selectList(toStatementId(stmtId), toParametersObj(params));
+        String sid = toStatementId(stmtId);
+        Object pobj = toParametersObj(params);
+        MBResultCache rc = getResultCache();
+        if (rc != null) {
+            return rc.get(sid, pobj, () -> sess.selectList(sid, pobj));
+        }
+        return sess.selectList(sid, pobj);
+    }
+
+    /**
+     * Selects records as a lazy stream using
+     * the {@link #DEFAULT_STREAM_FETCH_SIZE} fetch size.
+     *
+     * @see #stream(int, String, Object...)
+     */
+    @Nonnull
+    public <E> Stream<E> stream(String stmtId, Object... params) {
+        return stream(DEFAULT_STREAM_FETCH_SIZE, stmtId, params);
+    }
+
+    /**
+     * Selects records as a lazy stream backed by MyBatis cursor.
+     * The stream holds the database connection until closed,
+     * use it in try-with-resources block:
+     * <pre>
+     *     try (Stream&lt;Row&gt; rows = dao.stream(500, "selectRows", "id", id)) {
+     *         rows.forEach(...);
+     *     }
+     * </pre>
+     *
+     * @param fetchSize JDBC fetch size
+     * @see MBSqlSessionManager#selectStream(String, Object, int)
+     */
+    @Nonnull
+    public <E> Stream<E> stream(int fetchSize, String stmtId, Object... params) {
+        if (sess instanceof MBSqlSessionManager) {
+            return ((MBSqlSessionManager) sess).selectStream(toStatementId(stmtId), toParametersObj(params), fetchSize);
+        }
+        Cursor<E> cursor;
+        MBFetchSizeInterceptor.setFetchSize(fetchSize);
+        try {
+            cursor = sess.selectCursor(toStatementId(stmtId), toParametersObj(params));
+        } finally {
+            MBFetchSizeInterceptor.clearFetchSize();
+        }
+        return StreamSupport.stream(cursor.spliterator(), false).onClose(() -> {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     @Nonnull
@@ -147,9 +311,65 @@ public class MBDAOSupport {
         return sess.delete(crit.getStatement() != null ? crit.getStatement() : toStatementId(defstmtId), crit);
     }
 
+    /**
+     * Selects single record. Result is served from {@link MBResultCache}
+     * if the statement is registered in the cache.
+     */
     @Nullable
     public <E> E selectOne(String stmtId, Object... params) {
-        return sess.selectOne(toStatementId(stmtId), toParametersObj(params));
+        String sid = toStatementId(stmtId);
+        Object pobj = toParametersObj(params);
+        MBResultCache rc = getResultCache();
+        if (rc != null) {
+            return rc.get(sid, pobj, () -> sess.selectOne(sid, pobj));
+        }
+        return sess.selectOne(sid, pobj);
+    }
+
+    @Nullable
+    protected MBResultCache getResultCache() {
+        return (sess instanceof MBSqlSessionManager) ? ((MBSqlSessionManager) sess).getResultCache() : null;
+    }
+
+    /**
+     * Loads rows into PostgreSQL table using {@code COPY} in CSV format.
+     *
+     * @see #copyIn(String, String[], Stream, MBPgCopy.Format)
+     */
+    public long copyIn(String table, String[] columns, Stream<Object[]> rows) throws SQLException {
+        return copyIn(table, columns, rows, MBPgCopy.Format.CSV);
+    }
+
+    /**
+     * Loads rows into PostgreSQL table using {@code COPY ... FROM STDIN}.
+     * <p/>
+     * If a managed session is started rows are copied within its transaction,
+     * pending batched statements of the session are flushed before.
+     * Otherwise a new session is opened, committed after the copy and closed.
+     * <p/>
+     * Successful copy is reported to {@link MBResultCache} as the write statement
+     * {@code copyIn} of the DAO namespace: regions of the namespace and regions
+     * registered by {@link MBResultCache#invalidateOn(String, String)} for the namespace
+     * or for {@code <namespace>.copyIn} are evicted, within a managed session after its commit.
+     *
+     * @return Number of copied rows
+     * @see MBPgCopy
+     */
+    public long copyIn(String table, String[] columns, Stream<Object[]> rows, MBPgCopy.Format format) throws SQLException {
+        long cnt;
+        if (sess instanceof MBSqlSessionManager && !((MBSqlSessionManager) sess).isManagedSessionStarted()) {
+            try (SqlSession s = ((MBSqlSessionManager) sess).openSession(false)) {
+                cnt = MBPgCopy.copyIn(s.getConnection(), table, columns, rows, format);
+                s.commit(true);
+            }
+        } else {
+            sess.flushStatements();
+            cnt = MBPgCopy.copyIn(sess.getConnection(), table, columns, rows, format);
+        }
+        if (sess instanceof MBSqlSessionManager) {
+            ((MBSqlSessionManager) sess).fireWrite(toStatementId("copyIn"));
+        }
+        return cnt;
     }
 
     @Nullable
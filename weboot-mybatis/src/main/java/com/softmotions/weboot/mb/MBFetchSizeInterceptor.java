@@ -0,0 +1,57 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * Overrides JDBC fetch size of statements prepared by the current thread
+ * while a fetch size hint is set by {@link #setFetchSize(int)}.
+ * <p/>
+ * Registered automatically by {@link MBXMLMyBatisModule}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@Intercepts({
+        @Signature(type = StatementHandler.class,
+                   method = "prepare",
+                   args = {Connection.class, Integer.class})
+})
+public class MBFetchSizeInterceptor implements Interceptor {
+
+    private static final ThreadLocal<Integer> FETCH_SIZE = new ThreadLocal<>();
+
+    static void setFetchSize(int fetchSize) {
+        FETCH_SIZE.set(fetchSize);
+    }
+
+    static void clearFetchSize() {
+        FETCH_SIZE.remove();
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object ret = invocation.proceed();
+        Integer fetchSize = FETCH_SIZE.get();
+        if (fetchSize != null && ret instanceof Statement) {
+            ((Statement) ret).setFetchSize(fetchSize);
+        }
+        return ret;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return (target instanceof StatementHandler) ? Plugin.wrap(target, this) : target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+}
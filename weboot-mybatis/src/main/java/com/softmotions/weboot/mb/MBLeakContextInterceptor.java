@@ -0,0 +1,62 @@
+package com.softmotions.weboot.mb;
+
+import java.util.Properties;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.softmotions.commons.db.LeakDetectingDataSource;
+
+/**
+ * Sets id of the executed mapped statement as the context of
+ * {@link LeakDetectingDataSource} so connections borrowed by sessions
+ * are attributed to the statement opening the connection.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@Intercepts({
+        @Signature(type = Executor.class,
+                   method = "update",
+                   args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class,
+                   method = "query",
+                   args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class,
+                   method = "query",
+                   args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class,
+                           CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class,
+                   method = "queryCursor",
+                   args = {MappedStatement.class, Object.class, RowBounds.class})
+})
+public class MBLeakContextInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        String prev = LeakDetectingDataSource.setContext(ms.getId());
+        try {
+            return invocation.proceed();
+        } finally {
+            LeakDetectingDataSource.restoreContext(prev);
+        }
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return (target instanceof Executor) ? Plugin.wrap(target, this) : target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+}
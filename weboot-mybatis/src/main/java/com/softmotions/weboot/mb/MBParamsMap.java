@@ -0,0 +1,465 @@
+package com.softmotions.weboot.mb;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.collections4.IterableMap;
+import org.apache.commons.collections4.MapIterator;
+import org.apache.commons.collections4.iterators.EntrySetMapIterator;
+
+/**
+ * Compact map of statement parameters with string keys.
+ * <p/>
+ * Entries are kept in flat arrays with open addressing and linear probing,
+ * the initial table fits 12 entries without resizing which covers
+ * typical criteria queries. Removed entries are marked by tombstones
+ * so iteration order is stable while entries are removed.
+ * Keys are compared by identity first so constant keys are cheap to look up.
+ * <p/>
+ * Like {@link org.apache.commons.collections4.map.Flat3Map} replaced by this class
+ * the map is serializable, cloneable and supports {@code null} keys and values,
+ * {@code null} key entry is kept aside of the table and iterated last.
+ * This map is not thread safe.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBParamsMap extends AbstractMap<String, Object>
+        implements IterableMap<String, Object>, Serializable, Cloneable {
+
+    private static final long serialVersionUID = 4329873409287342352L;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final Object TOMBSTONE = new Object();
+
+    private transient Object[] keys;
+
+    private transient Object[] vals;
+
+    /**
+     * Number of live entries in the table, {@code null} key entry is not counted.
+     */
+    private transient int size;
+
+    /**
+     * Number of used slots: live entries and tombstones.
+     */
+    private transient int used;
+
+    private transient boolean hasNullKey;
+
+    private transient Object nullKeyValue;
+
+    private transient Set<Map.Entry<String, Object>> entrySet;
+
+    public MBParamsMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Initial table capacity, rounded up to the power of two
+     */
+    public MBParamsMap(int capacity) {
+        init(capacity);
+    }
+
+    private void init(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1;
+        keys = new Object[cap];
+        vals = new Object[cap];
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(Object key) {
+        if (key == null || size == 0) {
+            return -1;
+        }
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        int i = hash(key) & mask;
+        for (; ; ) {
+            Object k = ks[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k == key || (k != TOMBSTONE && k.equals(key))) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    public int size() {
+        return hasNullKey ? size + 1 : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && !hasNullKey;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (key == null) ? hasNullKey : indexOf(key) != -1;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (hasNullKey && Objects.equals(nullKeyValue, value)) {
+            return true;
+        }
+        Object[] ks = keys;
+        for (int i = 0; i < ks.length; ++i) {
+            if (ks[i] != null && ks[i] != TOMBSTONE && Objects.equals(vals[i], value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (key == null) {
+            return nullKeyValue;
+        }
+        int idx = indexOf(key);
+        return (idx != -1) ? vals[idx] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (key == null) {
+            Object old = nullKeyValue;
+            nullKeyValue = value;
+            hasNullKey = true;
+            return old;
+        }
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        int i = hash(key) & mask;
+        int free = -1;
+        for (; ; ) {
+            Object k = ks[i];
+            if (k == null) {
+                break;
+            }
+            if (k == TOMBSTONE) {
+                if (free == -1) {
+                    free = i;
+                }
+            } else if (k == key || k.equals(key)) {
+                Object old = vals[i];
+                vals[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        if (free != -1) {
+            ks[free] = key;
+            vals[free] = value;
+            ++size;
+            return null;
+        }
+        ks[i] = key;
+        vals[i] = value;
+        ++size;
+        if (++used > (ks.length >> 1) + (ks.length >> 2)) {
+            rehash((size > (ks.length >> 1)) ? ks.length << 1 : ks.length);
+        }
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        for (Map.Entry<? extends String, ?> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (key == null) {
+            return removeNullKey();
+        }
+        int idx = indexOf(key);
+        if (idx == -1) {
+            return null;
+        }
+        return removeAt(idx);
+    }
+
+    private Object removeNullKey() {
+        Object old = nullKeyValue;
+        nullKeyValue = null;
+        hasNullKey = false;
+        return old;
+    }
+
+    private Object removeAt(int idx) {
+        Object old = vals[idx];
+        keys[idx] = TOMBSTONE;
+        vals[idx] = null;
+        --size;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        if (used > 0) {
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+            size = 0;
+            used = 0;
+        }
+        hasNullKey = false;
+        nullKeyValue = null;
+    }
+
+    private void rehash(int capacity) {
+        Object[] oks = keys;
+        Object[] ovs = vals;
+        keys = new Object[capacity];
+        vals = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oks.length; ++j) {
+            Object k = oks[j];
+            if (k == null || k == TOMBSTONE) {
+                continue;
+            }
+            int i = hash(k) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            vals[i] = ovs[j];
+        }
+        used = size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    @Override
+    public MapIterator<String, Object> mapIterator() {
+        return new EntrySetMapIterator<>(this);
+    }
+
+    @Override
+    public MBParamsMap clone() {
+        try {
+            MBParamsMap m = (MBParamsMap) super.clone();
+            m.keys = keys.clone();
+            m.vals = vals.clone();
+            m.entrySet = null;
+            return m;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size());
+        for (Map.Entry<String, Object> e : entrySet()) {
+            out.writeObject(e.getKey());
+            out.writeObject(e.getValue());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int cnt = in.readInt();
+        init(Math.max(DEFAULT_CAPACITY, cnt * 2));
+        for (int i = 0; i < cnt; ++i) {
+            put((String) in.readObject(), in.readObject());
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return MBParamsMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            MBParamsMap.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private final Object[] ks = keys;
+
+        private int next;
+
+        private int current = -1;
+
+        /**
+         * {@code null} key entry is not returned yet.
+         */
+        private boolean nullPending = hasNullKey;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            while (next < ks.length && (ks[next] == null || ks[next] == TOMBSTONE)) {
+                ++next;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < ks.length || (nullPending && hasNullKey);
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next < ks.length) {
+                current = next++;
+                advance();
+                return new Entry(ks, current);
+            }
+            if (nullPending && hasNullKey) {
+                nullPending = false;
+                current = ks.length;
+                return new NullKeyEntry();
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            if (current == ks.length) {
+                if (!hasNullKey) {
+                    throw new IllegalStateException();
+                }
+                removeNullKey();
+                current = -1;
+                return;
+            }
+            if (current == -1 || ks != keys || ks[current] == TOMBSTONE) {
+                throw new IllegalStateException();
+            }
+            removeAt(current);
+            current = -1;
+        }
+    }
+
+    private final class NullKeyEntry implements Map.Entry<String, Object> {
+
+        @Override
+        public String getKey() {
+            return null;
+        }
+
+        @Override
+        public Object getValue() {
+            return nullKeyValue;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(null, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return e.getKey() == null && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return "null=" + getValue();
+        }
+    }
+
+    private final class Entry implements Map.Entry<String, Object> {
+
+        private final String key;
+
+        private final Object[] ks;
+
+        private final int idx;
+
+        private Entry(Object[] ks, int idx) {
+            this.ks = ks;
+            this.idx = idx;
+            this.key = (String) ks[idx];
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return (ks == keys && ks[idx] == key) ? vals[idx] : get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (ks == keys && ks[idx] == key) {
+                Object old = vals[idx];
+                vals[idx] = value;
+                return old;
+            }
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + '=' + getValue();
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.softmotions.commons.io.ChunkedOutputStream;
+
+/**
+ * Bulk loading of rows into PostgreSQL table by {@code COPY ... FROM STDIN}.
+ * <p/>
+ * Rows are encoded into pooled buffers and sent to the server as soon
+ * as a buffer is full, so the whole data set is never materialized.
+ * COPY is executed on the given connection so it participates
+ * in the current transaction of the connection.
+ * <p/>
+ * {@link Format#CSV} accepts values of any type convertible
+ * by the server from their text representation.
+ * {@link Format#BINARY} is faster but java types must exactly match
+ * column types: {@code Short - int2, Integer - int4, Long - int8,
+ * Float - float4, Double - float8, Boolean - bool, String - text/varchar,
+ * byte[] - bytea, UUID - uuid, LocalDate/java.sql.Date - date,
+ * LocalDateTime - timestamp, Instant/OffsetDateTime/java.util.Date/Timestamp - timestamptz,
+ * int[]/long[]/double[] - int4[]/int8[]/float8[]}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ * @see MBDAOSupport#copyIn(String, String[], Stream, Format)
+ */
+public final class MBPgCopy {
+
+    private static final Logger log = LoggerFactory.getLogger(MBPgCopy.class);
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\p{L}_][\\p{L}\\p{N}_$.\"]*");
+
+    private static final ChunkedOutputStream.ChunkPool POOL = new ChunkedOutputStream.ChunkPool(64 * 1024, 16);
+
+    private static final byte[] BINARY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    /**
+     * 2000-01-01 epoch used by PostgreSQL binary date/time formats.
+     */
+    private static final long PG_EPOCH_SECONDS = 946684800L;
+
+    private static final long PG_EPOCH_DAYS = PG_EPOCH_SECONDS / 86400L;
+
+    private static final int INT4_OID = 23;
+
+    private static final int INT8_OID = 20;
+
+    private static final int FLOAT8_OID = 701;
+
+    public enum Format {
+        CSV,
+        BINARY
+    }
+
+    private MBPgCopy() {
+    }
+
+    /**
+     * Copy rows into the table.
+     *
+     * @param conn    PostgreSQL connection or pooled connection wrapping it
+     * @param table   Table name
+     * @param columns Column names, every row must have the same number of values
+     * @param rows    Rows to copy
+     * @param format  COPY data format
+     * @return Number of copied rows
+     */
+    public static long copyIn(Connection conn,
+                              String table,
+                              String[] columns,
+                              Stream<Object[]> rows,
+                              Format format) throws SQLException {
+        String sql = buildSql(table, columns, format);
+        CopyIn ci = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        byte[] buf = POOL.acquire();
+        boolean success = false;
+        try {
+            Encoder enc = new Encoder(ci, buf);
+            if (format == Format.BINARY) {
+                enc.putBytes(BINARY_SIGNATURE);
+                enc.putInt(0);
+                enc.putInt(0);
+            }
+            Iterator<Object[]> it = rows.iterator();
+            while (it.hasNext()) {
+                Object[] row = it.next();
+                if (row.length != columns.length) {
+                    throw new IllegalArgumentException("Row has " + row.length +
+                                                       " values but " + columns.length + " columns are specified");
+                }
+                if (format == Format.BINARY) {
+                    enc.putBinaryRow(row);
+                } else {
+                    enc.putCsvRow(row);
+                }
+            }
+            if (format == Format.BINARY) {
+                enc.putShort(-1);
+            }
+            enc.flush();
+            long cnt = ci.endCopy();
+            success = true;
+            if (log.isDebugEnabled()) {
+                log.debug("Copied {} rows into {}", cnt, table);
+            }
+            return cnt;
+        } finally {
+            POOL.release(buf);
+            if (!success && ci.isActive()) {
+                try {
+                    ci.cancelCopy();
+                } catch (SQLException e) {
+                    log.error("Failed to cancel COPY into {}", table, e);
+                }
+            }
+        }
+    }
+
+    static String buildSql(String table, String[] columns, Format format) {
+        checkIdentifier(table);
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("COPY ").append(table).append(" (");
+        for (int i = 0; i < columns.length; ++i) {
+            checkIdentifier(columns[i]);
+            if (i > 0) sb.append(", ");
+            sb.append(columns[i]);
+        }
+        sb.append(") FROM STDIN WITH (FORMAT ");
+        if (format == Format.BINARY) {
+            sb.append("binary)");
+        } else {
+            sb.append("csv, ENCODING 'UTF8')");
+        }
+        return sb.toString();
+    }
+
+    private static void checkIdentifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid identifier: " + name);
+        }
+    }
+
+    /**
+     * Encodes rows into the buffer flushing it to the COPY stream when full.
+     */
+    static final class Encoder {
+
+        private final CopyIn ci;
+
+        private final byte[] buf;
+
+        private int pos;
+
+        Encoder(CopyIn ci, byte[] buf) {
+            this.ci = ci;
+            this.buf = buf;
+        }
+
+        void flush() throws SQLException {
+            if (pos > 0) {
+                ci.writeToCopy(buf, 0, pos);
+                pos = 0;
+            }
+        }
+
+        private void ensure(int n) throws SQLException {
+            if (pos + n > buf.length) {
+                flush();
+            }
+        }
+
+        void putByte(int b) throws SQLException {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void putShort(int v) throws SQLException {
+            ensure(2);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void putInt(int v) throws SQLException {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void putLong(long v) throws SQLException {
+            ensure(8);
+            for (int s = 56; s >= 0; s -= 8) {
+                buf[pos++] = (byte) (v >>> s);
+            }
+        }
+
+        void putBytes(byte[] b) throws SQLException {
+            if (b.length > buf.length - pos) {
+                flush();
+                if (b.length > buf.length) {
+                    ci.writeToCopy(b, 0, b.length);
+                    return;
+                }
+            }
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+        }
+
+        void putAscii(String s) throws SQLException {
+            for (int i = 0, l = s.length(); i < l; ++i) {
+                putByte(s.charAt(i));
+            }
+        }
+
+        /**
+         * Write string as UTF-8, optionally doubling CSV quote characters.
+         */
+        void putUtf8(CharSequence s, boolean csv) throws SQLException {
+            for (int i = 0, l = s.length(); i < l; ++i) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    if (csv && c == '"') {
+                        putByte('"');
+                    }
+                    putByte(c);
+                } else if (c < 0x800) {
+                    ensure(2);
+                    buf[pos++] = (byte) (0xc0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < l && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    ensure(4);
+                    buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    putByte('?');
+                } else {
+                    ensure(3);
+                    buf[pos++] = (byte) (0xe0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        static int utf8Length(CharSequence s) {
+            int len = 0;
+            for (int i = 0, l = s.length(); i < l; ++i) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    len += 1;
+                } else if (c < 0x800) {
+                    len += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < l && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    len += 4;
+                    ++i;
+                } else if (Character.isSurrogate(c)) {
+                    len += 1;
+                } else {
+                    len += 3;
+                }
+            }
+            return len;
+        }
+
+        void putCsvRow(Object[] row) throws SQLException {
+            for (int i = 0; i < row.length; ++i) {
+                if (i > 0) {
+                    putByte(',');
+                }
+                putCsvValue(row[i]);
+            }
+            putByte('\n');
+        }
+
+        private void putCsvValue(Object v) throws SQLException {
+            if (v == null) {
+                return;
+            }
+            if (v instanceof Number || v instanceof Boolean || v instanceof UUID) {
+                putAscii(v.toString());
+            } else if (v instanceof byte[]) {
+                byte[] b = (byte[]) v;
+                putByte('\\');
+                putByte('x');
+                for (byte x : b) {
+                    putByte(Character.forDigit((x >> 4) & 0xf, 16));
+                    putByte(Character.forDigit(x & 0xf, 16));
+                }
+            } else if (v instanceof Date && !(v instanceof java.sql.Date) && !(v instanceof java.sql.Time)) {
+                // Local time with the JVM zone offset as JDBC driver sends it:
+                // timestamptz gets the same instant as written in BINARY format,
+                // timestamp gets the JVM local time, the offset is ignored
+                Instant instant = (v instanceof Timestamp) ? ((Timestamp) v).toInstant() : ((Date) v).toInstant();
+                putAscii(OffsetDateTime.ofInstant(instant, ZoneId.systemDefault()).toString());
+            } else {
+                CharSequence s = (v instanceof CharSequence) ? (CharSequence) v
+                                 : (v instanceof Enum) ? ((Enum) v).name()
+                                 : (v.getClass().isArray()) ? SqlArrays.toLiteral(v)
+                                 : v.toString();
+                // Quoted empty string is not NULL
+                putByte('"');
+                putUtf8(s, true);
+                putByte('"');
+            }
+        }
+
+        void putBinaryRow(Object[] row) throws SQLException {
+            putShort(row.length);
+            for (Object v : row) {
+                putBinaryValue(v);
+            }
+        }
+
+        private void putBinaryValue(Object v) throws SQLException {
+            if (v == null) {
+                putInt(-1);
+            } else if (v instanceof Integer) {
+                putInt(4);
+                putInt((Integer) v);
+            } else if (v instanceof Long) {
+                putInt(8);
+                putLong((Long) v);
+            } else if (v instanceof Short) {
+                putInt(2);
+                putShort((Short) v);
+            } else if (v instanceof Double) {
+                putInt(8);
+                putLong(Double.doubleToLongBits((Double) v));
+            } else if (v instanceof Float) {
+                putInt(4);
+                putInt(Float.floatToIntBits((Float) v));
+            } else if (v instanceof Boolean) {
+                putInt(1);
+                putByte((Boolean) v ? 1 : 0);
+            } else if (v instanceof CharSequence || v instanceof Enum) {
+                CharSequence s = (v instanceof Enum) ? ((Enum) v).name() : (CharSequence) v;
+                putInt(utf8Length(s));
+                putUtf8(s, false);
+            } else if (v instanceof byte[]) {
+                byte[] b = (byte[]) v;
+                putInt(b.length);
+                putBytes(b);
+            } else if (v instanceof UUID) {
+                UUID u = (UUID) v;
+                putInt(16);
+                putLong(u.getMostSignificantBits());
+                putLong(u.getLeastSignificantBits());
+            } else if (v instanceof java.sql.Date) {
+                putDate(((java.sql.Date) v).toLocalDate());
+            } else if (v instanceof LocalDate) {
+                putDate((LocalDate) v);
+            } else if (v instanceof LocalDateTime) {
+                putTimestamp(((LocalDateTime) v).toInstant(ZoneOffset.UTC));
+            } else if (v instanceof Timestamp) {
+                putTimestamp(((Timestamp) v).toInstant());
+            } else if (v instanceof OffsetDateTime) {
+                putTimestamp(((OffsetDateTime) v).toInstant());
+            } else if (v instanceof Instant) {
+                putTimestamp((Instant) v);
+            } else if (v instanceof Date && !(v instanceof java.sql.Time)) {
+                putTimestamp(((Date) v).toInstant());
+            } else if (v instanceof int[]) {
+                int[] a = (int[]) v;
+                putArrayHeader(a.length, INT4_OID, 4);
+                for (int x : a) {
+                    putInt(4);
+                    putInt(x);
+                }
+            } else if (v instanceof long[]) {
+                long[] a = (long[]) v;
+                putArrayHeader(a.length, INT8_OID, 8);
+                for (long x : a) {
+                    putInt(8);
+                    putLong(x);
+                }
+            } else if (v instanceof double[]) {
+                double[] a = (double[]) v;
+                putArrayHeader(a.length, FLOAT8_OID, 8);
+                for (double x : a) {
+                    putInt(8);
+                    putLong(Double.doubleToLongBits(x));
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported value type for binary COPY: " +
+                                                   v.getClass().getName() + ", use CSV format instead");
+            }
+        }
+
+        private void putDate(LocalDate d) throws SQLException {
+            putInt(4);
+            putInt((int) (d.toEpochDay() - PG_EPOCH_DAYS));
+        }
+
+        private void putTimestamp(Instant i) throws SQLException {
+            putInt(8);
+            putLong(ChronoUnit.MICROS.between(Instant.ofEpochSecond(PG_EPOCH_SECONDS), i));
+        }
+
+        private void putArrayHeader(int len, int elementOid, int elementSize) throws SQLException {
+            if (len == 0) {
+                putInt(12);
+                putInt(0);
+                putInt(0);
+                putInt(elementOid);
+                return;
+            }
+            putInt(20 + len * (4 + elementSize));
+            putInt(1); // dimensions
+            putInt(0); // has nulls
+            putInt(elementOid);
+            putInt(len);
+            putInt(1); // lower bound
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.softmotions.weboot.mb;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks {@link org.mybatis.guice.transactional.Transactional} method or class
+ * as read only. Managed sessions started for such methods are routed
+ * to the read replica datasources if they are configured.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ * @see MBRoutingDataSource
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface MBReadOnly {
+}
@@ -0,0 +1,357 @@
+package com.softmotions.weboot.mb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in cache of select results of registered statements
+ * keyed by statement id and parameter object.
+ * <p/>
+ * Every cached statement belongs to a region, by default
+ * the region is the statement namespace. Any insert/update/delete
+ * statement executed through {@link MBSqlSessionManager} within the namespace of the region
+ * (or within namespaces/statements declared by {@link #invalidateOn(String, String)})
+ * evicts the whole region. Within a managed session eviction happens
+ * after the session is committed, until then the thread which wrote into
+ * the region bypasses the cache for the region, so uncommitted data is never cached.
+ * <p/>
+ * Cached results are shared between threads: returned lists are unmodifiable
+ * and cached objects must not be modified by callers.
+ * Parameter objects must have proper {@code equals/hashCode} and must not be modified
+ * after the call.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MBResultCache.class);
+
+    private final Map<String, StatementCache> statements = new ConcurrentHashMap<>();
+
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Namespace or statement id of write statement => regions to evict.
+     */
+    private final Map<String, List<Region>> writeTriggers = new ConcurrentHashMap<>();
+
+    /**
+     * Regions written by the current thread within the managed session.
+     */
+    private final ThreadLocal<Set<Region>> pending = new ThreadLocal<>();
+
+    public MBResultCache() {
+    }
+
+    /**
+     * Register cached statement within the region of the statement namespace.
+     *
+     * @param stmtId     Fully qualified statement id
+     * @param ttl        Time to live of cached results in milliseconds
+     * @param maxEntries Maximum number of cached results for the statement
+     */
+    public MBResultCache register(String stmtId, long ttl, int maxEntries) {
+        return register(stmtId, namespaceOf(stmtId), ttl, maxEntries);
+    }
+
+    /**
+     * Register cached statement within the specified region.
+     *
+     * @param stmtId     Fully qualified statement id
+     * @param region     Region name
+     * @param ttl        Time to live of cached results in milliseconds
+     * @param maxEntries Maximum number of cached results for the statement
+     */
+    public synchronized MBResultCache register(String stmtId, String region, long ttl, int maxEntries) {
+        Region r = regions.get(region);
+        if (r == null) {
+            r = new Region(region);
+            regions.put(region, r);
+            invalidateOn(region, region);
+        }
+        StatementCache sc = new StatementCache(stmtId, r, ttl, maxEntries);
+        r.statements.add(sc);
+        statements.put(stmtId, sc);
+        log.info("Cached statement: {} region: {} ttl: {}ms max entries: {}", stmtId, region, ttl, maxEntries);
+        return this;
+    }
+
+    /**
+     * Evict the region when a write statement is executed
+     * in the specified namespace or by the specified statement id.
+     */
+    public synchronized MBResultCache invalidateOn(String namespaceOrStmtId, String region) {
+        Region r = regions.get(region);
+        if (r == null) {
+            throw new IllegalArgumentException("Unknown cache region: " + region);
+        }
+        List<Region> rlist = writeTriggers.computeIfAbsent(namespaceOrStmtId, k -> new CopyOnWriteArrayList<>());
+        if (!rlist.contains(r)) {
+            rlist.add(r);
+        }
+        return this;
+    }
+
+    public boolean isCached(String stmtId) {
+        return statements.containsKey(stmtId);
+    }
+
+    /**
+     * Evict all cached results of the region.
+     */
+    public void invalidate(String region) {
+        Region r = regions.get(region);
+        if (r != null) {
+            r.invalidate();
+        }
+    }
+
+    /**
+     * Evict all cached results.
+     */
+    public void invalidateAll() {
+        for (Region r : regions.values()) {
+            r.invalidate();
+        }
+    }
+
+    /**
+     * Returns cached result of the statement or loads it by the given loader.
+     * Loader is called directly if the statement is not cached or the current
+     * thread has uncommitted writes into the statement region.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String stmtId, @Nullable Object param, Supplier<T> loader) {
+        StatementCache sc = statements.get(stmtId);
+        if (sc == null) {
+            return loader.get();
+        }
+        Set<Region> pset = pending.get();
+        if (pset != null && pset.contains(sc.region)) {
+            return loader.get();
+        }
+        Key key = new Key(param);
+        Object v = sc.get(key);
+        if (v != null) {
+            return (v == NULL) ? null : (T) v;
+        }
+        long version = sc.region.version.get();
+        T res = loader.get();
+        if (res instanceof List) {
+            res = (T) Collections.unmodifiableList((List<?>) res);
+        }
+        sc.put(key, (res == null) ? NULL : res, version);
+        return res;
+    }
+
+    /**
+     * Notifies the cache about executed write statement.
+     */
+    void onWrite(MBSqlSessionManager sm, String stmtId) {
+        if (writeTriggers.isEmpty()) {
+            return;
+        }
+        List<Region> rlist = writeTriggers.get(stmtId);
+        List<Region> nlist = writeTriggers.get(namespaceOf(stmtId));
+        if (rlist == null && nlist == null) {
+            return;
+        }
+        if (!sm.isManagedSessionStarted()) {
+            // Statement is already committed by the auto session
+            invalidate(rlist);
+            invalidate(nlist);
+            return;
+        }
+        Set<Region> pset = pending.get();
+        if (pset == null) {
+            pset = new HashSet<>();
+            pending.set(pset);
+            sm.registerNextEventSessionListener(new PendingRegionsListener());
+        }
+        if (rlist != null) {
+            pset.addAll(rlist);
+        }
+        if (nlist != null) {
+            pset.addAll(nlist);
+        }
+    }
+
+    private static void invalidate(@Nullable List<Region> rlist) {
+        if (rlist != null) {
+            for (Region r : rlist) {
+                r.invalidate();
+            }
+        }
+    }
+
+    private void flushPending() {
+        Set<Region> pset = pending.get();
+        pending.remove();
+        if (pset != null) {
+            for (Region r : pset) {
+                r.invalidate();
+            }
+        }
+    }
+
+    static String namespaceOf(String stmtId) {
+        int idx = stmtId.lastIndexOf('.');
+        return (idx == -1) ? "" : stmtId.substring(0, idx);
+    }
+
+    private static final Object NULL = new Object();
+
+    private class PendingRegionsListener extends MBSqlSessionListenerSupport {
+
+        @Override
+        public void commit(boolean success) {
+            // Evict regardless of commit success, a partially
+            // failed commit must not leave stale entries
+            flushPending();
+        }
+
+        @Override
+        public void rollback() {
+            // Entries cached by other threads are still valid
+            pending.remove();
+        }
+
+        @Override
+        public void close(boolean success) {
+            flushPending();
+        }
+    }
+
+    private static final class Region {
+
+        private final String name;
+
+        private final AtomicLong version = new AtomicLong();
+
+        private final List<StatementCache> statements = new CopyOnWriteArrayList<>();
+
+        private Region(String name) {
+            this.name = name;
+        }
+
+        private void invalidate() {
+            version.incrementAndGet();
+            for (StatementCache sc : statements) {
+                sc.clear();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Region{" + name + '}';
+        }
+    }
+
+    private static final class StatementCache {
+
+        private final String stmtId;
+
+        private final Region region;
+
+        private final long ttl;
+
+        private final int maxEntries;
+
+        private final LinkedHashMap<Key, Entry> entries;
+
+        private StatementCache(String stmtId, Region region, long ttl, int maxEntries) {
+            this.stmtId = stmtId;
+            this.region = region;
+            this.ttl = ttl;
+            this.maxEntries = maxEntries;
+            this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    return size() > StatementCache.this.maxEntries;
+                }
+            };
+        }
+
+        @Nullable
+        private synchronized Object get(Key key) {
+            Entry e = entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            if (e.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return e.value;
+        }
+
+        private synchronized void put(Key key, Object value, long version) {
+            // Region is invalidated while the value was loaded
+            if (region.version.get() != version) {
+                return;
+            }
+            entries.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+        }
+
+        @Override
+        public String toString() {
+            return "StatementCache{" + stmtId + '}';
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+
+        private final long expires;
+
+        private Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Key {
+
+        private final Object param;
+
+        private final int hash;
+
+        private Key(@Nullable Object param) {
+            this.param = (param instanceof Object[]) ? new ArrayList<>(Arrays.asList((Object[]) param)) : param;
+            this.hash = Objects.hashCode(this.param);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hash == key.hash && Objects.equals(param, key.param);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
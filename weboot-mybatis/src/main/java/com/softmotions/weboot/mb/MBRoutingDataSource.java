@@ -0,0 +1,306 @@
+package com.softmotions.weboot.mb;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Datasource routing connections of read only units of work
+ * to the pool of replica datasources.
+ * <p/>
+ * Connections are routed to replicas only while the current thread
+ * is marked as read only by {@link MBSqlSessionManager#startManagedSession(
+ *org.apache.ibatis.session.ExecutorType, org.apache.ibatis.session.TransactionIsolationLevel, boolean)}.
+ * Managed session obtains its connection once, so all statements of the session
+ * are executed on the same replica.
+ * <p/>
+ * Replica which fails to provide a connection is excluded from routing
+ * for the configured retry interval. If no healthy replica is available
+ * connection is obtained from the primary datasource.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBRoutingDataSource implements DataSource {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(MBRoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_CONNECTIONS
+    }
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final Strategy strategy;
+
+    private final long retryInterval;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * @param primary       Primary datasource
+     * @param replicas      Replica datasources
+     * @param strategy      Replica selection strategy
+     * @param retryInterval Time in milliseconds a failed replica is excluded from routing
+     */
+    public MBRoutingDataSource(DataSource primary,
+                               List<DataSource> replicas,
+                               Strategy strategy,
+                               long retryInterval) {
+        this.primary = primary;
+        this.strategy = strategy;
+        this.retryInterval = retryInterval;
+        List<Replica> rlist = new ArrayList<>(replicas.size());
+        for (int i = 0; i < replicas.size(); ++i) {
+            rlist.add(new Replica(i, replicas.get(i)));
+        }
+        this.replicas = Collections.unmodifiableList(rlist);
+    }
+
+    static void setReadOnly(boolean readOnly) {
+        if (readOnly) {
+            READ_ONLY.set(Boolean.TRUE);
+        } else {
+            READ_ONLY.remove();
+        }
+    }
+
+    static boolean isReadOnly() {
+        return READ_ONLY.get() != null;
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public int getReplicasCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (isReadOnly()) {
+            Connection c = getReplicaConnection(null, null);
+            if (c != null) {
+                return c;
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (isReadOnly()) {
+            Connection c = getReplicaConnection(username, password);
+            if (c != null) {
+                return c;
+            }
+        }
+        return primary.getConnection(username, password);
+    }
+
+    private Connection getReplicaConnection(String username, String password) {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int start = selectReplica(now);
+        for (int i = 0; i < size; ++i) {
+            Replica r = replicas.get((start + i) % size);
+            if (r.downUntil > now) {
+                continue;
+            }
+            try {
+                return r.getConnection(username, password);
+            } catch (SQLException e) {
+                r.downUntil = now + retryInterval;
+                log.error("Failed to get connection from the replica #{}, " +
+                          "it will be excluded from routing for {}ms", r.idx, retryInterval, e);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("No healthy replicas available, falling back to the primary datasource");
+        }
+        return null;
+    }
+
+    private int selectReplica(long now) {
+        int size = replicas.size();
+        if (strategy == Strategy.LEAST_CONNECTIONS) {
+            int best = -1;
+            int bestActive = Integer.MAX_VALUE;
+            for (int i = 0; i < size; ++i) {
+                Replica r = replicas.get(i);
+                int active = r.active.get();
+                if (r.downUntil <= now && active < bestActive) {
+                    best = i;
+                    bestActive = active;
+                }
+            }
+            if (best != -1) {
+                return best;
+            }
+        }
+        return Math.floorMod(counter.getAndIncrement(), size);
+    }
+
+    /**
+     * Close all connections of the pooled primary and replica datasources.
+     */
+    public void forceCloseAll() {
+        for (DataSource ds : getDataSources()) {
+            if (ds instanceof PooledDataSource) {
+                ((PooledDataSource) ds).forceCloseAll();
+            } else {
+                log.warn("Unknown datasource found: {} it will not be closed", ds.getClass().getName());
+            }
+        }
+    }
+
+    private List<DataSource> getDataSources() {
+        List<DataSource> res = new ArrayList<>(replicas.size() + 1);
+        res.add(primary);
+        for (Replica r : replicas) {
+            res.add(r.ds);
+        }
+        return res;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        for (DataSource ds : getDataSources()) {
+            ds.setLogWriter(out);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        for (DataSource ds : getDataSources()) {
+            ds.setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "MBRoutingDataSource{" +
+               "replicas=" + replicas.size() +
+               ", strategy=" + strategy +
+               '}';
+    }
+
+    private static final class Replica {
+
+        private final int idx;
+
+        private final DataSource ds;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private volatile long downUntil;
+
+        private Replica(int idx, DataSource ds) {
+            this.idx = idx;
+            this.ds = ds;
+        }
+
+        private Connection getConnection(String username, String password) throws SQLException {
+            Connection c = (username != null) ? ds.getConnection(username, password) : ds.getConnection();
+            try {
+                c.setReadOnly(true);
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    c.close();
+                } catch (SQLException ce) {
+                    e.addSuppressed(ce);
+                }
+                throw e;
+            }
+            active.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class[]{Connection.class},
+                    new ReplicaConnectionHandler(this, c));
+        }
+    }
+
+    /**
+     * Tracks the number of active replica connections.
+     */
+    private static final class ReplicaConnectionHandler implements InvocationHandler {
+
+        private final Replica replica;
+
+        private final Connection target;
+
+        private boolean closed;
+
+        private ReplicaConnectionHandler(Replica replica, Connection target) {
+            this.replica = replica;
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                synchronized (this) {
+                    if (!closed) {
+                        closed = true;
+                        replica.active.decrementAndGet();
+                    }
+                }
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -14,6 +14,8 @@ import org.apache.ibatis.session.TransactionIsolationLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -21,18 +23,40 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Adamansky Anton (adamansky@gmail.com)
  */
 public class MBSqlSessionManager implements SqlSessionFactory, SqlSession {
 
+    /**
+     * Default number of threads of the default {@link #getParallelExecutor()}.
+     */
+    public static final int DEFAULT_PARALLELISM =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private static final Logger log = LoggerFactory.getLogger(MBSqlSessionManager.class);
     private final SqlSessionFactory sqlSessionFactory;
     private final SqlSession sqlSessionProxy;
     private final ThreadLocal<SqlSession> localSqlSession = new ThreadLocal<>();
     private final ThreadLocal<ArrayList<MBSqlSessionListener>> localSqlSessionListeners = new ThreadLocal<>();
-
+    private volatile MBResultCache resultCache;
+    private volatile Executor parallelExecutor;
+    private ThreadPoolExecutor defaultParallelExecutor;
+    private int parallelism = DEFAULT_PARALLELISM;
 
     public static MBSqlSessionManager newInstance(SqlSessionFactory sqlSessionFactory) {
         return new MBSqlSessionManager(sqlSessionFactory);
@@ -46,6 +70,96 @@ public class MBSqlSessionManager implements SqlSessionFactory, SqlSession {
                 new SqlSessionInterceptor());
     }
 
+    /**
+     * Returns statement results cache or {@code null} if it is not configured.
+     */
+    public MBResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(MBResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns executor used by {@link #selectParallel(long, TimeUnit, List)}.
+     * If no executor is set a shared pool of {@link #getParallelism()} daemon threads
+     * is created on demand. Queries exceeding the parallelism wait in the pool queue
+     * without holding database connections.
+     */
+    public Executor getParallelExecutor() {
+        Executor exec = parallelExecutor;
+        if (exec == null) {
+            synchronized (this) {
+                exec = parallelExecutor;
+                if (exec == null) {
+                    exec = parallelExecutor = defaultParallelExecutor = createDefaultParallelExecutor(parallelism);
+                }
+            }
+        }
+        return exec;
+    }
+
+    /**
+     * Set executor used by {@link #selectParallel(long, TimeUnit, List)}.
+     * Every running query holds its own database connection
+     * so the executor must bound the number of concurrently running tasks
+     * below the size of the connection pool.
+     */
+    public void setParallelExecutor(Executor parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    /**
+     * Number of threads of the default parallel executor.
+     */
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads of the default parallel executor,
+     * it should be less than the size of the connection pool.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        ThreadPoolExecutor exec = defaultParallelExecutor;
+        if (exec != null) {
+            if (parallelism > exec.getMaximumPoolSize()) {
+                exec.setMaximumPoolSize(parallelism);
+                exec.setCorePoolSize(parallelism);
+            } else {
+                exec.setCorePoolSize(parallelism);
+                exec.setMaximumPoolSize(parallelism);
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor createDefaultParallelExecutor(int parallelism) {
+        AtomicInteger cnt = new AtomicInteger();
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(
+                parallelism, parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "mybatis-parallel-" + cnt.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        exec.allowCoreThreadTimeOut(true);
+        return exec;
+    }
+
+    /**
+     * Notifies statement results cache about executed write statement.
+     */
+    void fireWrite(String statement) {
+        final MBResultCache rc = resultCache;
+        if (rc != null) {
+            rc.onWrite(this, statement);
+        }
+    }
+
     public void startManagedSession() {
         this.localSqlSession.set(openSession());
     }
@@ -78,10 +192,202 @@ public class MBSqlSessionManager implements SqlSessionFactory, SqlSession {
         this.localSqlSession.set(openSession(execType, connection));
     }
 
+    /**
+     * Start managed session. If {@code readOnly} is true connection of the session
+     * will be obtained from the read replica when {@link MBRoutingDataSource} is configured.
+     */
+    public void startManagedSession(ExecutorType execType, TransactionIsolationLevel level, boolean readOnly) {
+        MBRoutingDataSource.setReadOnly(readOnly);
+        try {
+            this.localSqlSession.set(openSession(execType, level));
+        } catch (RuntimeException e) {
+            MBRoutingDataSource.setReadOnly(false);
+            throw e;
+        }
+    }
+
     public boolean isManagedSessionStarted() {
         return this.localSqlSession.get() != null;
     }
 
+    /**
+     * Executes the given action within a session using {@link ExecutorType#BATCH} executor.
+     * <p/>
+     * If a managed session is started the batch session shares its connection
+     * and its transaction. Pending statements of the managed session are flushed before.
+     * The batch session is flushed if the action succeeds and then closed
+     * but it never commits, rolls back or closes the shared connection:
+     * transaction is completed by the managed session.
+     * <p/>
+     * Otherwise a standalone batch session is opened, committed
+     * if the action succeeds (rolled back otherwise) and closed.
+     */
+    public <T> T withBatchSession(Function<SqlSession, T> action) {
+        final SqlSession managed = localSqlSession.get();
+        if (managed != null) {
+            managed.flushStatements();
+            SqlSession bsess = openSession(ExecutorType.BATCH, sharedConnection(managed.getConnection()));
+            try {
+                T result = action.apply(bsess);
+                bsess.flushStatements();
+                return result;
+            } finally {
+                // Statements not flushed due to failure are discarded
+                bsess.close();
+                managed.clearCache();
+            }
+        }
+        final SqlSession bsess = openSession(ExecutorType.BATCH, false);
+        try {
+            T result = action.apply(bsess);
+            bsess.flushStatements();
+            bsess.commit(true);
+            return result;
+        } catch (Throwable t) {
+            bsess.rollback(true);
+            throw t;
+        } finally {
+            bsess.close();
+        }
+    }
+
+    /**
+     * Selects records as a lazy stream backed by MyBatis {@link Cursor}.
+     * <p/>
+     * The stream holds the database connection until it is closed
+     * so it must be used in try-with-resources block.
+     * If no managed session is started a new session is opened
+     * for the stream and closed along with the stream.
+     *
+     * @param fetchSize JDBC fetch size. Positive fetch size
+     *                  along with disabled auto commit makes PostgreSQL driver
+     *                  to fetch rows by chunks instead of buffering the whole result.
+     */
+    public <E> Stream<E> selectStream(String statement, Object parameter, int fetchSize) {
+        final SqlSession managed = localSqlSession.get();
+        final SqlSession sqlSession = (managed != null) ? managed : openSession(false);
+        final Cursor<E> cursor;
+        MBFetchSizeInterceptor.setFetchSize(fetchSize);
+        try {
+            cursor = sqlSession.selectCursor(statement, parameter);
+        } catch (Throwable t) {
+            if (managed == null) {
+                sqlSession.close();
+            }
+            throw t;
+        } finally {
+            MBFetchSizeInterceptor.clearFetchSize();
+        }
+        return StreamSupport.stream(cursor.spliterator(), false).onClose(() -> {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                if (managed == null) {
+                    sqlSession.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the given independent read queries concurrently
+     * using {@link #getParallelExecutor()}.
+     *
+     * @see #selectParallel(Executor, long, TimeUnit, List)
+     */
+    public <T> List<T> selectParallel(long timeout, TimeUnit unit,
+                                      List<? extends Function<SqlSession, ? extends T>> queries) {
+        return selectParallel(getParallelExecutor(), timeout, unit, queries);
+    }
+
+    /**
+     * Executes the given independent read queries concurrently.
+     * Every query is executed on its own auto commit session opened
+     * by the executor thread, results are returned in the order of queries.
+     * <p/>
+     * Queries do not participate in the managed session of the calling thread
+     * so they do not see its uncommitted changes, the managed session
+     * itself is left untouched. If the calling thread is within a read only
+     * managed session queries are routed to the read replicas as well.
+     * <p/>
+     * Every running query borrows its own connection from the pool.
+     * A caller within a managed session keeps holding the session connection
+     * while it waits for the queries, so the connection pool must be larger
+     * than the parallelism of the executor plus the number of such concurrent callers,
+     * otherwise queries wait for free connections until the timeout.
+     * <p/>
+     * The first failed query fails the whole call, its exception is rethrown.
+     * If not all queries are completed within the timeout {@link SqlSessionException}
+     * is thrown. Sessions of the queries which are still running are closed
+     * as soon as the queries complete.
+     */
+    public <T> List<T> selectParallel(Executor executor, long timeout, TimeUnit unit,
+                                      List<? extends Function<SqlSession, ? extends T>> queries) {
+        final int size = queries.size();
+        final boolean readOnly = MBRoutingDataSource.isReadOnly();
+        final CompletableFuture<Void> failure = new CompletableFuture<>();
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<T>[] futures = new CompletableFuture[size];
+        for (int i = 0; i < size; ++i) {
+            final Function<SqlSession, ? extends T> query = queries.get(i);
+            futures[i] = CompletableFuture.supplyAsync(() -> {
+                if (failure.isDone()) {
+                    throw new CancellationException();
+                }
+                // Executor may run the query in the calling thread
+                final boolean prevReadOnly = MBRoutingDataSource.isReadOnly();
+                MBRoutingDataSource.setReadOnly(readOnly);
+                try (SqlSession sess = openSession(true)) {
+                    return query.apply(sess);
+                } finally {
+                    MBRoutingDataSource.setReadOnly(prevReadOnly);
+                }
+            }, executor);
+            futures[i].whenComplete((r, e) -> {
+                if (e != null) {
+                    failure.completeExceptionally(e);
+                }
+            });
+        }
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(futures), failure).get(timeout, unit);
+        } catch (TimeoutException e) {
+            cancelAll(futures);
+            throw new SqlSessionException("Parallel queries are not completed within " +
+                                          unit.toMillis(timeout) + "ms", e);
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new SqlSessionException("Interrupted while waiting for parallel queries", e);
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SqlSessionException(cause);
+        }
+        List<T> res = new ArrayList<>(size);
+        for (CompletableFuture<T> f : futures) {
+            res.add(f.join());
+        }
+        return res;
+    }
+
+    private static void cancelAll(CompletableFuture<?>[] futures) {
+        for (CompletableFuture<?> f : futures) {
+            f.cancel(false);
+        }
+    }
+
     @Override
     public SqlSession openSession() {
         return sqlSessionFactory.openSession();
@@ -184,32 +490,44 @@ public class MBSqlSessionManager implements SqlSessionFactory, SqlSession {
 
     @Override
     public int insert(String statement) {
-        return sqlSessionProxy.insert(statement);
+        int ret = sqlSessionProxy.insert(statement);
+        fireWrite(statement);
+        return ret;
     }
 
     @Override
     public int insert(String statement, Object parameter) {
-        return sqlSessionProxy.insert(statement, parameter);
+        int ret = sqlSessionProxy.insert(statement, parameter);
+        fireWrite(statement);
+        return ret;
     }
 
     @Override
     public int update(String statement) {
-        return sqlSessionProxy.update(statement);
+        int ret = sqlSessionProxy.update(statement);
+        fireWrite(statement);
+        return ret;
     }
 
     @Override
     public int update(String statement, Object parameter) {
-        return sqlSessionProxy.update(statement, parameter);
+        int ret = sqlSessionProxy.update(statement, parameter);
+        fireWrite(statement);
+        return ret;
     }
 
     @Override
     public int delete(String statement) {
-        return sqlSessionProxy.delete(statement);
+        int ret = sqlSessionProxy.delete(statement);
+        fireWrite(statement);
+        return ret;
     }
 
     @Override
     public int delete(String statement, Object parameter) {
-        return sqlSessionProxy.delete(statement, parameter);
+        int ret = sqlSessionProxy.delete(statement, parameter);
+        fireWrite(statement);
+        return ret;
     }
 
     @Override
@@ -317,6 +635,7 @@ public class MBSqlSessionManager implements SqlSessionFactory, SqlSession {
         } finally {
             try {
                 localSqlSession.remove();
+                MBRoutingDataSource.setReadOnly(false);
             } finally {
                 fireClose(success, true);
             }
@@ -398,6 +717,39 @@ public class MBSqlSessionManager implements SqlSessionFactory, SqlSession {
         }
     }
 
+    /**
+     * Connection of the managed session used by another session.
+     * Transaction completion and closing are left to the managed session,
+     * savepoint operations are passed to the connection.
+     */
+    private static Connection sharedConnection(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "commit":
+                        case "rollback":
+                            if (method.getParameterCount() == 0) {
+                                return null;
+                            }
+                            break;
+                        case "close":
+                        case "setAutoCommit":
+                            return null;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (Throwable t) {
+                        throw ExceptionUtil.unwrapThrowable(t);
+                    }
+                });
+    }
+
     private class SqlSessionInterceptor implements InvocationHandler {
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -16,9 +16,22 @@ public class MBSqlSessionManagerProvider implements Provider<MBSqlSessionManager
 
     private MBSqlSessionManager sqlSessionManager;
 
+    private MBResultCache resultCache;
+
     @Inject
     public void createNewSqlSessionManager(SqlSessionFactory sqlSessionFactory) {
         this.sqlSessionManager = MBSqlSessionManager.newInstance(sqlSessionFactory);
+        if (resultCache != null) {
+            sqlSessionManager.setResultCache(resultCache);
+        }
+    }
+
+    @com.google.inject.Inject(optional = true)
+    public void setResultCache(MBResultCache resultCache) {
+        this.resultCache = resultCache;
+        if (sqlSessionManager != null) {
+            sqlSessionManager.setResultCache(resultCache);
+        }
     }
 
     @Override
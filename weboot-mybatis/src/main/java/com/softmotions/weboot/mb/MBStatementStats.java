@@ -0,0 +1,306 @@
+package com.softmotions.weboot.mb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execution time and row count statistics of mapped statements
+ * collected by {@link MBStatementStatsInterceptor}.
+ * <p/>
+ * Execution times are accumulated into per statement histograms
+ * with power of two buckets, so recording is lock free and
+ * percentiles are approximated within the bucket precision.
+ * Statements executed longer than {@link #getSlowThreshold()}
+ * are logged with their bound parameters redacted.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBStatementStats implements MBStatementStatsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MBStatementStats.class);
+
+    /**
+     * Number of histogram buckets, bucket {@code i} holds executions
+     * taken less than {@code 2^i} microseconds.
+     */
+    private static final int BUCKETS = 40;
+
+    private final ConcurrentHashMap<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    private volatile long slowThreshold;
+
+    /**
+     * @param slowThreshold Slow statement threshold in milliseconds,
+     *                      zero or negative value disables logging of slow statements.
+     */
+    public MBStatementStats(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    @Override
+    public long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    @Override
+    public void setSlowThreshold(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    @Override
+    public int getStatementsCount() {
+        return metrics.size();
+    }
+
+    /**
+     * Record statement execution.
+     *
+     * @param stmtId   Mapped statement id
+     * @param nanos    Execution time in nanoseconds
+     * @param rows     Number of selected/affected rows or {@code -1} if unknown
+     * @param sql      SQL text supplier used to log slow statement
+     * @param failed   True if statement execution failed
+     */
+    void record(String stmtId, long nanos, long rows, boolean failed, Supplier<String> sql) {
+        Metrics m = metrics.get(stmtId);
+        if (m == null) {
+            m = metrics.computeIfAbsent(stmtId, Metrics::new);
+        }
+        m.record(nanos, rows, failed);
+        long st = slowThreshold;
+        if (st > 0 && nanos >= TimeUnit.MILLISECONDS.toNanos(st) && log.isWarnEnabled()) {
+            log.warn("Slow statement: {} time: {}ms rows: {}{} sql: {}",
+                     stmtId, TimeUnit.NANOSECONDS.toMillis(nanos), rows,
+                     failed ? " FAILED" : "", sql.get());
+        }
+    }
+
+    /**
+     * Returns statistics snapshot of all executed statements.
+     */
+    public List<Snapshot> getSnapshot() {
+        List<Snapshot> res = new ArrayList<>(metrics.size());
+        for (Metrics m : metrics.values()) {
+            res.add(m.snapshot());
+        }
+        return res;
+    }
+
+    /**
+     * Returns {@code n} statements with the greatest mean execution time.
+     */
+    @Override
+    public List<Snapshot> getTopSlowest(int n) {
+        return top(n, Comparator.comparingDouble(Snapshot::getMeanMillis));
+    }
+
+    /**
+     * Returns {@code n} most frequently executed statements.
+     */
+    @Override
+    public List<Snapshot> getTopFrequent(int n) {
+        return top(n, Comparator.comparingLong(Snapshot::getCount));
+    }
+
+    /**
+     * Returns {@code n} statements with the greatest total execution time.
+     */
+    @Override
+    public List<Snapshot> getTopTotalTime(int n) {
+        return top(n, Comparator.comparingDouble(Snapshot::getTotalMillis));
+    }
+
+    private List<Snapshot> top(int n, Comparator<Snapshot> cmp) {
+        List<Snapshot> res = getSnapshot();
+        res.sort(cmp.reversed());
+        return (res.size() > n) ? new ArrayList<>(res.subList(0, Math.max(n, 0))) : res;
+    }
+
+    @Override
+    public void reset() {
+        metrics.clear();
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000L;
+        int b = 64 - Long.numberOfLeadingZeros(micros);
+        return (b < BUCKETS) ? b : BUCKETS - 1;
+    }
+
+    private static final class Metrics {
+
+        private final String stmtId;
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAdder rows = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private Metrics(String stmtId) {
+            this.stmtId = stmtId;
+        }
+
+        private void record(long nanos, long nrows, boolean failed) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            histogram.incrementAndGet(bucketOf(nanos));
+            if (failed) {
+                errors.increment();
+            }
+            if (nrows > 0) {
+                rows.add(nrows);
+            }
+        }
+
+        private Snapshot snapshot() {
+            long[] hist = new long[BUCKETS];
+            long hcount = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                hist[i] = histogram.get(i);
+                hcount += hist[i];
+            }
+            return new Snapshot(stmtId,
+                                count.sum(),
+                                errors.sum(),
+                                rows.sum(),
+                                nanosToMillis(totalNanos.sum()),
+                                nanosToMillis(maxNanos.get()),
+                                percentile(hist, hcount, 0.5),
+                                percentile(hist, hcount, 0.95),
+                                percentile(hist, hcount, 0.99));
+        }
+
+        /**
+         * Upper bound of the bucket containing the given percentile in milliseconds.
+         */
+        private static double percentile(long[] hist, long hcount, double p) {
+            if (hcount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(hcount * p);
+            long acc = 0;
+            for (int i = 0; i < hist.length; ++i) {
+                acc += hist[i];
+                if (acc >= rank) {
+                    return (1L << i) / 1000.0;
+                }
+            }
+            return (1L << (hist.length - 1)) / 1000.0;
+        }
+
+        private static double nanosToMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Statistics of a single mapped statement.
+     */
+    public static final class Snapshot {
+
+        private final String statement;
+
+        private final long count;
+
+        private final long errors;
+
+        private final long rows;
+
+        private final double totalMillis;
+
+        private final double maxMillis;
+
+        private final double p50Millis;
+
+        private final double p95Millis;
+
+        private final double p99Millis;
+
+        Snapshot(String statement, long count, long errors, long rows,
+                 double totalMillis, double maxMillis,
+                 double p50Millis, double p95Millis, double p99Millis) {
+            this.statement = statement;
+            this.count = count;
+            this.errors = errors;
+            this.rows = rows;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+        }
+
+        public String getStatement() {
+            return statement;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public double getTotalMillis() {
+            return totalMillis;
+        }
+
+        public double getMeanMillis() {
+            return (count > 0) ? totalMillis / count : 0;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP95Millis() {
+            return p95Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                   "statement='" + statement + '\'' +
+                   ", count=" + count +
+                   ", errors=" + errors +
+                   ", rows=" + rows +
+                   ", totalMillis=" + totalMillis +
+                   ", maxMillis=" + maxMillis +
+                   ", p50Millis=" + p50Millis +
+                   ", p95Millis=" + p95Millis +
+                   ", p99Millis=" + p99Millis +
+                   '}';
+        }
+    }
+}
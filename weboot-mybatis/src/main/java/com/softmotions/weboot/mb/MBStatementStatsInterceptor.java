@@ -0,0 +1,116 @@
+package com.softmotions.weboot.mb;
+
+import java.util.Collection;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * Records execution time and row counts of mapped statements
+ * into {@link MBStatementStats}.
+ * <p/>
+ * Slow statements are logged by SQL text with placeholders only,
+ * values of bound parameters are never logged.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@Intercepts({
+        @Signature(type = Executor.class,
+                   method = "update",
+                   args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class,
+                   method = "query",
+                   args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class,
+                   method = "query",
+                   args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class,
+                           CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class,
+                   method = "queryCursor",
+                   args = {MappedStatement.class, Object.class, RowBounds.class})
+})
+public class MBStatementStatsInterceptor implements Interceptor {
+
+    private final MBStatementStats stats;
+
+    public MBStatementStatsInterceptor(MBStatementStats stats) {
+        this.stats = stats;
+    }
+
+    public MBStatementStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        final Object[] args = invocation.getArgs();
+        final MappedStatement ms = (MappedStatement) args[0];
+        final long start = System.nanoTime();
+        boolean failed = true;
+        Object ret = null;
+        try {
+            ret = invocation.proceed();
+            failed = false;
+            return ret;
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            stats.record(ms.getId(), nanos, rowsOf(ret), failed, () -> {
+                BoundSql bsql = (args.length > 5) ? (BoundSql) args[5] : ms.getBoundSql(args[1]);
+                return redacted(bsql);
+            });
+        }
+    }
+
+    private static long rowsOf(Object ret) {
+        if (ret instanceof Integer) {
+            // Negative values are returned by batch executors
+            int rows = (Integer) ret;
+            return (rows >= 0) ? rows : -1;
+        } else if (ret instanceof Collection) {
+            return ((Collection) ret).size();
+        }
+        return -1;
+    }
+
+    private static String redacted(BoundSql bsql) {
+        StringBuilder sb = new StringBuilder(bsql.getSql().length());
+        boolean ws = false;
+        String sql = bsql.getSql();
+        for (int i = 0, l = sql.length(); i < l; ++i) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                ws = true;
+                continue;
+            }
+            if (ws && sb.length() > 0) {
+                sb.append(' ');
+            }
+            ws = false;
+            sb.append(c);
+        }
+        int pcount = bsql.getParameterMappings().size();
+        if (pcount > 0) {
+            sb.append(" [").append(pcount).append(" parameters redacted]");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return (target instanceof Executor) ? Plugin.wrap(target, this) : target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+}
@@ -0,0 +1,25 @@
+package com.softmotions.weboot.mb;
+
+import java.util.List;
+
+/**
+ * JMX interface of {@link MBStatementStats}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public interface MBStatementStatsMXBean {
+
+    long getSlowThreshold();
+
+    void setSlowThreshold(long slowThreshold);
+
+    int getStatementsCount();
+
+    List<MBStatementStats.Snapshot> getTopSlowest(int n);
+
+    List<MBStatementStats.Snapshot> getTopFrequent(int n);
+
+    List<MBStatementStats.Snapshot> getTopTotalTime(int n);
+
+    void reset();
+}
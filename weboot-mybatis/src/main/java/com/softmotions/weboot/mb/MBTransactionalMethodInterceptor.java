@@ -4,12 +4,15 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.TransactionIsolationLevel;
 import org.mybatis.guice.transactional.Transactional;
 
 import javax.inject.Inject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.String.format;
 import static java.lang.Thread.currentThread;
@@ -36,6 +39,11 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
     @Inject
     private MBSqlSessionManager sqlSessionManager;
 
+    /**
+     * Resolved transaction attributes of intercepted methods.
+     */
+    private final ConcurrentHashMap<Method, TxAttributes> txAttributes = new ConcurrentHashMap<>();
+
     /**
      * Sets the SqlSessionManager instance.
      *
@@ -51,49 +59,42 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable {
         Method interceptedMethod = invocation.getMethod();
-        Transactional transactional = ClassUtils.getAnnotation(interceptedMethod, Transactional.class);
-
-        // The annotation may be present at the class level instead
-        if (transactional == null) {
-            transactional = interceptedMethod.getDeclaringClass().getAnnotation(Transactional.class);
+        TxAttributes tx = txAttributes.get(interceptedMethod);
+        if (tx == null) {
+            tx = txAttributes.computeIfAbsent(interceptedMethod, TxAttributes::new);
         }
-
-        String debugPrefix = null;
-        if (this.log.isDebugEnabled()) {
-            debugPrefix = format("[Intercepted method: %s]", interceptedMethod.toGenericString());
-        }
-
+        boolean debug = log.isDebugEnabled();
         boolean isSessionInherited = this.sqlSessionManager.isManagedSessionStarted();
 
         if (isSessionInherited) {
-            if (log.isDebugEnabled()) {
+            if (debug) {
                 log.debug(format("%s - SqlSession already set for thread: %s",
-                                 debugPrefix,
+                                 tx.debugPrefix(),
                                  currentThread().getId()));
             }
         } else {
-            if (log.isDebugEnabled()) {
+            if (debug) {
                 log.debug(format("%s - SqlSession not set for thread: %s, creating a new one",
-                                 debugPrefix,
+                                 tx.debugPrefix(),
                                  currentThread().getId()));
             }
 
-            sqlSessionManager.startManagedSession(transactional.executorType(), transactional.isolation().getTransactionIsolationLevel());
+            sqlSessionManager.startManagedSession(tx.executorType, tx.isolationLevel, tx.readOnly);
         }
 
         Object object = null;
-        boolean needsRollback = transactional.rollbackOnly();
+        boolean needsRollback = tx.rollbackOnly;
         try {
             object = invocation.proceed();
         } catch (Throwable t) {
             needsRollback = true;
-            throw convertThrowableIfNeeded(invocation, transactional, t);
+            throw convertThrowableIfNeeded(invocation, tx, t);
         } finally {
             if (!isSessionInherited) {
                 try {
                     if (needsRollback) {
-                        if (log.isDebugEnabled()) {
-                            log.debug(debugPrefix
+                        if (debug) {
+                            log.debug(tx.debugPrefix()
                                       + " - SqlSession of thread: "
                                       + currentThread().getId()
                                       + " rolling back");
@@ -101,27 +102,27 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
 
                         sqlSessionManager.rollback(true);
                     } else {
-                        if (log.isDebugEnabled()) {
-                            log.debug(debugPrefix
+                        if (debug) {
+                            log.debug(tx.debugPrefix()
                                       + " - SqlSession of thread: "
                                       + currentThread().getId()
                                       + " committing");
                         }
 
-                        sqlSessionManager.commit(transactional.force());
+                        sqlSessionManager.commit(tx.force);
                     }
                 } finally {
-                    if (log.isDebugEnabled()) {
+                    if (debug) {
                         log.debug(format("%s - SqlSession of thread: %s terminated its life-cycle, closing it",
-                                         debugPrefix,
+                                         tx.debugPrefix(),
                                          currentThread().getId()));
                     }
 
                     sqlSessionManager.close();
                 }
-            } else if (log.isDebugEnabled()) {
+            } else if (debug) {
                 log.debug(format("%s - SqlSession of thread: %s is inherited, skipped close operation",
-                                 debugPrefix,
+                                 tx.debugPrefix(),
                                  currentThread().getId()));
             }
         }
@@ -129,18 +130,16 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
         return object;
     }
 
-    private Throwable convertThrowableIfNeeded(MethodInvocation invocation, Transactional transactional, Throwable t) {
-        Method interceptedMethod = invocation.getMethod();
-
+    private Throwable convertThrowableIfNeeded(MethodInvocation invocation, TxAttributes tx, Throwable t) {
         // check the caught exception is declared in the invoked method
-        for (Class<?> exceptionClass : interceptedMethod.getExceptionTypes()) {
+        for (Class<?> exceptionClass : tx.exceptionTypes) {
             if (exceptionClass.isAssignableFrom(t.getClass())) {
                 return t;
             }
         }
 
         // check the caught exception is of same rethrow type
-        if (transactional.rethrowExceptionsAs().isAssignableFrom(t.getClass())) {
+        if (tx.rethrowExceptionsAs.isAssignableFrom(t.getClass())) {
             return t;
         }
 
@@ -149,8 +148,8 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
         Object[] initargs;
         Class<?>[] initargsType;
 
-        if (!transactional.exceptionMessage().isEmpty()) {
-            errorMessage = format(transactional.exceptionMessage(), invocation.getArguments());
+        if (!tx.exceptionMessage.isEmpty()) {
+            errorMessage = format(tx.exceptionMessage, invocation.getArguments());
             initargs = new Object[]{errorMessage, t};
             initargsType = MESSAGE_CAUSE_TYPES;
         } else {
@@ -158,21 +157,21 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
             initargsType = CAUSE_TYPES;
         }
 
-        Constructor<? extends Throwable> exceptionConstructor = getMatchingConstructor(transactional.rethrowExceptionsAs(), initargsType);
+        Constructor<? extends Throwable> exceptionConstructor = tx.exceptionConstructor;
         Throwable rethrowEx = null;
         if (exceptionConstructor != null) {
             try {
                 rethrowEx = exceptionConstructor.newInstance(initargs);
             } catch (Exception e) {
                 errorMessage = format("Impossible to re-throw '%s', it needs the constructor with %s argument(s).",
-                                      transactional.rethrowExceptionsAs().getName(),
+                                      tx.rethrowExceptionsAs.getName(),
                                       Arrays.toString(initargsType));
                 log.error(errorMessage, e);
                 rethrowEx = new RuntimeException(errorMessage, e);
             }
         } else {
             errorMessage = format("Impossible to re-throw '%s', it needs the constructor with %s or %s argument(s).",
-                                  transactional.rethrowExceptionsAs().getName(),
+                                  tx.rethrowExceptionsAs.getName(),
                                   Arrays.toString(CAUSE_TYPES),
                                   Arrays.toString(MESSAGE_CAUSE_TYPES));
             log.error(errorMessage);
@@ -182,6 +181,67 @@ public class MBTransactionalMethodInterceptor implements MethodInterceptor {
         return rethrowEx;
     }
 
+    /**
+     * Transaction attributes of the intercepted method
+     * resolved once from its {@link Transactional} annotation.
+     */
+    private static final class TxAttributes {
+
+        private final Method method;
+
+        private final ExecutorType executorType;
+
+        private final TransactionIsolationLevel isolationLevel;
+
+        private final boolean rollbackOnly;
+
+        private final boolean force;
+
+        private final boolean readOnly;
+
+        private final Class<? extends Throwable> rethrowExceptionsAs;
+
+        private final String exceptionMessage;
+
+        private final Class<?>[] exceptionTypes;
+
+        private final Constructor<? extends Throwable> exceptionConstructor;
+
+        private String debugPrefix;
+
+        private TxAttributes(Method method) {
+            Transactional transactional = ClassUtils.getAnnotation(method, Transactional.class);
+            // The annotation may be present at the class level instead
+            if (transactional == null) {
+                transactional = method.getDeclaringClass().getAnnotation(Transactional.class);
+            }
+            if (transactional == null) {
+                throw new IllegalStateException("Missing @Transactional annotation for: " + method);
+            }
+            this.method = method;
+            this.executorType = transactional.executorType();
+            this.isolationLevel = transactional.isolation().getTransactionIsolationLevel();
+            this.rollbackOnly = transactional.rollbackOnly();
+            this.force = transactional.force();
+            this.readOnly = ClassUtils.getAnnotation(method, MBReadOnly.class) != null
+                            || method.getDeclaringClass().getAnnotation(MBReadOnly.class) != null;
+            this.rethrowExceptionsAs = transactional.rethrowExceptionsAs();
+            this.exceptionMessage = transactional.exceptionMessage();
+            this.exceptionTypes = method.getExceptionTypes();
+            this.exceptionConstructor = getMatchingConstructor(rethrowExceptionsAs,
+                                                               exceptionMessage.isEmpty()
+                                                               ? CAUSE_TYPES
+                                                               : MESSAGE_CAUSE_TYPES);
+        }
+
+        private String debugPrefix() {
+            if (debugPrefix == null) {
+                debugPrefix = format("[Intercepted method: %s]", method.toGenericString());
+            }
+            return debugPrefix;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static <E extends Throwable> Constructor<E> getMatchingConstructor(Class<E> type,
                                                                                Class<?>[] argumentsType) {
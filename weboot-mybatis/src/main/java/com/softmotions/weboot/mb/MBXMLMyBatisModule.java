@@ -16,6 +16,7 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -145,9 +146,31 @@ public abstract class MBXMLMyBatisModule extends MBAbstractMyBatisModule {
         }
     }
 
+    /**
+     * Register handlers of java primitive arrays unless handlers
+     * for these types are already configured.
+     * <p/>
+     * {@link StringArrayTypeHandler} is not registered globally
+     * to keep the existing binding of {@code String[]} parameters,
+     * it can be specified by {@code typeHandler} attribute of parameters and result mappings.
+     */
+    protected void registerArrayTypeHandlers(TypeHandlerRegistry registry) {
+        if (!registry.hasTypeHandler(int[].class)) {
+            registry.register(new IntArrayTypeHandler());
+        }
+        if (!registry.hasTypeHandler(long[].class)) {
+            registry.register(new LongArrayTypeHandler());
+        }
+        if (!registry.hasTypeHandler(double[].class)) {
+            registry.register(new DoubleArrayTypeHandler());
+        }
+    }
+
     protected class ExtendedSqlSessionFactoryBuilder extends SqlSessionFactoryBuilder {
         @Override
         public SqlSessionFactory build(Configuration config) {
+            config.addInterceptor(new MBFetchSizeInterceptor());
+            registerArrayTypeHandlers(config.getTypeHandlerRegistry());
             if (extraMappers == null || extraMappers.isEmpty()) {
                 try {
                     return super.build(config);
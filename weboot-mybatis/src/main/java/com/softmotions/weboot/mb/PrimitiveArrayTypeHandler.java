@@ -0,0 +1,67 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+/**
+ * Base type handler mapping one dimensional SQL arrays
+ * to java arrays without boxing of elements where possible.
+ * <p/>
+ * PostgreSQL JDBC driver keeps arrays fetched in text format as array literals,
+ * such literals are parsed directly into the target array.
+ * Arrays fetched in binary format, arrays of callable statements
+ * and arrays of other drivers are converted from {@link Array#getArray()}.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ * @see SqlArrays
+ */
+public abstract class PrimitiveArrayTypeHandler<T> extends BaseTypeHandler<T> {
+
+    private final String elementType;
+
+    /**
+     * @param elementType SQL type name of array elements
+     */
+    protected PrimitiveArrayTypeHandler(String elementType) {
+        this.elementType = elementType;
+    }
+
+    protected abstract T parse(String literal) throws SQLException;
+
+    protected abstract T convert(Object array) throws SQLException;
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, T parameter, JdbcType jdbcType) throws SQLException {
+        SqlArrays.bind(ps, i, parameter, elementType);
+    }
+
+    @Override
+    public T getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return getNullableResult(rs, rs.findColumn(columnName));
+    }
+
+    @Override
+    public T getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        Array array = rs.getArray(columnIndex);
+        if (array == null) {
+            return null;
+        }
+        String literal = SqlArrays.textLiteral(rs, columnIndex, array);
+        if (literal != null) {
+            return parse(literal);
+        }
+        return convert(array.getArray());
+    }
+
+    @Override
+    public T getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        Array array = cs.getArray(columnIndex);
+        return (array != null) ? convert(array.getArray()) : null;
+    }
+}
@@ -0,0 +1,429 @@
+package com.softmotions.weboot.mb;
+
+import java.lang.reflect.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGResultSetMetaData;
+
+/**
+ * Conversions between SQL arrays and java primitive arrays
+ * used by the array type handlers.
+ * <p/>
+ * PostgreSQL array literals (e.g. {@code {1,2,3}}) are parsed and
+ * produced directly, so neither reading nor binding of arrays boxes their elements.
+ * For other databases standard {@link java.sql.Array} API is used.
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+final class SqlArrays {
+
+    private static final int[] EMPTY_INTS = new int[0];
+
+    private static final long[] EMPTY_LONGS = new long[0];
+
+    private static final double[] EMPTY_DOUBLES = new double[0];
+
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    /**
+     * PostgreSQL driver is available, it is an optional dependency.
+     */
+    private static final boolean PG_DRIVER = isClassPresent("org.postgresql.PGResultSetMetaData");
+
+    private SqlArrays() {
+    }
+
+    /**
+     * Returns true if the given string looks like a PostgreSQL array literal.
+     */
+    static boolean isLiteral(String s) {
+        return s != null
+               && s.length() > 1
+               && s.charAt(s.length() - 1) == '}'
+               && (s.charAt(0) == '{' || (s.charAt(0) == '[' && s.indexOf("]={") > 0));
+    }
+
+    private static boolean isClassPresent(String name) {
+        try {
+            Class.forName(name, false, SqlArrays.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * PostgreSQL array literal of the array column fetched in text format
+     * or {@code null} if the column is not known to be fetched as text.
+     * <p/>
+     * PostgreSQL driver receives arrays in binary format when statement
+     * is server prepared (after {@code prepareThreshold} executions),
+     * {@code toString()} of such array decodes elements and formats the literal,
+     * so it is used only for columns reported as text by the driver result set metadata.
+     */
+    static String textLiteral(ResultSet rs, int columnIndex, java.sql.Array array) throws SQLException {
+        if (!PG_DRIVER || !PgFormat.isText(rs, columnIndex)) {
+            return null;
+        }
+        String literal = array.toString();
+        return isLiteral(literal) ? literal : null;
+    }
+
+    /**
+     * Loaded only if PostgreSQL driver is available.
+     */
+    private static final class PgFormat {
+
+        private static boolean isText(ResultSet rs, int columnIndex) throws SQLException {
+            ResultSetMetaData md = rs.getMetaData();
+            return md.isWrapperFor(PGResultSetMetaData.class)
+                   && md.unwrap(PGResultSetMetaData.class).getFormat(columnIndex) == 0;
+        }
+    }
+
+    static boolean isPostgres(Connection conn) throws SQLException {
+        return "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+    }
+
+    /**
+     * Bind the given java array as SQL array parameter.
+     *
+     * @param sqlType SQL type name of array elements used by {@link Connection#createArrayOf(String, Object[])}
+     */
+    static void bind(PreparedStatement ps, int idx, Object array, String sqlType) throws SQLException {
+        Connection conn = ps.getConnection();
+        if (isPostgres(conn)) {
+            // Untyped literal is casted to the parameter array type by the server
+            ps.setObject(idx, toLiteral(array), Types.OTHER);
+            return;
+        }
+        Object[] elements;
+        if (array instanceof Object[]) {
+            elements = (Object[]) array;
+        } else {
+            int len = Array.getLength(array);
+            elements = new Object[len];
+            for (int i = 0; i < len; ++i) {
+                elements[i] = Array.get(array, i);
+            }
+        }
+        java.sql.Array sa = conn.createArrayOf(sqlType, elements);
+        try {
+            ps.setArray(idx, sa);
+        } finally {
+            // Array data is copied into the statement parameter
+            try {
+                sa.free();
+            } catch (SQLException | AbstractMethodError ignored) {
+            }
+        }
+    }
+
+    static String toLiteral(Object array) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append('{');
+        if (array instanceof int[]) {
+            int[] a = (int[]) array;
+            for (int i = 0; i < a.length; ++i) {
+                if (i > 0) sb.append(',');
+                sb.append(a[i]);
+            }
+        } else if (array instanceof long[]) {
+            long[] a = (long[]) array;
+            for (int i = 0; i < a.length; ++i) {
+                if (i > 0) sb.append(',');
+                sb.append(a[i]);
+            }
+        } else if (array instanceof double[]) {
+            double[] a = (double[]) array;
+            for (int i = 0; i < a.length; ++i) {
+                if (i > 0) sb.append(',');
+                sb.append(a[i]);
+            }
+        } else {
+            int len = Array.getLength(array);
+            for (int i = 0; i < len; ++i) {
+                if (i > 0) sb.append(',');
+                Object v = Array.get(array, i);
+                if (v == null) {
+                    sb.append("NULL");
+                } else if (v instanceof Number || v instanceof Boolean) {
+                    sb.append(v);
+                } else {
+                    String s = v.toString();
+                    sb.append('"');
+                    for (int j = 0, l = s.length(); j < l; ++j) {
+                        char c = s.charAt(j);
+                        if (c == '"' || c == '\\') {
+                            sb.append('\\');
+                        }
+                        sb.append(c);
+                    }
+                    sb.append('"');
+                }
+            }
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Position of the opening brace of the literal
+     * with optional dimensions decoration: {@code [0:2]={1,2,3}}.
+     */
+    private static int start(String s) throws SQLException {
+        int pos = 0;
+        if (s.charAt(0) == '[') {
+            pos = s.indexOf('=');
+            if (pos == -1) {
+                throw malformed(s);
+            }
+            ++pos;
+        }
+        if (pos >= s.length() || s.charAt(pos) != '{') {
+            throw malformed(s);
+        }
+        if (pos + 1 < s.length() && s.charAt(pos + 1) == '{') {
+            throw new SQLException("Multidimensional arrays are not supported: " + abbreviate(s));
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Count elements of one dimensional array literal of unquoted elements.
+     */
+    private static int countElements(String s, int pos) {
+        if (s.charAt(pos) == '}') {
+            return 0;
+        }
+        int cnt = 1;
+        for (int i = pos, l = s.length(); i < l; ++i) {
+            if (s.charAt(i) == ',') {
+                ++cnt;
+            }
+        }
+        return cnt;
+    }
+
+    static int[] parseInts(String s) throws SQLException {
+        int pos = start(s);
+        int n = countElements(s, pos);
+        if (n == 0) {
+            return EMPTY_INTS;
+        }
+        int[] res = new int[n];
+        for (int k = 0; k < n; ++k) {
+            long v = 0;
+            boolean neg = false;
+            char c = s.charAt(pos);
+            if (c == '-') {
+                neg = true;
+                c = s.charAt(++pos);
+            }
+            if (c < '0' || c > '9') {
+                throw malformedElement(s);
+            }
+            while (c >= '0' && c <= '9') {
+                v = v * 10 + (c - '0');
+                if (v > 0x80000000L) {
+                    throw malformedElement(s);
+                }
+                c = s.charAt(++pos);
+            }
+            v = neg ? -v : v;
+            if (v > Integer.MAX_VALUE || (c != ',' && c != '}')) {
+                throw malformedElement(s);
+            }
+            res[k] = (int) v;
+            ++pos;
+        }
+        return res;
+    }
+
+    static long[] parseLongs(String s) throws SQLException {
+        int pos = start(s);
+        int n = countElements(s, pos);
+        if (n == 0) {
+            return EMPTY_LONGS;
+        }
+        long[] res = new long[n];
+        for (int k = 0; k < n; ++k) {
+            int end = pos;
+            char c;
+            while ((c = s.charAt(end)) != ',' && c != '}') {
+                ++end;
+            }
+            try {
+                res[k] = Long.parseLong(s, pos, end, 10);
+            } catch (NumberFormatException e) {
+                throw malformedElement(s);
+            }
+            pos = end + 1;
+        }
+        return res;
+    }
+
+    static double[] parseDoubles(String s) throws SQLException {
+        int pos = start(s);
+        int n = countElements(s, pos);
+        if (n == 0) {
+            return EMPTY_DOUBLES;
+        }
+        double[] res = new double[n];
+        for (int k = 0; k < n; ++k) {
+            int end = pos;
+            char c;
+            while ((c = s.charAt(end)) != ',' && c != '}') {
+                ++end;
+            }
+            try {
+                res[k] = Double.parseDouble(s.substring(pos, end));
+            } catch (NumberFormatException e) {
+                throw malformedElement(s);
+            }
+            pos = end + 1;
+        }
+        return res;
+    }
+
+    static String[] parseStrings(String s) throws SQLException {
+        int pos = start(s);
+        if (s.charAt(pos) == '}') {
+            return EMPTY_STRINGS;
+        }
+        List<String> res = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        final int len = s.length();
+        while (pos < len) {
+            char c = s.charAt(pos);
+            if (c == '"') {
+                sb.setLength(0);
+                for (++pos; pos < len && (c = s.charAt(pos)) != '"'; ++pos) {
+                    if (c == '\\' && pos + 1 < len) {
+                        c = s.charAt(++pos);
+                    }
+                    sb.append(c);
+                }
+                if (pos >= len) {
+                    throw malformed(s);
+                }
+                res.add(sb.toString());
+                ++pos;
+            } else {
+                int end = pos;
+                while (end < len && (c = s.charAt(end)) != ',' && c != '}') {
+                    ++end;
+                }
+                String v = s.substring(pos, end).trim();
+                res.add("NULL".equalsIgnoreCase(v) ? null : v);
+                pos = end;
+            }
+            if (pos >= len) {
+                throw malformed(s);
+            }
+            c = s.charAt(pos++);
+            if (c == '}') {
+                break;
+            } else if (c != ',') {
+                throw malformed(s);
+            }
+        }
+        return res.toArray(new String[res.size()]);
+    }
+
+    /**
+     * Convert the value returned by {@link java.sql.Array#getArray()} into {@code int[]}.
+     */
+    static int[] toInts(Object array) throws SQLException {
+        if (array instanceof int[]) {
+            return (int[]) array;
+        }
+        Object[] a = toObjects(array);
+        int[] res = new int[a.length];
+        for (int i = 0; i < a.length; ++i) {
+            res[i] = toNumber(a[i]).intValue();
+        }
+        return res;
+    }
+
+    static long[] toLongs(Object array) throws SQLException {
+        if (array instanceof long[]) {
+            return (long[]) array;
+        }
+        Object[] a = toObjects(array);
+        long[] res = new long[a.length];
+        for (int i = 0; i < a.length; ++i) {
+            res[i] = toNumber(a[i]).longValue();
+        }
+        return res;
+    }
+
+    static double[] toDoubles(Object array) throws SQLException {
+        if (array instanceof double[]) {
+            return (double[]) array;
+        }
+        Object[] a = toObjects(array);
+        double[] res = new double[a.length];
+        for (int i = 0; i < a.length; ++i) {
+            res[i] = toNumber(a[i]).doubleValue();
+        }
+        return res;
+    }
+
+    static String[] toStrings(Object array) throws SQLException {
+        if (array instanceof String[]) {
+            return (String[]) array;
+        }
+        Object[] a = toObjects(array);
+        String[] res = new String[a.length];
+        for (int i = 0; i < a.length; ++i) {
+            res[i] = (a[i] != null) ? a[i].toString() : null;
+        }
+        return res;
+    }
+
+    private static Object[] toObjects(Object array) throws SQLException {
+        if (array instanceof Object[]) {
+            return (Object[]) array;
+        }
+        if (array != null && array.getClass().isArray()) {
+            int len = Array.getLength(array);
+            Object[] res = new Object[len];
+            for (int i = 0; i < len; ++i) {
+                res[i] = Array.get(array, i);
+            }
+            return res;
+        }
+        throw new SQLException("Unsupported SQL array value: " + array);
+    }
+
+    private static Number toNumber(Object v) throws SQLException {
+        if (v instanceof Number) {
+            return (Number) v;
+        }
+        if (v == null) {
+            throw new SQLException("NULL array elements cannot be mapped to the primitive array");
+        }
+        throw new SQLException("Unsupported SQL array element: " + v);
+    }
+
+    private static SQLException malformed(String s) {
+        return new SQLException("Malformed array literal: " + abbreviate(s));
+    }
+
+    private static SQLException malformedElement(String s) {
+        return new SQLException("Malformed array element or NULL element " +
+                                "cannot be mapped to the primitive array: " + abbreviate(s));
+    }
+
+    private static String abbreviate(String s) {
+        return (s.length() > 64) ? s.substring(0, 64) + "..." : s;
+    }
+}
@@ -0,0 +1,34 @@
+package com.softmotions.weboot.mb;
+
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+/**
+ * Maps SQL arrays to {@code String[]}.
+ * <p/>
+ * Not registered by default, use it explicitly:
+ * {@code #{names,typeHandler=com.softmotions.weboot.mb.StringArrayTypeHandler}}
+ *
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+@MappedTypes(String[].class)
+@MappedJdbcTypes(value = JdbcType.ARRAY, includeNullJdbcType = true)
+public class StringArrayTypeHandler extends PrimitiveArrayTypeHandler<String[]> {
+
+    public StringArrayTypeHandler() {
+        super("varchar");
+    }
+
+    @Override
+    protected String[] parse(String literal) throws SQLException {
+        return SqlArrays.parseStrings(literal);
+    }
+
+    @Override
+    protected String[] convert(Object array) throws SQLException {
+        return SqlArrays.toStrings(array);
+    }
+}
@@ -4,10 +4,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import org.apache.commons.configuration2.HierarchicalConfiguration;
@@ -26,6 +32,7 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.multibindings.Multibinder;
 import com.softmotions.commons.ServicesConfiguration;
+import com.softmotions.commons.db.LeakDetectingDataSource;
 import com.softmotions.commons.lifecycle.Dispose;
 
 /**
@@ -37,6 +44,12 @@ public class WBMyBatisModule extends MBXMLMyBatisModule {
 
     private final ServicesConfiguration cfg;
 
+    private MBStatementStats statementStats;
+
+    private ObjectName statementStatsName;
+
+    private volatile LeakDetectingDataSource leakDetector;
+
     public WBMyBatisModule(ServicesConfiguration cfg) {
         this.cfg = cfg;
     }
@@ -60,11 +73,65 @@ public class WBMyBatisModule extends MBXMLMyBatisModule {
         if (xcfg.getBoolean("mybatis.bindDatasource", false)) {
             bind(DataSource.class).toProvider(DataSourceProvider.class);
         }
+        if (!xcfg.configurationsAt("mybatis.result-cache").isEmpty()) {
+            bind(MBResultCache.class).toInstance(createResultCache(xcfg));
+        }
+        if (!xcfg.configurationsAt("mybatis.statement-stats").isEmpty()) {
+            statementStats = new MBStatementStats(xcfg.getLong("mybatis.statement-stats.slow-threshold", 1000L));
+            bind(MBStatementStats.class).toInstance(statementStats);
+        }
         bind(WBMyBatisModule.class).toInstance(this);
         bind(SqlSessionFactory.class).toProvider(SqlSessionFactoryProvider.class).in(Singleton.class);
         bind(MyBatisInitializer.class).asEagerSingleton();
     }
 
+    /**
+     * Creates statement results cache configured as:
+     * <pre>
+     *     &lt;mybatis&gt;
+     *         &lt;result-cache&gt;
+     *             &lt;statement&gt;
+     *                 &lt;id&gt;com.example.Dict.selectCategories&lt;/id&gt;
+     *                 &lt;ttl&gt;300&lt;/ttl&gt;
+     *                 &lt;max-entries&gt;100&lt;/max-entries&gt;
+     *             &lt;/statement&gt;
+     *             &lt;statement&gt;
+     *                 &lt;id&gt;com.example.Settings.select&lt;/id&gt;
+     *                 &lt;region&gt;settings&lt;/region&gt;
+     *             &lt;/statement&gt;
+     *             &lt;invalidate&gt;
+     *                 &lt;on&gt;com.example.Settings&lt;/on&gt;
+     *                 &lt;region&gt;settings&lt;/region&gt;
+     *             &lt;/invalidate&gt;
+     *         &lt;/result-cache&gt;
+     *     &lt;/mybatis&gt;
+     * </pre>
+     * {@code ttl} is specified in seconds, default region is the statement namespace.
+     */
+    protected MBResultCache createResultCache(HierarchicalConfiguration<ImmutableNode> xcfg) {
+        MBResultCache rc = new MBResultCache();
+        for (HierarchicalConfiguration<ImmutableNode> sc : xcfg.configurationsAt("mybatis.result-cache.statement")) {
+            String id = sc.getString("id");
+            if (StringUtils.isBlank(id)) {
+                throw new RuntimeException("Missing required 'id' attribute in the <mybatis><result-cache><statement> element");
+            }
+            rc.register(id,
+                        sc.getString("region", MBResultCache.namespaceOf(id)),
+                        TimeUnit.SECONDS.toMillis(sc.getLong("ttl", 60L)),
+                        sc.getInt("max-entries", 1000));
+        }
+        for (HierarchicalConfiguration<ImmutableNode> ic : xcfg.configurationsAt("mybatis.result-cache.invalidate")) {
+            String on = ic.getString("on");
+            String region = ic.getString("region");
+            if (StringUtils.isBlank(on) || StringUtils.isBlank(region)) {
+                throw new RuntimeException("Missing required 'on' or 'region' attributes " +
+                                           "in the <mybatis><result-cache><invalidate> element");
+            }
+            rc.invalidateOn(on, region);
+        }
+        return rc;
+    }
+
     @SuppressWarnings("MethodDoesntCallSuperMethod")
     @Override
     protected void configureEagerSessionFactory() {
@@ -146,9 +213,161 @@ public class WBMyBatisModule extends MBXMLMyBatisModule {
                                    getProperties());
         }
 
+        if (statementStats != null) {
+            sessionFactory.getConfiguration().addInterceptor(new MBStatementStatsInterceptor(statementStats));
+            if (xcfg.getBoolean("mybatis.statement-stats.jmx", false)) {
+                registerStatementStatsMBean(xcfg.getString("mybatis.statement-stats.jmx-name",
+                                                           "com.softmotions.weboot.mb:type=MBStatementStats"));
+            }
+        }
+
+        if (!xcfg.configurationsAt("mybatis.replicas").isEmpty()) {
+            Environment env = sessionFactory.getConfiguration().getEnvironment();
+            DataSource rds = createRoutingDataSource(xcfg, env.getDataSource());
+            sessionFactory.getConfiguration().setEnvironment(
+                    new Environment(env.getId(), env.getTransactionFactory(), rds));
+        }
+
+        if (!xcfg.configurationsAt("mybatis.leak-detection").isEmpty()) {
+            Environment env = sessionFactory.getConfiguration().getEnvironment();
+            leakDetector = new LeakDetectingDataSource(
+                    env.getDataSource(),
+                    xcfg.getLong("mybatis.leak-detection.threshold", LeakDetectingDataSource.DEFAULT_THRESHOLD_MS),
+                    xcfg.getInt("mybatis.leak-detection.sample-rate", LeakDetectingDataSource.DEFAULT_SAMPLE_RATE));
+            sessionFactory.getConfiguration().setEnvironment(
+                    new Environment(env.getId(), env.getTransactionFactory(), leakDetector));
+            sessionFactory.getConfiguration().addInterceptor(new MBLeakContextInterceptor());
+            log.info("MyBatis connection leak detection enabled");
+        }
+
         return sessionFactory;
     }
 
+    /**
+     * Connection leak detector wrapping the environment datasource configured as:
+     * <pre>
+     *     &lt;mybatis&gt;
+     *         &lt;leak-detection&gt;
+     *             &lt;threshold&gt;30000&lt;/threshold&gt;
+     *             &lt;sample-rate&gt;10&lt;/sample-rate&gt;
+     *         &lt;/leak-detection&gt;
+     *     &lt;/mybatis&gt;
+     * </pre>
+     * {@code threshold} is specified in milliseconds,
+     * stack of every {@code sample-rate}-th borrowed connection is captured.
+     * Connections borrowed by statements of {@link MBSqlSessionManager} sessions
+     * are attributed to the mapped statement ids.
+     *
+     * @return Leak detector or {@code null} if it is not configured
+     */
+    public LeakDetectingDataSource getLeakDetector() {
+        return leakDetector;
+    }
+
+    /**
+     * Statement statistics configured as:
+     * <pre>
+     *     &lt;mybatis&gt;
+     *         &lt;statement-stats&gt;
+     *             &lt;slow-threshold&gt;500&lt;/slow-threshold&gt;
+     *             &lt;jmx&gt;true&lt;/jmx&gt;
+     *             &lt;jmx-name&gt;com.softmotions.weboot.mb:type=MBStatementStats&lt;/jmx-name&gt;
+     *         &lt;/statement-stats&gt;
+     *     &lt;/mybatis&gt;
+     * </pre>
+     * {@code slow-threshold} is specified in milliseconds.
+     *
+     * @return Statement statistics or {@code null} if they are not configured
+     */
+    public MBStatementStats getStatementStats() {
+        return statementStats;
+    }
+
+    private synchronized void registerStatementStatsMBean(String name) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName oname = new ObjectName(name);
+            mbs.registerMBean(statementStats, oname);
+            statementStatsName = oname;
+            log.info("MyBatis statement stats registered as JMX bean: {}", name);
+        } catch (Exception e) {
+            log.warn("Failed to register MyBatis statement stats JMX bean: {}", name, e);
+        }
+    }
+
+    private synchronized void unregisterStatementStatsMBean() {
+        if (statementStatsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(statementStatsName);
+        } catch (Exception e) {
+            log.warn("Failed to unregister JMX bean: {}", statementStatsName, e);
+        } finally {
+            statementStatsName = null;
+        }
+    }
+
+    /**
+     * Creates datasource routing read only managed sessions
+     * (see {@link MBReadOnly}) to the read replicas configured as:
+     * <pre>
+     *     &lt;mybatis&gt;
+     *         &lt;replicas&gt;
+     *             &lt;strategy&gt;least-connections&lt;/strategy&gt;
+     *             &lt;retry-interval&gt;30&lt;/retry-interval&gt;
+     *             &lt;replica&gt;
+     *                 &lt;url&gt;jdbc:postgresql://replica1/db&lt;/url&gt;
+     *                 &lt;max-active&gt;20&lt;/max-active&gt;
+     *             &lt;/replica&gt;
+     *             &lt;replica&gt;
+     *                 &lt;url&gt;jdbc:postgresql://replica2/db&lt;/url&gt;
+     *             &lt;/replica&gt;
+     *         &lt;/replicas&gt;
+     *     &lt;/mybatis&gt;
+     * </pre>
+     * {@code strategy} is one of {@code round-robin} (default) or {@code least-connections},
+     * {@code retry-interval} is specified in seconds.
+     * Replica {@code driver}, {@code username} and {@code password}
+     * default to the settings of the primary pooled datasource.
+     */
+    protected MBRoutingDataSource createRoutingDataSource(HierarchicalConfiguration<ImmutableNode> xcfg,
+                                                          DataSource primary) {
+        PooledDataSource ppds = (primary instanceof PooledDataSource) ? (PooledDataSource) primary : null;
+        List<DataSource> replicas = new ArrayList<>();
+        for (HierarchicalConfiguration<ImmutableNode> rc : xcfg.configurationsAt("mybatis.replicas.replica")) {
+            String url = rc.getString("url");
+            if (StringUtils.isBlank(url)) {
+                throw new RuntimeException("Missing required 'url' attribute in the <mybatis><replicas><replica> element");
+            }
+            String driver = rc.getString("driver", ppds != null ? ppds.getDriver() : null);
+            if (StringUtils.isBlank(driver)) {
+                throw new RuntimeException("Missing required 'driver' attribute in the <mybatis><replicas><replica> element");
+            }
+            PooledDataSource rds = new PooledDataSource(driver, url,
+                                                        rc.getString("username", ppds != null ? ppds.getUsername() : null),
+                                                        rc.getString("password", ppds != null ? ppds.getPassword() : null));
+            if (ppds != null) {
+                rds.setPoolMaximumActiveConnections(ppds.getPoolMaximumActiveConnections());
+                rds.setPoolMaximumIdleConnections(ppds.getPoolMaximumIdleConnections());
+                rds.setPoolPingEnabled(ppds.isPoolPingEnabled());
+                rds.setPoolPingQuery(ppds.getPoolPingQuery());
+                rds.setPoolPingConnectionsNotUsedFor(ppds.getPoolPingConnectionsNotUsedFor());
+            }
+            if (rc.containsKey("max-active")) {
+                rds.setPoolMaximumActiveConnections(rc.getInt("max-active"));
+            }
+            log.info("MyBatis read replica: {}", url);
+            replicas.add(rds);
+        }
+        String strategy = xcfg.getString("mybatis.replicas.strategy", "round-robin");
+        return new MBRoutingDataSource(primary,
+                                       replicas,
+                                       MBRoutingDataSource.Strategy.valueOf(
+                                               strategy.trim().toUpperCase().replace('-', '_')),
+                                       TimeUnit.SECONDS.toMillis(xcfg.getLong("mybatis.replicas.retry-interval", 30L)));
+    }
+
 
     public static class SqlSessionFactoryProvider implements Provider<SqlSessionFactory> {
 
@@ -197,15 +416,20 @@ public class WBMyBatisModule extends MBXMLMyBatisModule {
 
         private final ServicesConfiguration cfg;
 
+        private final WBMyBatisModule module;
+
         @Inject
         public MyBatisInitializer(Provider<DataSource> dsProvider,
-                                  ServicesConfiguration cfg) {
+                                  ServicesConfiguration cfg,
+                                  WBMyBatisModule module) {
             this.dsProvider = dsProvider;
             this.cfg = cfg;
+            this.module = module;
         }
 
         @Dispose(order = 5)
         public void shutdown() {
+            module.unregisterStatementStatsMBean();
             log.info("Shutting down MyBatis datasource");
             DataSource ds = dsProvider.get();
             String shutdownSql = cfg.xcfg().getString("mybatis.shutdownSQL");
@@ -219,10 +443,20 @@ public class WBMyBatisModule extends MBXMLMyBatisModule {
                     log.error("", e);
                 }
             }
-            if (ds instanceof PooledDataSource) {
+            // Leak detector checker thread is stopped whatever datasource is bound
+            LeakDetectingDataSource leakDetector = module.getLeakDetector();
+            if (leakDetector != null) {
+                leakDetector.close();
+            }
+            if (ds instanceof LeakDetectingDataSource) {
+                ds = ((LeakDetectingDataSource) ds).getDelegate();
+            }
+            if (ds instanceof MBRoutingDataSource) {
+                ((MBRoutingDataSource) ds).forceCloseAll();
+            } else if (ds instanceof PooledDataSource) {
                 PooledDataSource pds = (PooledDataSource) ds;
                 pds.forceCloseAll();
-            } else {
+            } else if (ds != null) {
                 log.warn("Unknown datasource found: {} it will not be closed", ds.getClass().getName());
             }
         }
@@ -0,0 +1,176 @@
+package com.softmotions.weboot.mb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.collections4.MapIterator;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBParamsMapTest {
+
+    @Test
+    public void testAgainstHashMap() throws Exception {
+        Random rnd = new Random(42);
+        MBParamsMap map = new MBParamsMap(4);
+        Map<String, Object> ref = new HashMap<>();
+        for (int i = 0; i < 20000; ++i) {
+            String key = "k" + rnd.nextInt(64);
+            int op = rnd.nextInt(4);
+            if (op == 0) {
+                Assert.assertEquals(map.remove(key), ref.remove(key));
+            } else if (op == 1 && rnd.nextInt(200) == 0) {
+                map.clear();
+                ref.clear();
+            } else {
+                Object val = (i % 10 == 0) ? null : i;
+                Assert.assertEquals(map.put(key, val), ref.put(key, val));
+            }
+            Assert.assertEquals(map.size(), ref.size());
+            Assert.assertEquals(map.containsKey(key), ref.containsKey(key));
+            Assert.assertEquals(map.get(key), ref.get(key));
+        }
+        Assert.assertEquals(map, ref);
+        Assert.assertEquals(new HashMap<>(map), ref);
+        Assert.assertEquals(map.hashCode(), ref.hashCode());
+    }
+
+    @Test
+    public void testIteratorRemove() throws Exception {
+        MBParamsMap map = new MBParamsMap();
+        for (int i = 0; i < 30; ++i) {
+            map.put("k" + i, i);
+        }
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object> e = it.next();
+            if ((Integer) e.getValue() % 2 == 0) {
+                it.remove();
+            } else {
+                e.setValue(-(Integer) e.getValue());
+            }
+        }
+        Assert.assertEquals(map.size(), 15);
+        for (int i = 0; i < 30; ++i) {
+            Assert.assertEquals(map.get("k" + i), (i % 2 == 0) ? null : -i);
+        }
+    }
+
+    @Test
+    public void testCriteriaQuery() throws Exception {
+        MBCriteriaQuery cq = new MBCriteriaQuery(null, "ns");
+        cq.withParam("name", "foo")
+          .prefixedBy("t.")
+          .orderBy("a", "b").desc()
+          .orderBy("c").asc()
+          .limit(10)
+          .offset(20)
+          .finish();
+        Assert.assertEquals(cq.get("CQ_ORDERBY"), "t.a, t.b DESC, t.c ASC");
+        Assert.assertEquals(cq.get("CQ_LIMIT"), 10);
+        Assert.assertEquals(cq.get("CQ_OFFSET"), 20);
+        Assert.assertEquals(cq.get("name"), "foo");
+        Assert.assertEquals(cq.getRowBounds().getLimit(), 10);
+        Assert.assertEquals(cq.getRowBounds().getOffset(), 20);
+
+        cq.clear();
+        Assert.assertFalse(cq.isFinished());
+        Assert.assertTrue(cq.isEmpty());
+        cq.orderBy("x").finish();
+        Assert.assertEquals(cq.get("CQ_ORDERBY"), "x");
+
+        MBCriteriaQuery pq = new MBCriteriaQuery(null, "ns", "Q_");
+        pq.withPK(1).orderBy("y").finish();
+        Assert.assertEquals(pq.get("Q_PK"), 1);
+        Assert.assertEquals(pq.get("Q_ORDERBY"), "y");
+    }
+
+    @Test
+    public void testNullKey() throws Exception {
+        MBParamsMap map = new MBParamsMap();
+        map.put("a", 1);
+        Assert.assertFalse(map.containsKey(null));
+        Assert.assertNull(map.put(null, 2));
+        Assert.assertEquals(map.put(null, 3), 2);
+        Assert.assertEquals(map.size(), 2);
+        Assert.assertTrue(map.containsKey(null));
+        Assert.assertTrue(map.containsValue(3));
+        Assert.assertEquals(map.get(null), 3);
+        Map<String, Object> ref = new HashMap<>();
+        ref.put("a", 1);
+        ref.put(null, 3);
+        Assert.assertEquals(map, ref);
+        Assert.assertEquals(map.hashCode(), ref.hashCode());
+
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getKey() == null) {
+                it.remove();
+            }
+        }
+        Assert.assertFalse(map.containsKey(null));
+        Assert.assertEquals(map.size(), 1);
+        map.put(null, 4);
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(null));
+    }
+
+    @Test
+    public void testCloneAndSerialize() throws Exception {
+        MBParamsMap map = new MBParamsMap(4);
+        for (int i = 0; i < 10; ++i) {
+            map.put("k" + i, i);
+        }
+        map.remove("k3");
+        map.put(null, "n");
+
+        MBParamsMap copy = map.clone();
+        Assert.assertEquals(copy, map);
+        copy.put("k0", -1);
+        copy.remove(null);
+        Assert.assertEquals(map.get("k0"), 0);
+        Assert.assertEquals(map.get(null), "n");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeObject(map);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            MBParamsMap read = (MBParamsMap) in.readObject();
+            Assert.assertEquals(read, map);
+            read.put("k3", 3);
+            Assert.assertEquals(read.size(), map.size() + 1);
+        }
+
+        MapIterator<String, Object> mit = map.mapIterator();
+        int cnt = 0;
+        while (mit.hasNext()) {
+            String key = mit.next();
+            Assert.assertEquals(mit.getValue(), map.get(key));
+            ++cnt;
+        }
+        Assert.assertEquals(cnt, map.size());
+    }
+
+    @Test
+    public void testCriteriaQueryClone() throws Exception {
+        MBCriteriaQuery cq = new MBCriteriaQuery(null, "ns");
+        cq.withParam("name", "foo").orderBy("a");
+        MBCriteriaQuery copy = cq.clone();
+        copy.orderBy("b").finish();
+        cq.finish();
+        Assert.assertEquals(cq.get("CQ_ORDERBY"), "a");
+        Assert.assertEquals(copy.get("CQ_ORDERBY"), "a, b");
+        Assert.assertEquals(copy.get("name"), "foo");
+    }
+}
@@ -0,0 +1,88 @@
+package com.softmotions.weboot.mb;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Date;
+
+import org.postgresql.copy.CopyIn;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBPgCopyTest {
+
+    private static CopyIn capture(ByteArrayOutputStream out) {
+        return (CopyIn) Proxy.newProxyInstance(
+                CopyIn.class.getClassLoader(),
+                new Class[]{CopyIn.class},
+                (proxy, method, args) -> {
+                    if ("writeToCopy".equals(method.getName())) {
+                        out.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                    }
+                    return null;
+                });
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Small buffer to exercise flushing
+        MBPgCopy.Encoder enc = new MBPgCopy.Encoder(capture(out), new byte[7]);
+        enc.putCsvRow(new Object[]{1, "a \"b\", c", null, ""});
+        enc.putCsvRow(new Object[]{2L, "Привет 😀", new byte[]{0x0f, (byte) 0xa0}, new int[]{1, 2}});
+        enc.flush();
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8),
+                            "1,\"a \"\"b\"\", c\",,\"\"\n" +
+                            "2,\"Привет 😀\",\\x0fa0,\"{1,2}\"\n");
+    }
+
+    @Test
+    public void testCsvTimestamp() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MBPgCopy.Encoder enc = new MBPgCopy.Encoder(capture(out), new byte[64]);
+        Timestamp ts = Timestamp.from(Instant.parse("2018-03-25T01:30:00.123456Z"));
+        Date d = new Date(ts.getTime());
+        enc.putCsvRow(new Object[]{ts, d});
+        enc.flush();
+        String[] values = new String(out.toByteArray(), StandardCharsets.UTF_8).trim().split(",");
+        // Values carry the zone offset, so the same instant is stored whatever the session time zone is
+        Assert.assertEquals(OffsetDateTime.parse(values[0]).toInstant(), ts.toInstant());
+        Assert.assertEquals(OffsetDateTime.parse(values[1]).toInstant(), d.toInstant());
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MBPgCopy.Encoder enc = new MBPgCopy.Encoder(capture(out), new byte[5]);
+        enc.putBinaryRow(new Object[]{7, null, "ж", LocalDate.of(2000, 1, 2)});
+        enc.flush();
+        Assert.assertEquals(out.toByteArray(), new byte[]{
+                0, 4,
+                0, 0, 0, 4, 0, 0, 0, 7,
+                -1, -1, -1, -1,
+                0, 0, 0, 2, (byte) 0xd0, (byte) 0xb6,
+                0, 0, 0, 4, 0, 0, 0, 1
+        });
+        Assert.assertEquals(MBPgCopy.Encoder.utf8Length("aж😀"), 7);
+    }
+
+    @Test
+    public void testSql() throws Exception {
+        Assert.assertEquals(MBPgCopy.buildSql("public.items", new String[]{"id", "name"}, MBPgCopy.Format.BINARY),
+                            "COPY public.items (id, name) FROM STDIN WITH (FORMAT binary)");
+        Assert.assertEquals(MBPgCopy.buildSql("items", new String[]{"id"}, MBPgCopy.Format.CSV),
+                            "COPY items (id) FROM STDIN WITH (FORMAT csv, ENCODING 'UTF8')");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidIdentifier() throws Exception {
+        MBPgCopy.buildSql("items; DROP TABLE items", new String[]{"id"}, MBPgCopy.Format.CSV);
+    }
+}
@@ -0,0 +1,156 @@
+package com.softmotions.weboot.mb;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBResultCacheTest {
+
+    private MBResultCache cache;
+
+    private MBSqlSessionManager sm;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeMethod
+    public void setUp() {
+        cache = new MBResultCache()
+                .register("ns.find", 60000, 100)
+                .register("other.find", 60000, 100);
+        sm = MBSqlSessionManager.newInstance(stubFactory());
+        loads.set(0);
+    }
+
+    @Test
+    public void testAutoSessionWrite() throws Exception {
+        Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+        Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+        Assert.assertEquals(find("b"), Arrays.asList("b", 2));
+        Assert.assertEquals(loads.get(), 2);
+
+        // Write into other namespace
+        cache.onWrite(sm, "other.update");
+        Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+
+        // Write committed by the auto session evicts the whole region
+        cache.onWrite(sm, "ns.update");
+        Assert.assertEquals(find("a"), Arrays.asList("a", 3));
+        Assert.assertEquals(find("b"), Arrays.asList("b", 4));
+
+        cache.invalidateOn("ext.update", "ns");
+        cache.onWrite(sm, "ext.update");
+        Assert.assertEquals(find("a"), Arrays.asList("a", 5));
+    }
+
+    @Test
+    public void testWriterBypassesCacheUntilCommit() throws Exception {
+        Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+        sm.startManagedSession(false);
+        try {
+            cache.onWrite(sm, "ns.update");
+            // Uncommitted data is neither read from nor stored into the cache
+            Assert.assertEquals(find("a"), Arrays.asList("a", 2));
+            Assert.assertEquals(find("a"), Arrays.asList("a", 3));
+            Assert.assertEquals(findInOtherThread("a"), Arrays.asList("a", 1));
+            // Region not written by the session is still cached
+            Assert.assertEquals(cache.get("other.find", "a", () -> "loaded"), "loaded");
+            Assert.assertEquals(cache.get("other.find", "a", () -> "reloaded"), "loaded");
+
+            sm.commit();
+            Assert.assertEquals(findInOtherThread("a"), Arrays.asList("a", 4));
+            Assert.assertEquals(find("a"), Arrays.asList("a", 4));
+        } finally {
+            sm.close();
+        }
+    }
+
+    @Test
+    public void testRollbackKeepsEntries() throws Exception {
+        Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+        sm.startManagedSession(false);
+        try {
+            cache.onWrite(sm, "ns.update");
+            Assert.assertEquals(find("a"), Arrays.asList("a", 2));
+            sm.rollback();
+            Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+        } finally {
+            sm.close();
+        }
+        Assert.assertEquals(find("a"), Arrays.asList("a", 1));
+        Assert.assertEquals(loads.get(), 2);
+    }
+
+    @Test
+    public void testLoadRacingWithInvalidation() throws Exception {
+        List<Object> res = cache.get("ns.find", "a", () -> {
+            // Region is evicted by the concurrent write while the result is loaded
+            cache.invalidate("ns");
+            return load("a");
+        });
+        Assert.assertEquals(res, Arrays.asList("a", 1));
+        Assert.assertEquals(find("a"), Arrays.asList("a", 2));
+        Assert.assertEquals(find("a"), Arrays.asList("a", 2));
+    }
+
+    @Test
+    public void testNullAndUnmodifiableResults() throws Exception {
+        Assert.assertNull(cache.get("ns.find", 1, () -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        Assert.assertNull(cache.get("ns.find", 1, () -> "not cached"));
+        Assert.assertEquals(loads.get(), 1);
+        try {
+            find("a").add("x");
+            Assert.fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        // Not cached statement
+        Assert.assertEquals(cache.get("ns.list", "a", () -> "x"), "x");
+        Assert.assertEquals(cache.get("ns.list", "a", () -> "y"), "y");
+    }
+
+    private List<Object> find(String param) {
+        return cache.get("ns.find", param, () -> load(param));
+    }
+
+    private List<Object> findInOtherThread(String param) throws Exception {
+        return CompletableFuture.supplyAsync(() -> find(param)).get(10, TimeUnit.SECONDS);
+    }
+
+    private List<Object> load(String param) {
+        return Arrays.asList(param, loads.incrementAndGet());
+    }
+
+    private static SqlSessionFactory stubFactory() {
+        return (SqlSessionFactory) Proxy.newProxyInstance(
+                SqlSessionFactory.class.getClassLoader(), new Class[]{SqlSessionFactory.class}, (p, m, args) -> {
+                    if (m.getName().startsWith("openSession")) {
+                        return Proxy.newProxyInstance(
+                                SqlSession.class.getClassLoader(), new Class[]{SqlSession.class}, (sp, sm2, sargs) -> {
+                                    switch (sm2.getName()) {
+                                        case "hashCode":
+                                            return System.identityHashCode(sp);
+                                        case "equals":
+                                            return sp == sargs[0];
+                                        default:
+                                            return null;
+                                    }
+                                });
+                    }
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,242 @@
+package com.softmotions.weboot.mb;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionException;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class MBSqlSessionManagerTest {
+
+    @Test
+    public void testSelectParallelOrder() throws Exception {
+        StubFactory sf = new StubFactory();
+        MBSqlSessionManager mgr = MBSqlSessionManager.newInstance(sf.factory());
+        List<Function<SqlSession, Integer>> queries = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            int n = i;
+            queries.add(sess -> {
+                sleep(10 - n);
+                return n;
+            });
+        }
+        List<Integer> res = mgr.selectParallel(10, TimeUnit.SECONDS, queries);
+        Assert.assertEquals(res, Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        Assert.assertEquals(sf.opened.get(), 10);
+        Assert.assertEquals(sf.closed.get(), 10);
+    }
+
+    @Test
+    public void testDefaultExecutorIsBounded() throws Exception {
+        StubFactory sf = new StubFactory();
+        MBSqlSessionManager mgr = MBSqlSessionManager.newInstance(sf.factory());
+        mgr.setParallelism(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Function<SqlSession, Integer>> queries = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            queries.add(sess -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(30);
+                running.decrementAndGet();
+                return 1;
+            });
+        }
+        Assert.assertEquals(mgr.selectParallel(10, TimeUnit.SECONDS, queries).size(), 8);
+        Assert.assertEquals(maxRunning.get(), 2);
+        // Sessions (connections) are opened only by running queries
+        Assert.assertEquals(sf.maxOpen.get(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSelectParallelFailure() throws Exception {
+        MBSqlSessionManager mgr = MBSqlSessionManager.newInstance(new StubFactory().factory());
+        mgr.selectParallel(10, TimeUnit.SECONDS, Arrays.<Function<SqlSession, Integer>>asList(
+                sess -> 1,
+                sess -> {
+                    throw new IllegalStateException("failed");
+                }));
+    }
+
+    @Test
+    public void testSelectParallelTimeout() throws Exception {
+        StubFactory sf = new StubFactory();
+        MBSqlSessionManager mgr = MBSqlSessionManager.newInstance(sf.factory());
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            mgr.selectParallel(100, TimeUnit.MILLISECONDS, Arrays.<Function<SqlSession, Integer>>asList(
+                    sess -> {
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return 1;
+                    }));
+            Assert.fail();
+        } catch (SqlSessionException expected) {
+        }
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sf.closed.get() < 1) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            sleep(5);
+        }
+    }
+
+    @Test
+    public void testManagedSessionUntouched() throws Exception {
+        StubFactory sf = new StubFactory();
+        MBSqlSessionManager mgr = MBSqlSessionManager.newInstance(sf.factory());
+        mgr.startManagedSession(false);
+        try {
+            SqlSession managed = sf.sessions.get(0);
+            List<SqlSession> used = mgr.selectParallel(10, TimeUnit.SECONDS,
+                                                       Arrays.<Function<SqlSession, SqlSession>>asList(
+                                                               sess -> sess, sess -> sess));
+            for (SqlSession s : used) {
+                Assert.assertNotSame(s, managed);
+            }
+            Assert.assertTrue(mgr.isManagedSessionStarted());
+            Assert.assertEquals(sf.closed.get(), 2);
+        } finally {
+            mgr.close();
+        }
+        Assert.assertEquals(sf.closed.get(), 3);
+    }
+
+    @Test
+    public void testBatchSessionSharedConnection() throws Exception {
+        StubFactory sf = new StubFactory();
+        MBSqlSessionManager mgr = MBSqlSessionManager.newInstance(sf.factory());
+        mgr.startManagedSession(false);
+        try {
+            mgr.withBatchSession(sess -> {
+                Connection c = sf.sharedConnection;
+                Assert.assertNotNull(c);
+                try {
+                    Savepoint sp = c.setSavepoint();
+                    c.rollback(sp);
+                    c.rollback();
+                    c.commit();
+                    c.setAutoCommit(true);
+                    c.close();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            });
+            // Only savepoint operations reach the managed session connection
+            Assert.assertEquals(sf.connectionCalls, Arrays.asList("setSavepoint", "rollback(Savepoint)"));
+        } finally {
+            mgr.close();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Session factory counting opened and closed stub sessions.
+     */
+    private static final class StubFactory {
+
+        private final AtomicInteger opened = new AtomicInteger();
+
+        private final AtomicInteger closed = new AtomicInteger();
+
+        private final AtomicInteger maxOpen = new AtomicInteger();
+
+        private final List<SqlSession> sessions = new ArrayList<>();
+
+        /**
+         * Calls of the connection of opened sessions.
+         */
+        private final List<String> connectionCalls = new ArrayList<>();
+
+        private final Connection connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class[]{Connection.class}, (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        case "equals":
+                            return p == args[0];
+                        case "setSavepoint":
+                            connectionCalls.add(m.getName());
+                            return Proxy.newProxyInstance(
+                                    Savepoint.class.getClassLoader(), new Class[]{Savepoint.class},
+                                    (sp, sm, sargs) -> null);
+                        default:
+                            connectionCalls.add((m.getParameterCount() == 0) ? m.getName()
+                                                : m.getName() + '(' + m.getParameterTypes()[0].getSimpleName() + ')');
+                            return null;
+                    }
+                });
+
+        /**
+         * Connection passed to the last opened session.
+         */
+        private volatile Connection sharedConnection;
+
+        private SqlSessionFactory factory() {
+            return (SqlSessionFactory) Proxy.newProxyInstance(
+                    SqlSessionFactory.class.getClassLoader(), new Class[]{SqlSessionFactory.class}, (p, m, args) -> {
+                        if (m.getName().startsWith("openSession")) {
+                            if (args != null) {
+                                for (Object a : args) {
+                                    if (a instanceof Connection) {
+                                        sharedConnection = (Connection) a;
+                                    }
+                                }
+                            }
+                            return openSession();
+                        }
+                        return null;
+                    });
+        }
+
+        private SqlSession openSession() {
+            int open = opened.incrementAndGet() - closed.get();
+            maxOpen.accumulateAndGet(open, Math::max);
+            SqlSession sess = (SqlSession) Proxy.newProxyInstance(
+                    SqlSession.class.getClassLoader(), new Class[]{SqlSession.class}, (p, m, args) -> {
+                        switch (m.getName()) {
+                            case "close":
+                                closed.incrementAndGet();
+                                return null;
+                            case "getConnection":
+                                return connection;
+                            case "hashCode":
+                                return System.identityHashCode(p);
+                            case "equals":
+                                return p == args[0];
+                            default:
+                                return null;
+                        }
+                    });
+            synchronized (sessions) {
+                sessions.add(sess);
+            }
+            return sess;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.softmotions.weboot.mb;
+
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.postgresql.PGResultSetMetaData;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Adamansky Anton (adamansky@gmail.com)
+ */
+public class SqlArraysTest {
+
+    @Test
+    public void testParseNumbers() throws Exception {
+        Assert.assertEquals(SqlArrays.parseInts("{}"), new int[0]);
+        Assert.assertEquals(SqlArrays.parseInts("{1,-2,2147483647,-2147483648}"),
+                            new int[]{1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE});
+        Assert.assertEquals(SqlArrays.parseInts("[0:1]={7,8}"), new int[]{7, 8});
+        Assert.assertEquals(SqlArrays.parseLongs("{1,-9223372036854775808}"), new long[]{1L, Long.MIN_VALUE});
+        Assert.assertTrue(Arrays.equals(SqlArrays.parseDoubles("{1.5,-2e+20,NaN,Infinity}"),
+                                        new double[]{1.5, -2e20, Double.NaN, Double.POSITIVE_INFINITY}));
+        Assert.assertEquals(SqlArrays.parseInts(SqlArrays.toLiteral(new int[]{3, 2, 1})), new int[]{3, 2, 1});
+        Assert.assertEquals(SqlArrays.parseDoubles(SqlArrays.toLiteral(new double[]{0.1, 1e-300})),
+                            new double[]{0.1, 1e-300});
+    }
+
+    @Test
+    public void testParseStrings() throws Exception {
+        Assert.assertEquals(SqlArrays.parseStrings("{}"), new String[0]);
+        Assert.assertEquals(SqlArrays.parseStrings("{a,NULL,\"b c\",\"x\\\"y\\\\z\",\"NULL\"}"),
+                            new String[]{"a", null, "b c", "x\"y\\z", "NULL"});
+        String[] data = {"one, two", "{}", null, "\"quoted\""};
+        Assert.assertEquals(SqlArrays.parseStrings(SqlArrays.toLiteral(data)), data);
+    }
+
+    @Test
+    public void testLiteralDetection() throws Exception {
+        Assert.assertTrue(SqlArrays.isLiteral("{1,2}"));
+        Assert.assertTrue(SqlArrays.isLiteral("[2:3]={1,2}"));
+        Assert.assertFalse(SqlArrays.isLiteral("[1, 2]"));
+        Assert.assertFalse(SqlArrays.isLiteral("org.h2.jdbc.JdbcArray@1"));
+    }
+
+    @Test
+    public void testTextLiteral() throws Exception {
+        Array array = (Array) Proxy.newProxyInstance(
+                Array.class.getClassLoader(), new Class[]{Array.class},
+                (p, m, args) -> "toString".equals(m.getName()) ? "{1,2}" : null);
+        Assert.assertEquals(SqlArrays.textLiteral(resultSet(pgMetaData(0)), 1, array), "{1,2}");
+        // toString() of binary array is not used
+        Assert.assertNull(SqlArrays.textLiteral(resultSet(pgMetaData(1)), 1, array));
+        // Literal-like toString() of other drivers arrays is not trusted
+        ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(
+                ResultSetMetaData.class.getClassLoader(), new Class[]{ResultSetMetaData.class},
+                (p, m, args) -> "isWrapperFor".equals(m.getName()) ? false : null);
+        Assert.assertNull(SqlArrays.textLiteral(resultSet(md), 1, array));
+    }
+
+    private static ResultSetMetaData pgMetaData(int format) {
+        return (ResultSetMetaData) Proxy.newProxyInstance(
+                ResultSetMetaData.class.getClassLoader(),
+                new Class[]{ResultSetMetaData.class, PGResultSetMetaData.class},
+                (p, m, args) -> {
+                    switch (m.getName()) {
+                        case "isWrapperFor":
+                            return ((Class<?>) args[0]).isInstance(p);
+                        case "unwrap":
+                            return p;
+                        case "getFormat":
+                            return format;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static ResultSet resultSet(ResultSetMetaData md) {
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(), new Class[]{ResultSet.class},
+                (p, m, args) -> "getMetaData".equals(m.getName()) ? md : null);
+    }
+
+    @Test(expectedExceptions = SQLException.class)
+    public void testNullElement() throws Exception {
+        SqlArrays.parseInts("{1,NULL}");
+    }
+
+    @Test(expectedExceptions = SQLException.class)
+    public void testIntOverflow() throws Exception {
+        SqlArrays.parseInts("{2147483648}");
+    }
+
+    @Test(expectedExceptions = SQLException.class)
+    public void testMultidimensional() throws Exception {
+        SqlArrays.parseInts("{{1,2},{3,4}}");
+    }
+}